@@ -0,0 +1,51 @@
+package com.joseprio.stocktest.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the per stock calculations
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StockBenchmark {
+	private Stock mCommon;
+	private Stock mPreferred;
+	// Not a constant, so the calculations cannot be folded
+	private double mMarketPrice = 120.5;
+
+	@Setup
+	public void setup() {
+		mCommon = Stock.byTicker("POP");
+		mPreferred = Stock.byTicker("GIN");
+	}
+
+	@Benchmark
+	public double commonDividendYield() {
+		return mCommon.calculateDividendYield(mMarketPrice);
+	}
+
+	@Benchmark
+	public double preferredDividendYield() {
+		return mPreferred.calculateDividendYield(mMarketPrice);
+	}
+
+	@Benchmark
+	public double peRatio() {
+		return mCommon.calculatePERatio(mMarketPrice);
+	}
+}
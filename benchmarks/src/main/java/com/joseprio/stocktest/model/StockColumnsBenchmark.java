@@ -0,0 +1,80 @@
+package com.joseprio.stocktest.model;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joseprio.stocktest.common.StockException;
+
+/**
+ * Time to calculate the dividend yield and P/E ratio of a universe of a few
+ * thousand stocks, one virtual call per stock against the columnar copy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StockColumnsBenchmark {
+	final private static int STOCKS = 5000;
+
+	private Stock[] mStocks;
+	private StockColumns mColumns;
+	private double[] mPrices;
+	private double[] mYields;
+	private double[] mRatios;
+
+	@Setup
+	public void setup() throws StockException {
+		Random random = new Random(42);
+
+		for (int i = 0; Stock.count() < STOCKS; i++) {
+			String ticker = new String(new char[] {
+					(char)('A' + i / (26 * 26)), (char)('A' + i / 26 % 26), (char)('A' + i % 26) });
+			if (Stock.byTicker(ticker) != null) {
+				continue;
+			}
+			if (i % 4 == 0) {
+				PreferredStock.register(ticker, random.nextDouble() * 10, random.nextDouble() * 0.1, 100.0);
+			} else {
+				CommonStock.register(ticker, random.nextDouble() * 10, 100.0);
+			}
+		}
+
+		mStocks = Stock.all();
+		mColumns = StockColumns.capture();
+		mPrices = new double[mStocks.length];
+		mYields = new double[mStocks.length];
+		mRatios = new double[mStocks.length];
+		for (int id = 0; id < mPrices.length; id++) {
+			mPrices[id] = 1 + random.nextDouble() * 500;
+		}
+	}
+
+	@Benchmark
+	public double[] scalar() {
+		for (Stock stock : mStocks) {
+			mYields[stock.getId()] = stock.calculateDividendYield(mPrices[stock.getId()]);
+			mRatios[stock.getId()] = stock.calculatePERatio(mPrices[stock.getId()]);
+		}
+		return mYields;
+	}
+
+	@Benchmark
+	public double[] columns() {
+		mColumns.calculateDividendYields(mPrices, mYields);
+		mColumns.calculatePERatios(mPrices, mRatios);
+		return mYields;
+	}
+}
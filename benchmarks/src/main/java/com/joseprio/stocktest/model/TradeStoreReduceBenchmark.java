@@ -0,0 +1,75 @@
+package com.joseprio.stocktest.model;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joseprio.stocktest.analytics.NotionalByTicker;
+import com.joseprio.stocktest.common.OperationType;
+
+/**
+ * Time to aggregate the notional per ticker over a large trade history,
+ * with a plain cursor and in parallel with different amounts of threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class TradeStoreReduceBenchmark {
+	final private static int ROWS = 16 << 20;
+
+	@Param({ "1", "2", "4", "8" })
+	private int mThreads;
+
+	private TradeStore mStore;
+	private ForkJoinPool mPool;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		Stock[] stocks = Stock.all();
+
+		mStore = new TradeStore();
+		for (int i = 0; i < ROWS; i++) {
+			mStore.append(stocks[random.nextInt(stocks.length)], i, OperationType.BUY, 1 + random.nextInt(1000), 1 + random.nextInt(10000) / 100.0);
+		}
+		mPool = new ForkJoinPool(mThreads);
+	}
+
+	@TearDown
+	public void tearDown() {
+		mPool.shutdown();
+	}
+
+	@Benchmark
+	public double cursor() {
+		double[] notionals = new double[Stock.count()];
+		TradeStore.Cursor cursor = mStore.cursor();
+
+		while (cursor.next()) {
+			notionals[cursor.getStock().getId()] += cursor.getQuantity() * cursor.getPricePerShare();
+		}
+
+		return notionals[0];
+	}
+
+	@Benchmark
+	public NotionalByTicker.Result reduce() {
+		return mStore.reduce(new NotionalByTicker(), mPool);
+	}
+}
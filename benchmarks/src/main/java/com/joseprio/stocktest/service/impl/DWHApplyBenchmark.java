@@ -0,0 +1,57 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.service.DWHServiceFactory;
+
+/**
+ * End-to-end rate at which the DWH applies notified trades: each invocation
+ * notifies a burst of trades and waits until the DWH thread has applied them
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DWHApplyBenchmark {
+	final private static int BURST = 10000;
+
+	private DWHServiceImpl mService;
+	private Stock[] mStocks;
+	private long mTimestamp;
+
+	@Setup
+	public void setup() {
+		mService = (DWHServiceImpl)DWHServiceFactory.getInstance();
+		mStocks = Stock.all();
+		mTimestamp = System.currentTimeMillis();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public void notifyTrade() {
+		for (int i = 0; i < BURST; i++) {
+			mService.notifyTrade(mStocks[i % mStocks.length],
+					mTimestamp,
+					1 + (i & 127),
+					OperationType.BUY,
+					10.0 + (i & 15));
+		}
+		mService.flush();
+	}
+}
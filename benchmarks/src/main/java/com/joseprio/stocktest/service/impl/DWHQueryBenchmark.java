@@ -0,0 +1,104 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.service.DWHServiceFactory;
+import com.joseprio.stocktest.service.TimeProvider;
+import com.joseprio.stocktest.service.TimeProviderFactory;
+
+/**
+ * Latency of the DWH queries depending on how many trades are in the 15
+ * minutes window, both answered from the query cache and calculated again on
+ * every call. The DWH is process-wide, so every window size runs in its own
+ * fork; the largest one needs several GB for the trade indexes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class DWHQueryBenchmark {
+	// Spread the trades over most of the window, so none expire during the run
+	final private static long SPREAD_MILLIS = 10 * 60 * 1000;
+
+	@Param({ "1000", "100000", "10000000", "100000000" })
+	public long trades;
+
+	private DWHServiceImpl mService;
+	// The clock stands still unless a benchmark moves it, so the cached
+	// results only go stale when asked to
+	private long mNow;
+	private boolean mNextSecond = false;
+
+	@Setup
+	public void setup() {
+		mNow = System.currentTimeMillis();
+		TimeProviderFactory.setInstance(new TimeProvider() {
+			public long currentTimeMillis() {
+				return mNextSecond ? mNow + 1000 : mNow;
+			}
+		});
+
+		mService = (DWHServiceImpl)DWHServiceFactory.getInstance();
+		Stock[] stocks = Stock.all();
+		long start = mNow - SPREAD_MILLIS;
+
+		for (long i = 0; i < trades; i++) {
+			mService.notifyTrade(stocks[(int)(i % stocks.length)],
+					start + i * SPREAD_MILLIS / trades,
+					1 + (i & 127),
+					((i & 1) == 0) ? OperationType.BUY : OperationType.SELL,
+					10.0 + (i & 15));
+		}
+		mService.flush();
+	}
+
+	@Benchmark
+	public double calculateVolumeWeighted() {
+		return mService.calculateVolumeWeighted();
+	}
+
+	@Benchmark
+	public double calculateVolumeWeightedTicker() {
+		return mService.calculateVolumeWeighted("POP");
+	}
+
+	@Benchmark
+	public double calculateShareIndex() {
+		return mService.calculateShareIndex();
+	}
+
+	@Benchmark
+	public double calculateVolumeWeightedUncached() {
+		// Each call lands on a different second than the cached result
+		mNextSecond = !mNextSecond;
+		return mService.calculateVolumeWeighted();
+	}
+
+	@Benchmark
+	public double calculateVolumeWeightedTickerUncached() {
+		mNextSecond = !mNextSecond;
+		return mService.calculateVolumeWeighted("POP");
+	}
+
+	@Benchmark
+	public double calculateShareIndexUncached() {
+		mService.invalidateCachedResults();
+		return mService.calculateShareIndex();
+	}
+}
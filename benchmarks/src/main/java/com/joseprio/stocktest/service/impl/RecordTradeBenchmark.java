@@ -0,0 +1,86 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.service.DWHServiceFactory;
+
+/**
+ * Throughput of TradeServiceImpl.recordTrade with one, a few and as many
+ * producer threads as processors. Every recorded trade stays in the trade
+ * store, so the iterations are kept short to bound the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RecordTradeBenchmark {
+	final private static String[] TICKERS = { "TEA", "POP", "ALE", "GIN", "JOE" };
+
+	private TradeServiceImpl mService;
+	private long mTimestamp;
+
+	/**
+	 * Per producer state, so threads don't share a counter
+	 */
+	@State(Scope.Thread)
+	public static class Producer {
+		int mNext = 0;
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		mService = new TradeServiceImpl();
+		mTimestamp = System.currentTimeMillis();
+	}
+
+	@TearDown(Level.Iteration)
+	public void drain() {
+		// Don't leave DWH work over for the next iteration
+		((DWHServiceImpl)DWHServiceFactory.getInstance()).flush();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void recordTrade(Producer producer) {
+		record(producer);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void recordTrade4(Producer producer) {
+		record(producer);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public void recordTradeMax(Producer producer) {
+		record(producer);
+	}
+
+	private void record(Producer producer) {
+		int next = producer.mNext++;
+
+		mService.recordTrade(TICKERS[next % TICKERS.length],
+				mTimestamp,
+				1 + (next & 127),
+				((next & 1) == 0) ? OperationType.BUY : OperationType.SELL,
+				10.0 + (next & 15));
+	}
+}
@@ -1,11 +1,18 @@
 package com.joseprio.stocktest;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.Scanner;
 
 import com.joseprio.stocktest.common.Constants;
 import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.importer.ImportException;
+import com.joseprio.stocktest.importer.ImportResult;
+import com.joseprio.stocktest.importer.TradeImporter;
+import com.joseprio.stocktest.metrics.MetricsRegistry;
+import com.joseprio.stocktest.model.LastTrade;
 import com.joseprio.stocktest.model.Stock;
 import com.joseprio.stocktest.service.DWHServiceFactory;
 import com.joseprio.stocktest.service.TimeProviderFactory;
@@ -28,6 +35,8 @@ public class Console implements Runnable
 		RECORD_TRADE_OPERATION,
 		RECORD_TRADE_QUANTITY,
 		RECORD_TRADE_PRICE,
+		VOLUME_WEIGHTED,
+		IMPORT_TRADES,
 		EXIT
 	};
 	
@@ -36,7 +45,9 @@ public class Console implements Runnable
 	final private static String OPTION_RECORD_TRADE = "3";
 	final private static String OPTION_VOLUME_WEIGHTED = "4";
 	final private static String OPTION_SHARE_INDEX = "5";
-	final private static String OPTION_EXIT = "6";
+	final private static String OPTION_METRICS = "6";
+	final private static String OPTION_IMPORT_TRADES = "7";
+	final private static String OPTION_EXIT = "8";
 	
 	private State mCurrentState = State.INITIAL;
 	private Scanner mInput;
@@ -65,17 +76,22 @@ public class Console implements Runnable
 				+ "3. Record trade\n"
 				+ "4. Calculate Volume Weighted Stock Price\n"
 				+ "5. Calculate GBCE All Share Index\n"
-				+ "6. Exit\n"
+				+ "6. Show metrics\n"
+				+ "7. Import trades from a file\n"
+				+ "8. Exit\n"
 				+ "Choose an option: "
 				;
 			break;
 		case DIVIDEND_YIELD:
 		case PE_RATIO:
 		case RECORD_TRADE:
+		case VOLUME_WEIGHTED:
 			message = "Ticker? ";
 			break;
 		case DIVIDEND_YIELD_PRICE:
 		case PE_RATIO_PRICE:
+			message = "Price (leave empty for the last traded)? ";
+			break;
 		case RECORD_TRADE_PRICE:
 			message = "Price? ";
 			break;
@@ -88,6 +104,9 @@ public class Console implements Runnable
 		case RECORD_TRADE_TIMESTAMP:
 			message = "Timestamp (leave empty for current)? ";
 			break;
+		case IMPORT_TRADES:
+			message = "File (CSV or binary)? ";
+			break;
 		case EXIT:
 			message = "Bye!!";
 			break;
@@ -125,7 +144,11 @@ public class Console implements Runnable
 			} else if (input.equals(OPTION_SHARE_INDEX)) {
 				printMessageLine("The GBCE All Share Index is: " + calculateShareIndex());
 			} else if (input.equals(OPTION_VOLUME_WEIGHTED)) {
-				printMessageLine("The Volume Weighted Stock Price is: " + calculateVolumeWeighted());
+				mCurrentState = State.VOLUME_WEIGHTED;
+			} else if (input.equals(OPTION_METRICS)) {
+				printMessage(MetricsRegistry.getInstance().dump());
+			} else if (input.equals(OPTION_IMPORT_TRADES)) {
+				mCurrentState = State.IMPORT_TRADES;
 			} else if (input.equals(OPTION_EXIT)) {
 				mCurrentState = State.EXIT;
 			} else {
@@ -149,6 +172,11 @@ public class Console implements Runnable
 			}
 			break;
 		case DIVIDEND_YIELD_PRICE:
+			if (input.length() == 0) {
+				printLiveResult("Dividend yield: ", DWHServiceFactory.getInstance().calculateLiveDividendYield(mCurrentTicker));
+				mCurrentState = State.INITIAL;
+				break;
+			}
 			try {
 				mCurrentPrice = Double.parseDouble(input);
 				printMessageLine("Dividend yield: " + calculateDividendYield());
@@ -158,6 +186,11 @@ public class Console implements Runnable
 			}
 			break;
 		case PE_RATIO_PRICE:
+			if (input.length() == 0) {
+				printLiveResult("P/E Ratio: ", DWHServiceFactory.getInstance().calculateLivePERatio(mCurrentTicker));
+				mCurrentState = State.INITIAL;
+				break;
+			}
 			try {
 				mCurrentPrice = Double.parseDouble(input);
 				printMessageLine("P/E Ratio: " + calculatePERatio());
@@ -174,6 +207,15 @@ public class Console implements Runnable
 				printMessageLine("Ticker incorrect");
 			}
 			break;
+		case VOLUME_WEIGHTED:
+			if (isTickerValid(input)) {
+				mCurrentTicker = input;
+				printMessageLine("The Volume Weighted Stock Price is: " + calculateVolumeWeighted());
+				mCurrentState = State.INITIAL;
+			} else {
+				printMessageLine("Ticker incorrect");
+			}
+			break;
 		case RECORD_TRADE_OPERATION:
 			try {
 				mCurrentOperation = OperationType.valueOf(input.toUpperCase());
@@ -211,11 +253,23 @@ public class Console implements Runnable
 				printMessageLine("Wrong number");
 			}
 			break;
+		case IMPORT_TRADES:
+			importTrades(input);
+			mCurrentState = State.INITIAL;
+			break;
 		case EXIT:
 			break;
 		}
 	}
 	
+	private void printLiveResult(String label, double result) {
+		if (Double.isNaN(result) && !DWHServiceFactory.getInstance().getLastTrade(mCurrentTicker, new LastTrade())) {
+			printMessageLine("No trades for this ticker yet");
+		} else {
+			printMessageLine(label + result);
+		}
+	}
+	
 	private boolean isTickerValid(String ticker) {
 		if (ticker == null) {
 			return false;
@@ -228,8 +282,31 @@ public class Console implements Runnable
 		
 	}
 
+	private void importTrades(String fileName) {
+		File file = new File(fileName);
+		
+		if (!file.isFile()) {
+			printMessageLine("File not found");
+			return;
+		}
+		
+		try {
+			ImportResult result = new TradeImporter().importFile(file);
+			double seconds = result.getElapsedNanos() / 1e9;
+			printMessageLine(String.format("Imported %d trades (%d rejected, %d malformed) in %.2f s, %.0f trades/s",
+					result.getImported(), result.getRejected(), result.getMalformed(), seconds,
+					result.getImported() / seconds));
+		} catch (ImportException iex) {
+			ImportResult partial = iex.getPartialResult();
+			printMessageLine(String.format("Import stopped after %d trades (%d rejected, %d malformed): %s",
+					partial.getImported(), partial.getRejected(), partial.getMalformed(), iex.getMessage()));
+		} catch (IOException ioex) {
+			printMessageLine("Cannot read the file: " + ioex.getMessage());
+		}
+	}
+
 	private double calculateVolumeWeighted() {
-		return DWHServiceFactory.getInstance().calculateVolumeWeighted();
+		return DWHServiceFactory.getInstance().calculateVolumeWeighted(mCurrentTicker);
 	}
 
 	private double calculateShareIndex() {
@@ -261,6 +338,9 @@ public class Console implements Runnable
 	
     public static void main( String[] args )
     {
+        // Replay the journaled trades, if any, before taking input
+        TradeServiceFactory.getInstance();
+        
         Console console = new Console(System.in, System.out);
         console.run();
     }
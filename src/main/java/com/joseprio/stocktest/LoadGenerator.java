@@ -0,0 +1,371 @@
+package com.joseprio.stocktest;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.common.StockException;
+import com.joseprio.stocktest.metrics.Histogram;
+import com.joseprio.stocktest.model.CommonStock;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.service.DWHService;
+import com.joseprio.stocktest.service.DWHServiceFactory;
+import com.joseprio.stocktest.service.TimeProviderFactory;
+import com.joseprio.stocktest.service.TradeService;
+import com.joseprio.stocktest.service.TradeServiceFactory;
+
+/**
+ * Synthetic market load generator. Several producer threads record trades
+ * at a target average rate; arrivals are random and come in periodic bursts,
+ * tickers are picked following a Zipf distribution of popularity, and the
+ * operations follow a BUY/SELL mix. Latencies are measured from the time each
+ * trade was scheduled to be sent, not from when it was actually sent, so a
+ * stalled producer doesn't hide the trades that queued up behind it
+ * (coordinated omission).
+ *
+ * Options are given as name=value arguments, see {@link #usage()}.
+ */
+public class LoadGenerator {
+	final private static String OPTION_THREADS = "threads";
+	final private static String OPTION_RATE = "rate";
+	final private static String OPTION_DURATION = "duration";
+	final private static String OPTION_TICKERS = "tickers";
+	final private static String OPTION_ZIPF = "zipf";
+	final private static String OPTION_BUY_RATIO = "buyRatio";
+	final private static String OPTION_BURST_FACTOR = "burstFactor";
+	final private static String OPTION_BURST_PERIOD = "burstPeriod";
+	final private static String OPTION_BURST_DUTY = "burstDuty";
+
+	final private static int MAX_TICKERS = 26 * 26 * 26;
+	// How often the DWH apply lag is sampled
+	final private static long LAG_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	// Producers park instead of spinning when the next trade is further away
+	final private static long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	final private static double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+	private final int mThreads;
+	private final double mRate;
+	private final long mDurationNanos;
+	private final double mZipfExponent;
+	private final double mBuyRatio;
+	private final double mBurstFactor;
+	private final long mBurstPeriodNanos;
+	private final double mBurstDuty;
+	// Rate multiplier outside the bursts, so the average is the target rate
+	private final double mQuietFactor;
+
+	private String[] mTickers;
+	private double[] mBasePrices;
+	private double[] mPopularity;
+
+	private final Histogram mLatency = new Histogram();
+	private final Histogram mServiceTime = new Histogram();
+	private final Histogram mApplyLag = new Histogram();
+	private final LongAdder mRejected = new LongAdder();
+	private volatile long mMaxBacklog = 0;
+	private volatile boolean mRunning = false;
+	private long mStartNanos;
+
+	/**
+	 * Creates a generator
+	 * @param options the options, by name; missing ones take their default value
+	 * @throws IllegalArgumentException if an option is unknown or not valid
+	 */
+	public LoadGenerator(Map<String,String> options) {
+		Map<String,String> remaining = new HashMap<String,String>(options);
+
+		mThreads = (int)getOption(remaining, OPTION_THREADS, 4, 1, 1024);
+		mRate = getOption(remaining, OPTION_RATE, 100000, 1, 1e9);
+		mDurationNanos = (long)(getOption(remaining, OPTION_DURATION, 10, 0.1, 86400) * 1e9);
+		mZipfExponent = getOption(remaining, OPTION_ZIPF, 1.0, 0, 10);
+		mBuyRatio = getOption(remaining, OPTION_BUY_RATIO, 0.5, 0, 1);
+		mBurstFactor = getOption(remaining, OPTION_BURST_FACTOR, 4, 1, 1000);
+		mBurstPeriodNanos = (long)(getOption(remaining, OPTION_BURST_PERIOD, 1000, 1, 3600000) * 1e6);
+		mBurstDuty = getOption(remaining, OPTION_BURST_DUTY, 0.1, 0, 1);
+		int tickers = (int)getOption(remaining, OPTION_TICKERS, 100, 1, MAX_TICKERS);
+
+		if (!remaining.isEmpty()) {
+			throw new IllegalArgumentException("Unknown option " + remaining.keySet().iterator().next());
+		}
+
+		if (mBurstFactor * mBurstDuty > 1.0 || (mBurstDuty == 1.0 && mBurstFactor != 1.0)) {
+			throw new IllegalArgumentException("The bursts alone would exceed the target rate");
+		}
+		mQuietFactor = (mBurstDuty == 1.0) ? 1.0 : (1.0 - mBurstFactor * mBurstDuty) / (1.0 - mBurstDuty);
+
+		prepareTickers(tickers);
+	}
+
+	/**
+	 * Runs the load and prints a report
+	 * @param out where to print the progress and the report
+	 * @throws InterruptedException if interrupted while waiting for the producers
+	 */
+	public void run(PrintStream out) throws InterruptedException {
+		TradeService tradeService = TradeServiceFactory.getInstance();
+		DWHService dwhService = DWHServiceFactory.getInstance();
+
+		out.println(String.format("Generating %,.0f trades/s over %d tickers with %d threads for %.1f s",
+				mRate, mTickers.length, mThreads, mDurationNanos / 1e9));
+
+		mRunning = true;
+		mStartNanos = System.nanoTime();
+
+		Thread[] producers = new Thread[mThreads];
+		for (int i = 0; i < mThreads; i++) {
+			producers[i] = new Thread(() -> produce(tradeService), "load-" + i);
+			producers[i].start();
+		}
+		Thread lagSampler = new Thread(() -> sampleApplyLag(dwhService), "load-lag");
+		lagSampler.setDaemon(true);
+		lagSampler.start();
+
+		// Progress, once per second
+		long lastCount = 0;
+		for (int second = 1; isAlive(producers); second++) {
+			long wakeUp = mStartNanos + TimeUnit.SECONDS.toNanos(second);
+			while (isAlive(producers) && System.nanoTime() < wakeUp) {
+				LockSupport.parkNanos(Math.min(TimeUnit.MILLISECONDS.toNanos(10), wakeUp - System.nanoTime()));
+			}
+			if (System.nanoTime() < wakeUp) {
+				// Finished in the middle of the second
+				break;
+			}
+			long count = mLatency.getCount();
+			out.println(String.format("%4d s: %,d trades/s, DWH backlog %,d",
+					second, count - lastCount, dwhService.getNotifiedTrades() - dwhService.getAppliedTrades()));
+			lastCount = count;
+		}
+
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		long elapsedNanos = System.nanoTime() - mStartNanos;
+		mRunning = false;
+		lagSampler.join();
+
+		report(out, elapsedNanos);
+	}
+
+	/**
+	 * Gets the usage of the generator
+	 * @return the description of the options
+	 */
+	public static String usage() {
+		return "Usage: LoadGenerator [option=value]...\n"
+				+ "  " + OPTION_THREADS + "      producer threads (4)\n"
+				+ "  " + OPTION_RATE + "         average trades per second, across all threads (100000)\n"
+				+ "  " + OPTION_DURATION + "     seconds to run (10)\n"
+				+ "  " + OPTION_TICKERS + "      amount of tickers, missing ones are created (100)\n"
+				+ "  " + OPTION_ZIPF + "         exponent of the Zipf popularity of the tickers (1.0)\n"
+				+ "  " + OPTION_BUY_RATIO + "     fraction of BUY operations (0.5)\n"
+				+ "  " + OPTION_BURST_FACTOR + "  rate multiplier during bursts (4)\n"
+				+ "  " + OPTION_BURST_PERIOD + "  milliseconds between the start of two bursts (1000)\n"
+				+ "  " + OPTION_BURST_DUTY + "    fraction of the period spent in a burst (0.1)";
+	}
+
+	private void produce(TradeService tradeService) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long intended = mStartNanos;
+
+		while (true) {
+			intended += nextInterval(intended - mStartNanos, random);
+			if (intended - mStartNanos >= mDurationNanos) {
+				break;
+			}
+
+			long now = System.nanoTime();
+			while (now < intended) {
+				if (intended - now > SPIN_NANOS) {
+					LockSupport.parkNanos(intended - now - SPIN_NANOS);
+				}
+				now = System.nanoTime();
+			}
+
+			int ticker = pickTicker(random);
+			double price = mBasePrices[ticker] * (0.99 + random.nextDouble() * 0.02);
+			OperationType type = (random.nextDouble() < mBuyRatio) ? OperationType.BUY : OperationType.SELL;
+
+			try {
+				tradeService.recordTrade(mTickers[ticker],
+						TimeProviderFactory.getInstance().currentTimeMillis(),
+						1 + random.nextInt(1000),
+						type,
+						price);
+			} catch (IllegalArgumentException iaex) {
+				mRejected.increment();
+			}
+
+			long end = System.nanoTime();
+			// When behind schedule, the time spent waiting to send counts too
+			mLatency.record(end - intended);
+			mServiceTime.record(end - now);
+		}
+	}
+
+	private void sampleApplyLag(DWHService dwhService) {
+		while (mRunning) {
+			long start = System.nanoTime();
+			long target = dwhService.getNotifiedTrades();
+			long backlog = target - dwhService.getAppliedTrades();
+
+			if (backlog > mMaxBacklog) {
+				mMaxBacklog = backlog;
+			}
+			// Time until everything notified so far is in the calculations
+			while (dwhService.getAppliedTrades() < target) {
+				LockSupport.parkNanos(10000);
+			}
+			mApplyLag.record(System.nanoTime() - start);
+
+			LockSupport.parkNanos(LAG_SAMPLE_NANOS);
+		}
+	}
+
+	/**
+	 * Gets a random wait until the next trade of a producer, so that
+	 * arrivals follow a Poisson process at the rate of the current phase
+	 */
+	private long nextInterval(long elapsedNanos, ThreadLocalRandom random) {
+		boolean burst = (elapsedNanos % mBurstPeriodNanos) < mBurstDuty * mBurstPeriodNanos;
+		double threadRate = mRate / mThreads * (burst ? mBurstFactor : mQuietFactor);
+
+		return (long)(-Math.log(1.0 - random.nextDouble()) / threadRate * 1e9);
+	}
+
+	private int pickTicker(ThreadLocalRandom random) {
+		int index = Arrays.binarySearch(mPopularity, random.nextDouble());
+
+		// Not found gives -(insertion point) - 1
+		return Math.min((index >= 0) ? index : -index - 1, mPopularity.length - 1);
+	}
+
+	/**
+	 * Uses the registered stocks and creates more if needed, then sets up
+	 * their cumulative popularity, the first one being the most popular
+	 */
+	private void prepareTickers(int count) {
+		List<String> tickers = new ArrayList<String>();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		for (Stock stock : Stock.all()) {
+			if (tickers.size() < count) {
+				tickers.add(stock.getTicker());
+			}
+		}
+
+		for (int i = 0; tickers.size() < count && i < MAX_TICKERS; i++) {
+			String ticker = "" + (char)('A' + i / 676) + (char)('A' + i / 26 % 26) + (char)('A' + i % 26);
+
+			if (Stock.byTicker(ticker) == null) {
+				try {
+					CommonStock.register(ticker, random.nextInt(30), 100.0);
+					tickers.add(ticker);
+				} catch (StockException stex) {
+					// Registered by somebody else in the meantime
+					stex.printStackTrace();
+				}
+			}
+		}
+
+		mTickers = tickers.toArray(new String[tickers.size()]);
+		mBasePrices = new double[mTickers.length];
+		mPopularity = new double[mTickers.length];
+
+		double total = 0.0;
+		for (int i = 0; i < mTickers.length; i++) {
+			mBasePrices[i] = 10.0 + random.nextDouble() * 190.0;
+			total += 1.0 / Math.pow(i + 1, mZipfExponent);
+			mPopularity[i] = total;
+		}
+		for (int i = 0; i < mTickers.length; i++) {
+			mPopularity[i] /= total;
+		}
+	}
+
+	private void report(PrintStream out, long elapsedNanos) {
+		long trades = mLatency.getCount();
+
+		out.println("------------------------------------");
+		out.println(String.format("Trades: %,d in %.2f s, %,.0f trades/s sustained (target %,.0f); %,d rejected",
+				trades, elapsedNanos / 1e9, trades / (elapsedNanos / 1e9), mRate, mRejected.sum()));
+		printPercentiles(out, "recordTrade latency", mLatency);
+		printPercentiles(out, "recordTrade service time", mServiceTime);
+		printPercentiles(out, "DWH apply lag", mApplyLag);
+		out.println(String.format("DWH max backlog: %,d trades", mMaxBacklog));
+	}
+
+	private static void printPercentiles(PrintStream out, String title, Histogram histogram) {
+		StringBuilder line = new StringBuilder(title).append(" (us):");
+
+		for (double percentile : PERCENTILES) {
+			line.append(String.format(" p%s=%.1f",
+					(percentile == Math.rint(percentile)) ? String.valueOf((int)percentile) : String.valueOf(percentile),
+					histogram.getValueAtPercentile(percentile) / 1e3));
+		}
+		line.append(String.format(" max=%.1f", histogram.getMax() / 1e3));
+
+		out.println(line);
+	}
+
+	private static double getOption(Map<String,String> options, String name, double defaultValue, double min, double max) {
+		String value = options.remove(name);
+
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			double parsed = Double.parseDouble(value);
+			if (parsed >= min && parsed <= max) {
+				return parsed;
+			}
+		} catch (NumberFormatException nfex) {
+			// Reported below
+		}
+
+		throw new IllegalArgumentException("The option " + name + " has to be a number from " + min + " to " + max);
+	}
+
+	private static boolean isAlive(Thread[] threads) {
+		for (Thread thread : threads) {
+			if (thread.isAlive()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		Map<String,String> options = new HashMap<String,String>();
+
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator <= 0) {
+				System.err.println(usage());
+				return;
+			}
+			options.put(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+
+		LoadGenerator generator;
+		try {
+			generator = new LoadGenerator(options);
+		} catch (IllegalArgumentException iaex) {
+			System.err.println(iaex.getMessage());
+			System.err.println(usage());
+			return;
+		}
+
+		generator.run(System.out);
+	}
+}
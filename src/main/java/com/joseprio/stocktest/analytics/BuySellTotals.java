@@ -0,0 +1,76 @@
+package com.joseprio.stocktest.analytics;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.TradeReducer;
+
+/**
+ * Trade count, quantity and notional per operation type, for all stocks
+ */
+public class BuySellTotals implements TradeReducer<BuySellTotals.Result> {
+	final private static int TYPES = OperationType.values().length;
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.model.TradeReducer#create()
+	 */
+	public Result create() {
+		return new Result();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.model.TradeReducer#accumulate(java.lang.Object, int, long, com.joseprio.stocktest.common.OperationType, long, double)
+	 */
+	public void accumulate(Result result, int tickerCode, long timestamp, OperationType type, long quantity, double pricePerShare) {
+		int index = type.ordinal();
+
+		result.mTrades[index]++;
+		result.mQuantities[index] += quantity;
+		result.mNotionals[index] += quantity * pricePerShare;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.model.TradeReducer#combine(java.lang.Object, java.lang.Object)
+	 */
+	public void combine(Result result, Result other) {
+		for (int index = 0; index < TYPES; index++) {
+			result.mTrades[index] += other.mTrades[index];
+			result.mQuantities[index] += other.mQuantities[index];
+			result.mNotionals[index] += other.mNotionals[index];
+		}
+	}
+
+	/**
+	 * Totals indexed by operation type
+	 */
+	public static class Result {
+		private final long[] mTrades = new long[TYPES];
+		private final long[] mQuantities = new long[TYPES];
+		private final double[] mNotionals = new double[TYPES];
+
+		/**
+		 * Gets the amount of trades of a type
+		 * @param type the operation type
+		 * @return the amount of trades
+		 */
+		public long getTrades(OperationType type) {
+			return mTrades[type.ordinal()];
+		}
+
+		/**
+		 * Gets the total quantity of shares of the trades of a type
+		 * @param type the operation type
+		 * @return the quantity
+		 */
+		public long getQuantity(OperationType type) {
+			return mQuantities[type.ordinal()];
+		}
+
+		/**
+		 * Gets the total notional of the trades of a type
+		 * @param type the operation type
+		 * @return the notional
+		 */
+		public double getNotional(OperationType type) {
+			return mNotionals[type.ordinal()];
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.joseprio.stocktest.analytics;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.model.TradeReducer;
+
+/**
+ * Total quantity and notional (quantity times price) traded per stock
+ */
+public class NotionalByTicker implements TradeReducer<NotionalByTicker.Result> {
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.model.TradeReducer#create()
+	 */
+	public Result create() {
+		return new Result(Stock.count());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.model.TradeReducer#accumulate(java.lang.Object, int, long, com.joseprio.stocktest.common.OperationType, long, double)
+	 */
+	public void accumulate(Result result, int tickerCode, long timestamp, OperationType type, long quantity, double pricePerShare) {
+		Stock stock = Stock.byCode(tickerCode);
+
+		if (stock != null) {
+			result.add(stock.getId(), quantity, quantity * pricePerShare);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.model.TradeReducer#combine(java.lang.Object, java.lang.Object)
+	 */
+	public void combine(Result result, Result other) {
+		for (int id = 0; id < other.mQuantities.length; id++) {
+			if (other.mQuantities[id] != 0) {
+				result.add(id, other.mQuantities[id], other.mNotionals[id]);
+			}
+		}
+	}
+
+	/**
+	 * Totals indexed by stock id
+	 */
+	public static class Result {
+		private long[] mQuantities;
+		private double[] mNotionals;
+
+		Result(int stocks) {
+			mQuantities = new long[stocks];
+			mNotionals = new double[stocks];
+		}
+
+		void add(int id, long quantity, double notional) {
+			if (id >= mQuantities.length) {
+				// Stock registered after the aggregation started
+				int length = Math.max(id + 1, Stock.count());
+				long[] quantities = new long[length];
+				double[] notionals = new double[length];
+				System.arraycopy(mQuantities, 0, quantities, 0, mQuantities.length);
+				System.arraycopy(mNotionals, 0, notionals, 0, mNotionals.length);
+				mQuantities = quantities;
+				mNotionals = notionals;
+			}
+
+			mQuantities[id] += quantity;
+			mNotionals[id] += notional;
+		}
+
+		/**
+		 * Gets the total quantity of shares traded of a stock
+		 * @param stock the stock
+		 * @return the quantity
+		 */
+		public long getQuantity(Stock stock) {
+			return (stock.getId() < mQuantities.length) ? mQuantities[stock.getId()] : 0;
+		}
+
+		/**
+		 * Gets the total notional traded of a stock
+		 * @param stock the stock
+		 * @return the notional
+		 */
+		public double getNotional(Stock stock) {
+			return (stock.getId() < mNotionals.length) ? mNotionals[stock.getId()] : 0.0;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.joseprio.stocktest.analytics;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.TradeReducer;
+
+/**
+ * Distribution of the trades by size, in buckets by the number of digits of
+ * the quantity: 1 to 9 shares, 10 to 99, 100 to 999 and so on
+ */
+public class SizeBuckets implements TradeReducer<SizeBuckets.Result> {
+	// Largest power of ten that fits in a long is 10^18
+	final private static int BUCKETS = 19;
+	final private static long[] LOWER_BOUNDS = new long[BUCKETS];
+
+	static {
+		LOWER_BOUNDS[0] = 1;
+		for (int bucket = 1; bucket < BUCKETS; bucket++) {
+			LOWER_BOUNDS[bucket] = LOWER_BOUNDS[bucket - 1] * 10;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.model.TradeReducer#create()
+	 */
+	public Result create() {
+		return new Result();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.model.TradeReducer#accumulate(java.lang.Object, int, long, com.joseprio.stocktest.common.OperationType, long, double)
+	 */
+	public void accumulate(Result result, int tickerCode, long timestamp, OperationType type, long quantity, double pricePerShare) {
+		int bucket = bucketOf(quantity);
+
+		result.mTrades[bucket]++;
+		result.mQuantities[bucket] += quantity;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.model.TradeReducer#combine(java.lang.Object, java.lang.Object)
+	 */
+	public void combine(Result result, Result other) {
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			result.mTrades[bucket] += other.mTrades[bucket];
+			result.mQuantities[bucket] += other.mQuantities[bucket];
+		}
+	}
+
+	/**
+	 * Gets the bucket of a quantity
+	 * @param quantity the quantity of shares
+	 * @return the bucket, 0 for quantities below 10 (including invalid ones)
+	 */
+	static int bucketOf(long quantity) {
+		int bucket = 0;
+
+		while (bucket + 1 < BUCKETS && quantity >= LOWER_BOUNDS[bucket + 1]) {
+			bucket++;
+		}
+
+		return bucket;
+	}
+
+	/**
+	 * Totals per bucket
+	 */
+	public static class Result {
+		private final long[] mTrades = new long[BUCKETS];
+		private final long[] mQuantities = new long[BUCKETS];
+
+		/**
+		 * Gets the amount of buckets
+		 * @return the amount of buckets
+		 */
+		public int getBucketCount() {
+			return BUCKETS;
+		}
+
+		/**
+		 * Gets the smallest quantity that falls in a bucket
+		 * @param bucket the bucket
+		 * @return the lower bound
+		 */
+		public long getLowerBound(int bucket) {
+			return LOWER_BOUNDS[bucket];
+		}
+
+		/**
+		 * Gets the amount of trades in a bucket
+		 * @param bucket the bucket
+		 * @return the amount of trades
+		 */
+		public long getTrades(int bucket) {
+			return mTrades[bucket];
+		}
+
+		/**
+		 * Gets the total quantity of shares of the trades in a bucket
+		 * @param bucket the bucket
+		 * @return the quantity
+		 */
+		public long getQuantity(int bucket) {
+			return mQuantities[bucket];
+		}
+	}
+}
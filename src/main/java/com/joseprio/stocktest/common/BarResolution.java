@@ -0,0 +1,36 @@
+package com.joseprio.stocktest.common;
+
+/**
+ * This enumeration holds the lengths of the OHLCV bars kept by the DWH, with
+ * how many of the most recent bars are kept for each
+ */
+public enum BarResolution {
+	SECOND(1000, 900),
+	MINUTE(60 * 1000, 720),
+	FIVE_MINUTES(5 * 60 * 1000, 288),
+	HOUR(60 * 60 * 1000, 168);
+
+	private final long mMillis;
+	private final int mRetainedBars;
+
+	private BarResolution(long millis, int retainedBars) {
+		mMillis = millis;
+		mRetainedBars = retainedBars;
+	}
+
+	/**
+	 * Gets the length of a bar
+	 * @return the length in milliseconds
+	 */
+	public long getMillis() {
+		return mMillis;
+	}
+
+	/**
+	 * Gets how many periods back bars are kept
+	 * @return the amount of periods
+	 */
+	public int getRetainedBars() {
+		return mRetainedBars;
+	}
+}
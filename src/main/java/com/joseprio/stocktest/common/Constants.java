@@ -9,4 +9,19 @@ public class Constants {
 	 * The system-dependent line separator
 	 */
 	final public static String LINE_SEPARATOR = System.getProperty("line.separator");
+	/**
+	 * System property with the directory of the trade journal; if it's not
+	 * set, trades are only kept in memory
+	 */
+	final public static String JOURNAL_DIR_PROPERTY = "stocktest.journal.dir";
+	/**
+	 * System property with the overload policy of the DWH, one of the
+	 * {@link OverloadPolicy} names; BLOCK if it's not set
+	 */
+	final public static String OVERLOAD_POLICY_PROPERTY = "stocktest.dwh.overload";
+	/**
+	 * System property with the amount of DWH worker threads; the stocks are
+	 * split between them. One per processor if it's not set
+	 */
+	final public static String PARTITIONS_PROPERTY = "stocktest.dwh.partitions";
 }
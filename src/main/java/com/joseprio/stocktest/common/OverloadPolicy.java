@@ -0,0 +1,24 @@
+package com.joseprio.stocktest.common;
+
+/**
+ * This enumeration holds what the DWH does with a trade notified while its
+ * queue is full
+ */
+public enum OverloadPolicy {
+	/**
+	 * The notifying thread waits until there is room; nothing is lost, but
+	 * trading slows down to the pace of the DWH
+	 */
+	BLOCK,
+	/**
+	 * The trade is left out of the calculations and counted; trading goes on
+	 * at full speed
+	 */
+	SHED,
+	/**
+	 * The trade is merged with the other pending trades of the same stock and
+	 * applied with them as soon as the DWH catches up; nothing is lost, but
+	 * the merged trades share the timestamp of the newest one
+	 */
+	COALESCE
+}
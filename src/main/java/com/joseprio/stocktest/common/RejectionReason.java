@@ -0,0 +1,45 @@
+package com.joseprio.stocktest.common;
+
+/**
+ * This enumeration holds the reasons a trade can be rejected for
+ */
+public enum RejectionReason {
+	/**
+	 * The timestamp is zero or negative
+	 */
+	INVALID_TIMESTAMP("The timestamp has to be positive"),
+	/**
+	 * The timestamp is later than the current time
+	 */
+	FUTURE_TIMESTAMP("The timestamp cannot be set in the future"),
+	/**
+	 * The ticker doesn't belong to any known stock
+	 */
+	UNKNOWN_STOCK("Stock cannot be null"),
+	/**
+	 * The quantity is zero or negative
+	 */
+	INVALID_QUANTITY("Quantity has to be positive"),
+	/**
+	 * The price is zero, negative or not a number
+	 */
+	INVALID_PRICE("Price has to be positive"),
+	/**
+	 * The operation type is missing
+	 */
+	MISSING_TYPE("Type cannot be null");
+	
+	private String mMessage;
+	
+	private RejectionReason(String message) {
+		mMessage = message;
+	}
+	
+	/**
+	 * Gets a description of the reason
+	 * @return the description
+	 */
+	public String getMessage() {
+		return mMessage;
+	}
+}
@@ -0,0 +1,105 @@
+package com.joseprio.stocktest.importer;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Stock;
+
+/**
+ * Parser of binary trade files: a header with a magic number and the record
+ * size, followed by one fixed size big endian record per trade. Records can
+ * be read anywhere in the file, so ranges only need to start at a record.
+ */
+class BinaryTradeParser extends TradeFileParser {
+	final static int MAGIC = 0x54524431; // TRD1
+	final static int HEADER_SIZE = 8;
+	final static int RECORD_SIZE = 32;
+	final private static OperationType[] TYPES = OperationType.values();
+
+	// Record layout
+	final private static int TIMESTAMP_OFFSET = 0;
+	final private static int QUANTITY_OFFSET = 8;
+	final private static int PRICE_OFFSET = 16;
+	final private static int TICKER_OFFSET = 24;
+	final private static int TYPE_OFFSET = 28;
+
+	/**
+	 * Tells whether a file is a binary trade file
+	 * @param channel the file
+	 * @return true if it starts with the binary header
+	 * @throws IOException if the file cannot be read
+	 */
+	static boolean matches(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+			// Keep reading until the header is complete or the file ends
+		}
+
+		return !header.hasRemaining() && header.getInt(0) == MAGIC && header.getInt(4) == RECORD_SIZE;
+	}
+
+	/**
+	 * Writes the header of a binary trade file
+	 * @param out the output
+	 * @throws IOException if the header cannot be written
+	 */
+	static void writeHeader(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(RECORD_SIZE);
+	}
+
+	/**
+	 * Writes a trade record of a binary trade file
+	 * @param out the output
+	 * @param tickerCode the encoded ticker, as in {@link Stock#encodeTicker(String)}
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param type the operation type
+	 * @param pricePerShare the price per share
+	 * @throws IOException if the record cannot be written
+	 */
+	static void writeRecord(DataOutput out, int tickerCode, long timestamp, long quantity, OperationType type, double pricePerShare) throws IOException {
+		out.writeLong(timestamp);
+		out.writeLong(quantity);
+		out.writeDouble(pricePerShare);
+		out.writeInt(tickerCode);
+		out.writeByte(type.ordinal());
+		out.write(new byte[RECORD_SIZE - TYPE_OFFSET - 1]);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.importer.TradeFileParser#parse(java.nio.channels.FileChannel, long, long, com.joseprio.stocktest.importer.TradeSink)
+	 */
+	void parse(FileChannel channel, long from, long to, TradeSink sink) throws IOException {
+		int records = (int)((to - from) / RECORD_SIZE);
+
+		if (records == 0) {
+			if (to > from) {
+				// Cut short at the end of the file
+				sink.malformed();
+			}
+			return;
+		}
+
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, (long)records * RECORD_SIZE);
+		for (int offset = 0; offset < buffer.capacity(); offset += RECORD_SIZE) {
+			int type = buffer.get(offset + TYPE_OFFSET);
+
+			// An unknown type is left to the trade validation
+			sink.add(Stock.byCode(buffer.getInt(offset + TICKER_OFFSET)),
+					buffer.getLong(offset + TIMESTAMP_OFFSET),
+					buffer.getLong(offset + QUANTITY_OFFSET),
+					(type >= 0 && type < TYPES.length) ? TYPES[type] : null,
+					buffer.getDouble(offset + PRICE_OFFSET));
+		}
+
+		if (from + (long)records * RECORD_SIZE < to) {
+			sink.malformed();
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package com.joseprio.stocktest.importer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Stock;
+
+/**
+ * Parser of CSV trade files, one trade per line:
+ * <code>ticker,timestamp,quantity,type,price</code>, with the timestamp in
+ * milliseconds and the type as BUY or SELL. Fields are read from the mapped
+ * bytes without building strings; a first line that is not a trade is taken
+ * as a header and skipped. A range owns the lines that start in it.
+ */
+class CsvTradeParser extends TradeFileParser {
+	// Lines longer than this are not valid trades
+	final static int MAX_LINE_LENGTH = 1024;
+	final private static byte SEPARATOR = ',';
+	final private static int FIELDS = 5;
+	// Integers up to this and powers of ten up to 22 are exact doubles, so
+	// dividing them gives the same result as parsing the text
+	final private static long MAX_EXACT_MANTISSA = 1L << 53;
+	final private static double[] POWERS_OF_TEN = new double[23];
+	final private static OperationType[] TYPES = OperationType.values();
+	final private static byte[][] TYPE_NAMES = new byte[TYPES.length][];
+
+	static {
+		POWERS_OF_TEN[0] = 1.0;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+		for (int i = 0; i < TYPES.length; i++) {
+			TYPE_NAMES[i] = TYPES[i].name().getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	private MappedByteBuffer mBuffer;
+	// Current position and end of the line being parsed
+	private int mPosition;
+	private int mLineEnd;
+	// Bounds of the last field read, without surrounding blanks
+	private int mFieldStart;
+	private int mFieldEnd;
+	// Last parsed numbers, so nothing gets boxed
+	private long mLong;
+	private double mDouble;
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.importer.TradeFileParser#parse(java.nio.channels.FileChannel, long, long, com.joseprio.stocktest.importer.TradeSink)
+	 */
+	void parse(FileChannel channel, long from, long to, TradeSink sink) throws IOException {
+		long size = channel.size();
+
+		if (from >= to) {
+			return;
+		}
+
+		// Map the byte before the range, to tell whether a line starts right
+		// at it, and enough after it to finish the last line
+		long base = Math.max(0, from - 1);
+		long end = Math.min(size, to + MAX_LINE_LENGTH);
+		mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, base, end - base);
+
+		int mapped = (int)(end - base);
+		int limit = (int)(to - base);
+		int position = (int)(from - base);
+		boolean first = (from == 0);
+
+		if (!first && mBuffer.get(position - 1) != '\n') {
+			// The line belongs to the previous range
+			position = indexOfNewline(position, mapped) + 1;
+			if (position == 0) {
+				return;
+			}
+		}
+
+		while (position < limit) {
+			int newline = indexOfNewline(position, mapped);
+			int lineEnd = (newline < 0) ? mapped : newline;
+
+			if (newline < 0 && end < size) {
+				// Cut short by the mapping, so it's too long
+				sink.malformed();
+				break;
+			}
+			if (lineEnd > position && mBuffer.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+
+			if (lineEnd > position) {
+				if (!parseLine(position, lineEnd, sink) && !first) {
+					sink.malformed();
+				}
+				first = false;
+			}
+			position = (newline < 0) ? mapped : newline + 1;
+		}
+
+		mBuffer = null;
+	}
+
+	private boolean parseLine(int start, int end, TradeSink sink) {
+		mPosition = start;
+		mLineEnd = end;
+
+		if (!nextField()) {
+			return false;
+		}
+		int tickerCode = parseTickerCode();
+
+		if (!nextField() || !parseLong()) {
+			return false;
+		}
+		long timestamp = mLong;
+
+		if (!nextField() || !parseLong()) {
+			return false;
+		}
+		long quantity = mLong;
+
+		if (!nextField()) {
+			return false;
+		}
+		OperationType type = parseType();
+
+		if (type == null || !nextField() || !parsePrice() || mPosition <= mLineEnd) {
+			// Missing, wrong or extra fields
+			return false;
+		}
+
+		sink.add((tickerCode < 0) ? null : Stock.byCode(tickerCode), timestamp, quantity, type, mDouble);
+		return true;
+	}
+
+	/**
+	 * Moves to the next field of the line
+	 * @return false if there are no more fields
+	 */
+	private boolean nextField() {
+		if (mPosition > mLineEnd) {
+			return false;
+		}
+
+		int start = mPosition;
+		int end = start;
+		while (end < mLineEnd && mBuffer.get(end) != SEPARATOR) {
+			end++;
+		}
+		mPosition = end + 1;
+
+		while (start < end && isBlank(mBuffer.get(start))) {
+			start++;
+		}
+		while (end > start && isBlank(mBuffer.get(end - 1))) {
+			end--;
+		}
+		mFieldStart = start;
+		mFieldEnd = end;
+
+		return true;
+	}
+
+	/**
+	 * Encodes the ticker in the current field as {@link Stock#encodeTicker(String)} does
+	 * @return the ticker code, or -1 if it's not a ticker
+	 */
+	private int parseTickerCode() {
+		if (mFieldEnd - mFieldStart != 3) {
+			return -1;
+		}
+
+		int code = 0;
+		for (int i = mFieldStart; i < mFieldEnd; i++) {
+			int letter = mBuffer.get(i) - 'A';
+			if (letter < 0 || letter > 'Z' - 'A') {
+				return -1;
+			}
+			code = (code << 5) | (letter + 1);
+		}
+
+		return code;
+	}
+
+	private boolean parseLong() {
+		int i = mFieldStart;
+		boolean negative = (i < mFieldEnd && mBuffer.get(i) == '-');
+
+		if (negative) {
+			i++;
+		}
+		// Up to 18 digits can't overflow
+		if (i == mFieldEnd || mFieldEnd - i > 18) {
+			return false;
+		}
+
+		long value = 0;
+		for (; i < mFieldEnd; i++) {
+			int digit = mBuffer.get(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return false;
+			}
+			value = value * 10 + digit;
+		}
+		mLong = negative ? -value : value;
+
+		return true;
+	}
+
+	private boolean parsePrice() {
+		int i = mFieldStart;
+		boolean negative = (i < mFieldEnd && mBuffer.get(i) == '-');
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+
+		if (negative) {
+			i++;
+		}
+		for (; i < mFieldEnd; i++) {
+			byte current = mBuffer.get(i);
+			if (current == '.' && decimals < 0) {
+				decimals = 0;
+				continue;
+			}
+
+			int digit = current - '0';
+			if (digit < 0 || digit > 9 || mantissa >= MAX_EXACT_MANTISSA / 10) {
+				// Exponents, too many digits...
+				return parsePriceText();
+			}
+			mantissa = mantissa * 10 + digit;
+			digits++;
+			if (decimals >= 0) {
+				decimals++;
+			}
+		}
+
+		if (digits == 0) {
+			return false;
+		}
+		if (decimals >= POWERS_OF_TEN.length) {
+			return parsePriceText();
+		}
+
+		double value = (decimals <= 0) ? mantissa : mantissa / POWERS_OF_TEN[decimals];
+		mDouble = negative ? -value : value;
+
+		return true;
+	}
+
+	/**
+	 * Parses the price through a string, for the formats the fast path
+	 * doesn't handle
+	 */
+	private boolean parsePriceText() {
+		byte[] text = new byte[mFieldEnd - mFieldStart];
+
+		for (int i = 0; i < text.length; i++) {
+			text[i] = mBuffer.get(mFieldStart + i);
+		}
+
+		try {
+			mDouble = Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+			return true;
+		} catch (NumberFormatException nfex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Matches the current field with the operation type names, ignoring case
+	 * @return the operation type, or null if there is no match
+	 */
+	private OperationType parseType() {
+		int length = mFieldEnd - mFieldStart;
+
+		for (int type = 0; type < TYPES.length; type++) {
+			byte[] name = TYPE_NAMES[type];
+			if (name.length != length) {
+				continue;
+			}
+
+			int i = 0;
+			while (i < length && toUpperCase(mBuffer.get(mFieldStart + i)) == name[i]) {
+				i++;
+			}
+			if (i == length) {
+				return TYPES[type];
+			}
+		}
+
+		return null;
+	}
+
+	private int indexOfNewline(int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (mBuffer.get(i) == '\n') {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	private static boolean isBlank(byte value) {
+		return value == ' ' || value == '\t';
+	}
+
+	private static byte toUpperCase(byte value) {
+		return (value >= 'a' && value <= 'z') ? (byte)(value - 'a' + 'A') : value;
+	}
+}
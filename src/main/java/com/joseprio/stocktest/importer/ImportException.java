@@ -0,0 +1,26 @@
+package com.joseprio.stocktest.importer;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an import stops before the end of the file; the trades read
+ * until then are already recorded, and counted in the partial result
+ */
+public class ImportException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	private final ImportResult mPartialResult;
+
+	ImportException(String message, Throwable cause, ImportResult partialResult) {
+		super(message, cause);
+		mPartialResult = partialResult;
+	}
+
+	/**
+	 * Gets the amount of trades handled before the import stopped
+	 * @return the imported, rejected and malformed trades so far
+	 */
+	public ImportResult getPartialResult() {
+		return mPartialResult;
+	}
+}
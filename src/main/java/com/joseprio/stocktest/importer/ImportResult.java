@@ -0,0 +1,61 @@
+package com.joseprio.stocktest.importer;
+
+/**
+ * Outcome of a trade file import
+ */
+public class ImportResult {
+	private final long mImported;
+	private final long mRejected;
+	private final long mMalformed;
+	private final long mBytes;
+	private final long mElapsedNanos;
+
+	ImportResult(long imported, long rejected, long malformed, long bytes, long elapsedNanos) {
+		mImported = imported;
+		mRejected = rejected;
+		mMalformed = malformed;
+		mBytes = bytes;
+		mElapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Gets the amount of trades recorded
+	 * @return the recorded trades
+	 */
+	public long getImported() {
+		return mImported;
+	}
+
+	/**
+	 * Gets the amount of trades that could be read but didn't pass the trade
+	 * validation (unknown ticker, future timestamp...)
+	 * @return the rejected trades
+	 */
+	public long getRejected() {
+		return mRejected;
+	}
+
+	/**
+	 * Gets the amount of lines or records that could not be read as a trade
+	 * @return the malformed entries
+	 */
+	public long getMalformed() {
+		return mMalformed;
+	}
+
+	/**
+	 * Gets the size of the imported file
+	 * @return the size in bytes
+	 */
+	public long getBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * Gets how long the import took
+	 * @return the elapsed time in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return mElapsedNanos;
+	}
+}
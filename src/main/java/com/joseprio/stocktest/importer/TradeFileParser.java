@@ -0,0 +1,20 @@
+package com.joseprio.stocktest.importer;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the trades of a file region straight from a memory mapping; each
+ * importer thread has its own instance
+ */
+abstract class TradeFileParser {
+	/**
+	 * Parses the entries that start in the given range of the file
+	 * @param channel the file
+	 * @param from the first byte of the range
+	 * @param to the byte after the last one of the range
+	 * @param sink where the trades go
+	 * @throws IOException if the file cannot be read
+	 */
+	abstract void parse(FileChannel channel, long from, long to, TradeSink sink) throws IOException;
+}
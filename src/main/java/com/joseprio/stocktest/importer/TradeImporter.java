@@ -0,0 +1,129 @@
+package com.joseprio.stocktest.importer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.joseprio.stocktest.service.TradeService;
+import com.joseprio.stocktest.service.TradeServiceFactory;
+
+/**
+ * Bulk loader of historical trades. Files are memory mapped and parsed
+ * straight from the mapped bytes into reusable batches, which are recorded
+ * through the trade service; nothing is allocated per trade. Large files are
+ * split in chunks parsed by several threads, so trades from different chunks
+ * are not recorded in file order; use a single thread to keep it.
+ * Files starting with the binary header are read as binary trade files, any
+ * other file as CSV (see {@link CsvTradeParser} and {@link BinaryTradeParser}).
+ */
+public class TradeImporter {
+	final private static int BATCH_SIZE = 8192;
+	final private static long MIN_CHUNK_SIZE = 1 << 20; // 1 MB
+	final private static long MAX_CHUNK_SIZE = 1 << 28; // 256 MB, the mapping limit is 2 GB
+
+	private final TradeService mTradeService;
+	private final int mThreads;
+
+	/**
+	 * Creates an importer that uses every processor
+	 */
+	public TradeImporter() {
+		this(TradeServiceFactory.getInstance(), Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an importer
+	 * @param tradeService the service to record the trades with
+	 * @param threads the maximum amount of parsing threads
+	 */
+	public TradeImporter(TradeService tradeService, int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("The amount of threads has to be positive");
+		}
+
+		mTradeService = tradeService;
+		mThreads = threads;
+	}
+
+	/**
+	 * Imports every trade in a file; trades that are not valid or cannot be
+	 * read are counted and skipped. The first failure stops every thread.
+	 * @param file the CSV or binary trade file
+	 * @return the amount of imported, rejected and malformed trades
+	 * @throws ImportException if the import stops partway, with the trades
+	 * recorded until then
+	 * @throws IOException if the file cannot be opened
+	 */
+	public ImportResult importFile(File file) throws IOException {
+		long start = System.nanoTime();
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final boolean binary = BinaryTradeParser.matches(channel);
+			final long size = channel.size();
+			final long dataStart = binary ? BinaryTradeParser.HEADER_SIZE : 0;
+			// Binary chunks have to start at a record
+			long alignment = binary ? BinaryTradeParser.RECORD_SIZE : 1;
+			long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, (size - dataStart) / mThreads + 1));
+			final long alignedChunkSize = (chunkSize + alignment - 1) / alignment * alignment;
+			final int chunks = (int)Math.max(1, (size - dataStart + alignedChunkSize - 1) / alignedChunkSize);
+
+			AtomicInteger nextChunk = new AtomicInteger(0);
+			AtomicReference<Exception> failure = new AtomicReference<Exception>();
+			TradeSink[] sinks = new TradeSink[Math.min(mThreads, chunks)];
+			Thread[] threads = new Thread[sinks.length];
+
+			for (int i = 0; i < threads.length; i++) {
+				TradeSink sink = new TradeSink(mTradeService, BATCH_SIZE);
+				TradeFileParser parser = binary ? new BinaryTradeParser() : new CsvTradeParser();
+
+				sinks[i] = sink;
+				threads[i] = new Thread(() -> {
+					try {
+						// Stop claiming chunks once any thread failed
+						while (failure.get() == null) {
+							int chunk = nextChunk.getAndIncrement();
+							if (chunk >= chunks) {
+								break;
+							}
+
+							long from = dataStart + chunk * alignedChunkSize;
+							parser.parse(channel, from, Math.min(size, from + alignedChunkSize), sink);
+						}
+						sink.flush();
+					} catch (IOException | RuntimeException ex) {
+						failure.compareAndSet(null, ex);
+					}
+				}, "importer-" + i);
+				threads[i].start();
+			}
+
+			try {
+				for (Thread thread : threads) {
+					thread.join();
+				}
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while importing " + file);
+			}
+			long imported = 0;
+			long rejected = 0;
+			long malformed = 0;
+			for (TradeSink sink : sinks) {
+				imported += sink.getImported();
+				rejected += sink.getRejected();
+				malformed += sink.getMalformed();
+			}
+
+			ImportResult result = new ImportResult(imported, rejected, malformed, size, System.nanoTime() - start);
+			if (failure.get() != null) {
+				throw new ImportException("Import of " + file + " stopped: " + failure.get().getMessage(), failure.get(), result);
+			}
+
+			return result;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.joseprio.stocktest.importer;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.model.TradeBatch;
+import com.joseprio.stocktest.service.TradeService;
+
+/**
+ * Collects the trades parsed by one importer thread in a reusable batch and
+ * records them through the trade service every time it fills up
+ */
+class TradeSink {
+	private final TradeService mTradeService;
+	private final TradeBatch mBatch;
+	private long mImported = 0;
+	private long mRejected = 0;
+	private long mMalformed = 0;
+
+	/**
+	 * Creates a sink
+	 * @param tradeService the service to record the trades with
+	 * @param batchSize the amount of trades recorded together
+	 */
+	TradeSink(TradeService tradeService, int batchSize) {
+		mTradeService = tradeService;
+		mBatch = new TradeBatch(batchSize);
+	}
+
+	/**
+	 * Adds a parsed trade
+	 * @param stock the traded stock, null if the ticker is not known
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param type the operation type
+	 * @param pricePerShare the price per share
+	 */
+	void add(Stock stock, long timestamp, long quantity, OperationType type, double pricePerShare) {
+		mBatch.add(stock, timestamp, quantity, type, pricePerShare);
+		if (mBatch.isFull()) {
+			flush();
+		}
+	}
+
+	/**
+	 * Counts an entry that could not be parsed
+	 */
+	void malformed() {
+		mMalformed++;
+	}
+
+	/**
+	 * Records the trades added since the last flush
+	 */
+	void flush() {
+		if (mBatch.size() == 0) {
+			return;
+		}
+
+		int accepted = mTradeService.recordTrades(mBatch);
+		mImported += accepted;
+		mRejected += mBatch.size() - accepted;
+		mBatch.clear();
+	}
+
+	long getImported() {
+		return mImported;
+	}
+
+	long getRejected() {
+		return mRejected;
+	}
+
+	long getMalformed() {
+		return mMalformed;
+	}
+}
@@ -0,0 +1,34 @@
+package com.joseprio.stocktest.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter; increments are striped so concurrent writers don't
+ * contend, and never allocate
+ */
+public class Counter {
+	private final LongAdder mValue = new LongAdder();
+
+	/**
+	 * Adds one to the counter
+	 */
+	public void increment() {
+		mValue.increment();
+	}
+
+	/**
+	 * Adds an amount to the counter
+	 * @param amount the amount to add
+	 */
+	public void add(long amount) {
+		mValue.add(amount);
+	}
+
+	/**
+	 * Gets the current value
+	 * @return the value
+	 */
+	public long get() {
+		return mValue.sum();
+	}
+}
@@ -0,0 +1,13 @@
+package com.joseprio.stocktest.metrics;
+
+/**
+ * A value that is read from its source only when the metrics are queried,
+ * so it costs nothing to keep up to date
+ */
+public interface Gauge {
+	/**
+	 * Gets the current value
+	 * @return the value
+	 */
+	public long getValue();
+}
@@ -0,0 +1,166 @@
+package com.joseprio.stocktest.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non negative long values (typically nanoseconds),
+ * with log-linear buckets in the style of HdrHistogram: values below 128 are
+ * counted exactly and larger ones fall in one of 64 buckets per power of
+ * two, so any reported value is within 1.6% of the recorded one. Recording
+ * is a couple of atomic increments and allocates nothing.
+ */
+public class Histogram {
+	final private static int SUB_BUCKET_BITS = 6;
+	final private static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Values below this are their own bucket
+	final private static int LINEAR_LIMIT = SUB_BUCKETS * 2;
+	final private static int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong mCount = new AtomicLong(0);
+	private final AtomicLong mSum = new AtomicLong(0);
+	private final AtomicLong mMax = new AtomicLong(0);
+
+	/**
+	 * Records a value
+	 * @param value the value, negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		mCounts.getAndIncrement(bucketOf(value));
+		mCount.getAndIncrement();
+		mSum.getAndAdd(value);
+
+		long max = mMax.get();
+		while (value > max && !mMax.compareAndSet(max, value)) {
+			max = mMax.get();
+		}
+	}
+
+	/**
+	 * Records a latency measured from when the operation actually started,
+	 * adding the samples that were missed while it was stalled; this corrects
+	 * the coordinated omission of a caller that waits for each operation
+	 * before issuing the next one at a fixed pace
+	 * @param value the measured value
+	 * @param expectedInterval the expected interval between operations, 0 to disable the correction
+	 */
+	public void recordCorrected(long value, long expectedInterval) {
+		record(value);
+
+		if (expectedInterval > 0) {
+			for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+				record(missed);
+			}
+		}
+	}
+
+	/**
+	 * Adds all the values recorded in another histogram
+	 * @param other the histogram to add
+	 */
+	public void add(Histogram other) {
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			long count = other.mCounts.get(bucket);
+			if (count != 0) {
+				mCounts.getAndAdd(bucket, count);
+			}
+		}
+		mCount.getAndAdd(other.mCount.get());
+		mSum.getAndAdd(other.mSum.get());
+
+		long otherMax = other.mMax.get();
+		long max = mMax.get();
+		while (otherMax > max && !mMax.compareAndSet(max, otherMax)) {
+			max = mMax.get();
+		}
+	}
+
+	/**
+	 * Removes all the recorded values; values recorded at the same time might
+	 * be partially kept
+	 */
+	public void reset() {
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			mCounts.set(bucket, 0);
+		}
+		mCount.set(0);
+		mSum.set(0);
+		mMax.set(0);
+	}
+
+	/**
+	 * Gets the amount of recorded values
+	 * @return the amount of values
+	 */
+	public long getCount() {
+		return mCount.get();
+	}
+
+	/**
+	 * Gets the largest recorded value
+	 * @return the largest value, or 0 if there are none
+	 */
+	public long getMax() {
+		return mMax.get();
+	}
+
+	/**
+	 * Gets the average of the recorded values
+	 * @return the average, or NaN if there are none
+	 */
+	public double getMean() {
+		return (double)mSum.get() / mCount.get();
+	}
+
+	/**
+	 * Gets the value below or at which the given percentage of the recorded
+	 * values fall
+	 * @param percentile the percentage, from 0 to 100
+	 * @return the highest value of the matching bucket, never above the maximum; 0 if there are no values
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			total += mCounts.get(bucket);
+		}
+
+		long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += mCounts.get(bucket);
+			if (seen >= target) {
+				return Math.min(highestValueOf(bucket), getMax());
+			}
+		}
+
+		return 0;
+	}
+
+	static int bucketOf(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int)value;
+		}
+
+		// Keep the top SUB_BUCKET_BITS + 1 bits of the value
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int)(value >>> shift) - SUB_BUCKETS;
+
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long highestValueOf(int bucket) {
+		if (bucket < LINEAR_LIMIT) {
+			return bucket;
+		}
+
+		int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,153 @@
+package com.joseprio.stocktest.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read-only JMX view of a metrics registry. Every counter and gauge is an
+ * attribute; every histogram becomes several attributes (count, mean,
+ * percentiles and max) named after it. The metric set is read again each time
+ * the MBean is described, so metrics registered later show up too.
+ */
+class MetricsMBean implements DynamicMBean {
+	final private static String OPERATION_DUMP = "dump";
+	final private static String COUNT = ".count";
+	final private static String MEAN = ".mean";
+	final private static String MAX = ".max";
+
+	private final MetricsRegistry mRegistry;
+
+	/**
+	 * Creates the view
+	 * @param registry the registry to publish
+	 */
+	MetricsMBean(MetricsRegistry registry) {
+		mRegistry = registry;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#getAttribute(java.lang.String)
+	 */
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Object metric = mRegistry.getMetric(attribute);
+
+		if (metric instanceof Counter) {
+			return ((Counter)metric).get();
+		} else if (metric instanceof Gauge) {
+			return ((Gauge)metric).getValue();
+		}
+
+		// Histogram attributes are the histogram name plus a suffix
+		int separator = attribute.lastIndexOf('.');
+		if (separator > 0) {
+			metric = mRegistry.getMetric(attribute.substring(0, separator));
+			if (metric instanceof Histogram) {
+				Histogram histogram = (Histogram)metric;
+				String suffix = attribute.substring(separator);
+
+				if (suffix.equals(COUNT)) {
+					return histogram.getCount();
+				} else if (suffix.equals(MEAN)) {
+					return histogram.getMean();
+				} else if (suffix.equals(MAX)) {
+					return histogram.getMax();
+				}
+				for (double percentile : MetricsRegistry.getPercentiles()) {
+					if (suffix.equals(".p" + MetricsRegistry.percentileName(percentile))) {
+						return histogram.getValueAtPercentile(percentile);
+					}
+				}
+			}
+		}
+
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#setAttribute(javax.management.Attribute)
+	 */
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#getAttributes(java.lang.String[])
+	 */
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+
+		for (String attribute : attributes) {
+			try {
+				list.add(new Attribute(attribute, getAttribute(attribute)));
+			} catch (AttributeNotFoundException anfex) {
+				// Left out, as the interface expects
+			}
+		}
+
+		return list;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#setAttributes(javax.management.AttributeList)
+	 */
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#invoke(java.lang.String, java.lang.Object[], java.lang.String[])
+	 */
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		if (OPERATION_DUMP.equals(actionName)) {
+			return mRegistry.dump();
+		}
+
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.management.DynamicMBean#getMBeanInfo()
+	 */
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+
+		for (Map.Entry<String,Object> entry : mRegistry.getMetrics().entrySet()) {
+			String name = entry.getKey();
+			Object metric = entry.getValue();
+
+			if (metric instanceof Histogram) {
+				attributes.add(attribute(name + COUNT, Long.class, "Amount of values of " + name));
+				attributes.add(attribute(name + MEAN, Double.class, "Average of " + name));
+				for (double percentile : MetricsRegistry.getPercentiles()) {
+					attributes.add(attribute(name + ".p" + MetricsRegistry.percentileName(percentile), Long.class,
+							"Percentile " + percentile + " of " + name));
+				}
+				attributes.add(attribute(name + MAX, Long.class, "Maximum of " + name));
+			} else {
+				attributes.add(attribute(name, Long.class, (metric instanceof Counter) ? "Counter" : "Gauge"));
+			}
+		}
+
+		MBeanOperationInfo dump = new MBeanOperationInfo(OPERATION_DUMP, "Text dump of all the metrics",
+				new MBeanParameterInfo[0], String.class.getName(), MBeanOperationInfo.INFO);
+
+		return new MBeanInfo(getClass().getName(), "Trading and DWH metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+				null, new MBeanOperationInfo[] { dump }, null);
+	}
+
+	private static MBeanAttributeInfo attribute(String name, Class<?> type, String description) {
+		return new MBeanAttributeInfo(name, type.getName(), description, true, false, false);
+	}
+}
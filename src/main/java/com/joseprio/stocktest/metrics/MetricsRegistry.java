@@ -0,0 +1,155 @@
+package com.joseprio.stocktest.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.joseprio.stocktest.common.Constants;
+
+/**
+ * Registry of named counters, gauges and histograms. Components look their
+ * metrics up once, when they are created, and keep the instances, so
+ * recording a value never goes through the registry. The shared registry is
+ * also published through JMX.
+ */
+public class MetricsRegistry {
+	/**
+	 * Name the shared registry is published with in JMX
+	 */
+	final public static String OBJECT_NAME = "com.joseprio.stocktest:type=Metrics";
+	final private static double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private static MetricsRegistry instance = null;
+
+	private final ConcurrentSkipListMap<String,Object> mMetrics = new ConcurrentSkipListMap<String,Object>();
+
+	/**
+	 * Obtains the shared registry, publishing it in JMX the first time
+	 * @return the registry
+	 */
+	public static synchronized MetricsRegistry getInstance() {
+		if (instance == null) {
+			instance = new MetricsRegistry();
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(instance), new ObjectName(OBJECT_NAME));
+			} catch (JMException jmex) {
+				// The metrics are still available through the dump
+				jmex.printStackTrace();
+			}
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Gets a counter, creating it if needed
+	 * @param name the name of the counter
+	 * @return the counter
+	 * @throws IllegalArgumentException if the name is used by another kind of metric
+	 */
+	public Counter counter(String name) {
+		return checkType(name, mMetrics.computeIfAbsent(name, key -> new Counter()), Counter.class);
+	}
+
+	/**
+	 * Gets a histogram, creating it if needed
+	 * @param name the name of the histogram
+	 * @return the histogram
+	 * @throws IllegalArgumentException if the name is used by another kind of metric
+	 */
+	public Histogram histogram(String name) {
+		return checkType(name, mMetrics.computeIfAbsent(name, key -> new Histogram()), Histogram.class);
+	}
+
+	/**
+	 * Registers a gauge, replacing any gauge with the same name
+	 * @param name the name of the gauge
+	 * @param gauge the gauge
+	 * @throws IllegalArgumentException if the name is used by another kind of metric
+	 */
+	public void gauge(String name, Gauge gauge) {
+		Object previous = mMetrics.put(name, gauge);
+
+		if (previous != null && !(previous instanceof Gauge)) {
+			mMetrics.put(name, previous);
+			throw new IllegalArgumentException("The metric " + name + " is not a gauge");
+		}
+	}
+
+	/**
+	 * Gets a metric by name
+	 * @param name the name of the metric
+	 * @return the Counter, Gauge or Histogram, or null if there is none
+	 */
+	public Object getMetric(String name) {
+		return mMetrics.get(name);
+	}
+
+	/**
+	 * Gets all the metrics
+	 * @return the metrics by name, sorted by name; it's a live view
+	 */
+	public Map<String,Object> getMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * Writes the current value of every metric as text, one per line
+	 * @return the text
+	 */
+	public String dump() {
+		StringBuilder text = new StringBuilder();
+
+		for (Map.Entry<String,Object> entry : mMetrics.entrySet()) {
+			Object metric = entry.getValue();
+
+			text.append(entry.getKey()).append(": ");
+			if (metric instanceof Counter) {
+				text.append(((Counter)metric).get());
+			} else if (metric instanceof Gauge) {
+				text.append(((Gauge)metric).getValue());
+			} else {
+				Histogram histogram = (Histogram)metric;
+				text.append("count=").append(histogram.getCount());
+				if (histogram.getCount() > 0) {
+					text.append(String.format(" mean=%.1f", histogram.getMean()));
+					for (double percentile : PERCENTILES) {
+						text.append(" p").append(percentileName(percentile)).append('=').append(histogram.getValueAtPercentile(percentile));
+					}
+					text.append(" max=").append(histogram.getMax());
+				}
+			}
+			text.append(Constants.LINE_SEPARATOR);
+		}
+
+		return text.toString();
+	}
+
+	/**
+	 * Gets the percentiles reported for histograms
+	 * @return the percentiles
+	 */
+	static double[] getPercentiles() {
+		return PERCENTILES.clone();
+	}
+
+	/**
+	 * Gets the way a percentile is written in metric names, e.g. 99.9 is 999
+	 * @param percentile the percentile
+	 * @return the text
+	 */
+	static String percentileName(double percentile) {
+		return String.valueOf(percentile).replaceAll("\\.0$", "").replace(".", "");
+	}
+
+	private static <T> T checkType(String name, Object metric, Class<T> type) {
+		if (!type.isInstance(metric)) {
+			throw new IllegalArgumentException("The metric " + name + " is not a " + type.getSimpleName());
+		}
+
+		return type.cast(metric);
+	}
+}
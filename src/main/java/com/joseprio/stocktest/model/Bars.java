@@ -0,0 +1,123 @@
+package com.joseprio.stocktest.model;
+
+/**
+ * Reusable holder of OHLCV bars, stored in parallel arrays and ordered from
+ * the oldest to the newest; queries fill it, so reading bars repeatedly
+ * doesn't allocate.
+ */
+public class Bars {
+	private final long[] mStartTimes;
+	private final double[] mOpens;
+	private final double[] mHighs;
+	private final double[] mLows;
+	private final double[] mCloses;
+	private final long[] mVolumes;
+	private final int[] mTrades;
+	private int mSize = 0;
+
+	/**
+	 * Creates an empty holder
+	 * @param capacity the maximum amount of bars
+	 */
+	public Bars(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity has to be positive");
+		}
+
+		mStartTimes = new long[capacity];
+		mOpens = new double[capacity];
+		mHighs = new double[capacity];
+		mLows = new double[capacity];
+		mCloses = new double[capacity];
+		mVolumes = new long[capacity];
+		mTrades = new int[capacity];
+	}
+
+	/**
+	 * Adds a bar after the current ones
+	 * @param startTime the timestamp the bar period starts at
+	 * @param open the price of the first trade
+	 * @param high the highest price
+	 * @param low the lowest price
+	 * @param close the price of the last trade
+	 * @param volume the traded quantity
+	 * @param trades the amount of trades
+	 * @return the index of the bar
+	 * @throws IllegalStateException if the holder is full
+	 */
+	public int add(long startTime, double open, double high, double low, double close, long volume, int trades) {
+		if (isFull()) {
+			throw new IllegalStateException("The bars are full");
+		}
+
+		int index = mSize++;
+		mStartTimes[index] = startTime;
+		mOpens[index] = open;
+		mHighs[index] = high;
+		mLows[index] = low;
+		mCloses[index] = close;
+		mVolumes[index] = volume;
+		mTrades[index] = trades;
+
+		return index;
+	}
+
+	/**
+	 * Removes all the bars
+	 */
+	public void clear() {
+		mSize = 0;
+	}
+
+	/**
+	 * Gets the amount of bars
+	 * @return the amount of bars
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the maximum amount of bars
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return mStartTimes.length;
+	}
+
+	/**
+	 * Tells whether there is room for more bars
+	 * @return true if no more bars can be added
+	 */
+	public boolean isFull() {
+		return mSize == mStartTimes.length;
+	}
+
+	public long getStartTime(int index) {
+		return mStartTimes[index];
+	}
+
+	public double getOpen(int index) {
+		return mOpens[index];
+	}
+
+	public double getHigh(int index) {
+		return mHighs[index];
+	}
+
+	public double getLow(int index) {
+		return mLows[index];
+	}
+
+	public double getClose(int index) {
+		return mCloses[index];
+	}
+
+	public long getVolume(int index) {
+		return mVolumes[index];
+	}
+
+	public int getTrades(int index) {
+		return mTrades[index];
+	}
+}
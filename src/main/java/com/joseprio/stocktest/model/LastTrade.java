@@ -0,0 +1,47 @@
+package com.joseprio.stocktest.model;
+
+/**
+ * Reusable holder of the last trade of a stock: its price, quantity and
+ * timestamp, as a consistent set
+ */
+public class LastTrade {
+	private double mPricePerShare = Double.NaN;
+	private long mQuantity = 0;
+	private long mTimestamp = 0;
+
+	/**
+	 * Replaces the held trade
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param pricePerShare the price per share
+	 */
+	public void set(long timestamp, long quantity, double pricePerShare) {
+		mTimestamp = timestamp;
+		mQuantity = quantity;
+		mPricePerShare = pricePerShare;
+	}
+
+	/**
+	 * Gets the price per share
+	 * @return the price per share
+	 */
+	public double getPricePerShare() {
+		return mPricePerShare;
+	}
+
+	/**
+	 * Gets the quantity of shares
+	 * @return the quantity
+	 */
+	public long getQuantity() {
+		return mQuantity;
+	}
+
+	/**
+	 * Gets the timestamp of the trade
+	 * @return the timestamp
+	 */
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+}
@@ -1,7 +1,7 @@
 package com.joseprio.stocktest.model;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.joseprio.stocktest.common.Constants;
 import com.joseprio.stocktest.common.StockException;
@@ -12,6 +12,8 @@ import com.joseprio.stocktest.common.StockException;
  */
 public abstract class Stock {
 	private String mTicker;
+	private int mCode;
+	private int mId = -1;
 	private double mLastDividend;
 	private double mParValue;
 	
@@ -24,6 +26,23 @@ public abstract class Stock {
 		mTicker = ticker;
 	}
 	
+	/**
+	 * Gets the dense identifier given when the stock was registered; ids go
+	 * from 0 to the amount of registered stocks
+	 * @return the stock id, or -1 if it's not registered
+	 */
+	public int getId() {
+		return mId;
+	}
+	
+	/**
+	 * Gets the ticker encoded as in {@link #encodeTicker(String)}
+	 * @return the ticker code
+	 */
+	public int getCode() {
+		return mCode;
+	}
+	
 	/**
 	 * @return
 	 */
@@ -77,7 +96,11 @@ public abstract class Stock {
 	public abstract double calculateDividendYield(double marketPrice);
 	
 	// Persistance layer simulation
-	private static Map<String, Stock> stocks = new HashMap<String, Stock>();
+	// Tickers have three letters, so the ticker code works as a perfect hash
+	final private static int CODE_SPACE = 1 << 15;
+	private static AtomicReferenceArray<Stock> stocksByCode = new AtomicReferenceArray<Stock>(CODE_SPACE);
+	// Replaced on every registration, so readers never need a lock
+	private static volatile Stock[] stocksById = new Stock[0];
 	
 	static {
 		// Hardcoding values
@@ -100,7 +123,92 @@ public abstract class Stock {
 	 * @return
 	 */
 	public static Stock byTicker(String ticker) {
-		return stocks.get(ticker);
+		if (!isTickerFormat(ticker)) {
+			return null;
+		}
+		
+		return stocksByCode.get(encodeTicker(ticker));
+	}
+	
+	/**
+	 * Obtains the stock instance with the given ticker code
+	 * @param code the ticker code, as in {@link #encodeTicker(String)}
+	 * @return the stock, or null if there is none
+	 */
+	public static Stock byCode(int code) {
+		if (code <= 0 || code >= CODE_SPACE) {
+			return null;
+		}
+		
+		return stocksByCode.get(code);
+	}
+	
+	/**
+	 * Obtains the stock instance with the given id
+	 * @param id the stock id
+	 * @return the stock, or null if there is none
+	 */
+	public static Stock byId(int id) {
+		Stock[] stocks = stocksById;
+		
+		if (id < 0 || id >= stocks.length) {
+			return null;
+		}
+		
+		return stocks[id];
+	}
+	
+	/**
+	 * Gets the amount of registered stocks, which is also the next id
+	 * @return the amount of registered stocks
+	 */
+	public static int count() {
+		return stocksById.length;
+	}
+	
+	/**
+	 * Checks the ticker format without allocating; equivalent to
+	 * matching {@link Constants#TICKER_REGEX}
+	 */
+	private static boolean isTickerFormat(String ticker) {
+		if (ticker == null || ticker.length() != 3) {
+			return false;
+		}
+		
+		for (int i = 0; i < 3; i++) {
+			char letter = ticker.charAt(i);
+			if (letter < 'A' || letter > 'Z') {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Encodes a ticker in 15 bits, 5 for each letter; the result is never 0
+	 * @param ticker a ticker with a valid format
+	 * @return the ticker code
+	 */
+	public static int encodeTicker(String ticker) {
+		return ((ticker.charAt(0) - 'A' + 1) << 10)
+				| ((ticker.charAt(1) - 'A' + 1) << 5)
+				| (ticker.charAt(2) - 'A' + 1);
+	}
+	
+	/**
+	 * Decodes a ticker encoded with {@link #encodeTicker(String)}
+	 * @param code the ticker code
+	 * @return the ticker
+	 */
+	public static String decodeTicker(int code) {
+		char[] letters = {
+				(char)('A' - 1 + ((code >> 10) & 0x1F)),
+				(char)('A' - 1 + ((code >> 5) & 0x1F)),
+				(char)('A' - 1 + (code & 0x1F))
+		};
+		
+		return new String(letters);
 	}
 	
 	/**
@@ -108,11 +216,11 @@ public abstract class Stock {
 	 * @return an array with the registered stocks
 	 */
 	public static Stock[] all() {
-		return stocks.values().toArray(new Stock[0]);
+		return stocksById.clone();
 	}
 	
 	// Package private, to be used internally
-	static void register(Stock newStock) throws StockException {
+	static synchronized void register(Stock newStock) throws StockException {
 		// Validate that the ticker is valid
 		String newTicker = newStock.getTicker();
 		
@@ -136,11 +244,17 @@ public abstract class Stock {
 		// TODO: add business logic validations
 			
 		// If we already have the same ticker, throw exception
-		if (stocks.containsKey(newTicker)) {
+		int code = encodeTicker(newTicker);
+		if (stocksByCode.get(code) != null) {
 			throw new StockException("Ticker already exists");
 		}
 		
 		// The stock has been validated, register it
-		stocks.put(newTicker, newStock);
+		Stock[] stocks = Arrays.copyOf(stocksById, stocksById.length + 1);
+		newStock.mCode = code;
+		newStock.mId = stocks.length - 1;
+		stocks[newStock.mId] = newStock;
+		stocksById = stocks;
+		stocksByCode.set(code, newStock);
 	}
 }
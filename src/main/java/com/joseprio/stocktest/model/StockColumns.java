@@ -0,0 +1,125 @@
+package com.joseprio.stocktest.model;
+
+/**
+ * Columnar copy of the dividend data of all the registered stocks, to price
+ * the whole universe at once. Each calculation is a single loop over
+ * primitive arrays indexed by stock id, with no virtual calls or branches on
+ * the stock type, so the JIT can vectorize it; the results are exactly the
+ * ones of {@link Stock#calculateDividendYield(double)} and
+ * {@link Stock#calculatePERatio(double)}. The copy is not updated when
+ * stocks are registered or their dividends change; capture a new one then.
+ */
+public final class StockColumns {
+	// Dividend of each stock the yield is calculated from: the last
+	// dividend of common stocks, fixed dividend * par value of preferred ones
+	private final double[] mYieldDividends;
+	private final double[] mLastDividends;
+
+	private StockColumns(double[] yieldDividends, double[] lastDividends) {
+		mYieldDividends = yieldDividends;
+		mLastDividends = lastDividends;
+	}
+
+	/**
+	 * Copies the current dividend data of all the registered stocks
+	 * @return the copy
+	 */
+	public static StockColumns capture() {
+		Stock[] stocks = Stock.all();
+		double[] yieldDividends = new double[stocks.length];
+		double[] lastDividends = new double[stocks.length];
+
+		for (Stock stock : stocks) {
+			if (stock instanceof PreferredStock) {
+				PreferredStock preferred = (PreferredStock)stock;
+				// Same operation order as the scalar method, so it rounds the same
+				yieldDividends[stock.getId()] = preferred.getFixedDividend() * preferred.getParValue();
+			} else {
+				yieldDividends[stock.getId()] = stock.getLastDividend();
+			}
+			lastDividends[stock.getId()] = stock.getLastDividend();
+		}
+
+		return new StockColumns(yieldDividends, lastDividends);
+	}
+
+	/**
+	 * Gets the amount of stocks in the copy
+	 * @return the amount of stocks, ids go from 0 to this value
+	 */
+	public int size() {
+		return mLastDividends.length;
+	}
+
+	/**
+	 * Calculates the dividend yield of every stock
+	 * @param marketPrices the market price of each stock, by id
+	 * @param yields the array the yields are written to, by id
+	 * @throws IllegalArgumentException if an array is shorter than the amount of stocks
+	 */
+	public void calculateDividendYields(double[] marketPrices, double[] yields) {
+		checkLength(marketPrices);
+		checkLength(yields);
+
+		double[] dividends = mYieldDividends;
+		for (int id = 0; id < dividends.length; id++) {
+			yields[id] = dividends[id] / marketPrices[id];
+		}
+	}
+
+	/**
+	 * Calculates the P/E ratio of every stock
+	 * @param marketPrices the market price of each stock, by id
+	 * @param ratios the array the ratios are written to, by id
+	 * @throws IllegalArgumentException if an array is shorter than the amount of stocks
+	 */
+	public void calculatePERatios(double[] marketPrices, double[] ratios) {
+		checkLength(marketPrices);
+		checkLength(ratios);
+
+		double[] dividends = mLastDividends;
+		for (int id = 0; id < dividends.length; id++) {
+			ratios[id] = marketPrices[id] / dividends[id];
+		}
+	}
+
+	/**
+	 * Calculates the dividend yield of every stock for several price scenarios
+	 * @param scenarios the market prices of each scenario, by id
+	 * @param yields the arrays the yields of each scenario are written to
+	 * @throws IllegalArgumentException if there are less result arrays than scenarios, or an array is too short
+	 */
+	public void calculateDividendYields(double[][] scenarios, double[][] yields) {
+		checkScenarios(scenarios, yields);
+
+		for (int scenario = 0; scenario < scenarios.length; scenario++) {
+			calculateDividendYields(scenarios[scenario], yields[scenario]);
+		}
+	}
+
+	/**
+	 * Calculates the P/E ratio of every stock for several price scenarios
+	 * @param scenarios the market prices of each scenario, by id
+	 * @param ratios the arrays the ratios of each scenario are written to
+	 * @throws IllegalArgumentException if there are less result arrays than scenarios, or an array is too short
+	 */
+	public void calculatePERatios(double[][] scenarios, double[][] ratios) {
+		checkScenarios(scenarios, ratios);
+
+		for (int scenario = 0; scenario < scenarios.length; scenario++) {
+			calculatePERatios(scenarios[scenario], ratios[scenario]);
+		}
+	}
+
+	private void checkLength(double[] values) {
+		if (values.length < mLastDividends.length) {
+			throw new IllegalArgumentException("Expected a value for each of the " + mLastDividends.length + " stocks");
+		}
+	}
+
+	private static void checkScenarios(double[][] scenarios, double[][] results) {
+		if (results.length < scenarios.length) {
+			throw new IllegalArgumentException("Expected a result array for each of the " + scenarios.length + " scenarios");
+		}
+	}
+}
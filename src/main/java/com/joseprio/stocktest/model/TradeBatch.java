@@ -0,0 +1,201 @@
+package com.joseprio.stocktest.model;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.common.RejectionReason;
+
+/**
+ * Reusable batch of trades, stored in parallel arrays. A gateway fills it
+ * with add, records it through the trade service and clears it for the next
+ * burst; nothing is allocated along the way. Validation marks the rows that
+ * are not valid instead of failing, so the rest of the batch still goes
+ * through.
+ */
+public class TradeBatch {
+	private final String[] mTickers;
+	private final long[] mTimestamps;
+	private final long[] mQuantities;
+	private final OperationType[] mTypes;
+	private final double[] mPrices;
+	private final Stock[] mStocks;
+	private final RejectionReason[] mRejections;
+	private int mSize = 0;
+	private int mAccepted = 0;
+
+	/**
+	 * Creates an empty batch
+	 * @param capacity the maximum amount of trades in the batch
+	 */
+	public TradeBatch(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity has to be positive");
+		}
+
+		mTickers = new String[capacity];
+		mTimestamps = new long[capacity];
+		mQuantities = new long[capacity];
+		mTypes = new OperationType[capacity];
+		mPrices = new double[capacity];
+		mStocks = new Stock[capacity];
+		mRejections = new RejectionReason[capacity];
+	}
+
+	/**
+	 * Adds a trade to the batch; it's not validated until the batch is
+	 * @param ticker the ticker of the traded stock
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param type the operation type
+	 * @param pricePerShare the price per share
+	 * @return the row of the trade in the batch
+	 * @throws IllegalStateException if the batch is full
+	 */
+	public int add(String ticker, long timestamp, long quantity, OperationType type, double pricePerShare) {
+		if (isFull()) {
+			throw new IllegalStateException("The batch is full");
+		}
+
+		int row = mSize++;
+		mTickers[row] = ticker;
+		mTimestamps[row] = timestamp;
+		mQuantities[row] = quantity;
+		mTypes[row] = type;
+		mPrices[row] = pricePerShare;
+		mStocks[row] = null;
+		mRejections[row] = null;
+
+		return row;
+	}
+
+	/**
+	 * Adds a trade of an already resolved stock to the batch, so the caller
+	 * doesn't need a ticker string; it's not validated until the batch is
+	 * @param stock the traded stock, null if it's not known
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param type the operation type
+	 * @param pricePerShare the price per share
+	 * @return the row of the trade in the batch
+	 * @throws IllegalStateException if the batch is full
+	 */
+	public int add(Stock stock, long timestamp, long quantity, OperationType type, double pricePerShare) {
+		int row = add((stock == null) ? null : stock.getTicker(), timestamp, quantity, type, pricePerShare);
+		mStocks[row] = stock;
+
+		return row;
+	}
+
+	/**
+	 * Empties the batch so it can be filled again
+	 */
+	public void clear() {
+		for (int row = 0; row < mSize; row++) {
+			// Don't hold on to the caller's strings
+			mTickers[row] = null;
+		}
+		mSize = 0;
+		mAccepted = 0;
+	}
+
+	/**
+	 * Validates every trade in the batch, resolving their stocks and marking
+	 * the ones that are not valid
+	 * @param currentTime the current time, trades cannot be in the future
+	 * @return the amount of valid trades
+	 */
+	public int validate(long currentTime) {
+		int accepted = 0;
+
+		for (int row = 0; row < mSize; row++) {
+			Stock stock = (mStocks[row] != null) ? mStocks[row] : Stock.byTicker(mTickers[row]);
+			RejectionReason reason = TradeRecord.check(stock, mTimestamps[row], mQuantities[row], mTypes[row], mPrices[row], currentTime);
+
+			mStocks[row] = stock;
+			mRejections[row] = reason;
+			if (reason == null) {
+				accepted++;
+			}
+		}
+		mAccepted = accepted;
+
+		return accepted;
+	}
+
+	/**
+	 * Gets the amount of trades in the batch
+	 * @return the amount of trades
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the maximum amount of trades in the batch
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return mTickers.length;
+	}
+
+	/**
+	 * Tells whether there is room for more trades
+	 * @return true if no more trades can be added
+	 */
+	public boolean isFull() {
+		return mSize == mTickers.length;
+	}
+
+	/**
+	 * Gets the amount of valid trades found by the last validation
+	 * @return the amount of valid trades
+	 */
+	public int getAccepted() {
+		return mAccepted;
+	}
+
+	/**
+	 * Tells whether a trade was rejected by the last validation
+	 * @param row the row of the trade
+	 * @return true if the trade was rejected
+	 */
+	public boolean isRejected(int row) {
+		return mRejections[row] != null;
+	}
+
+	/**
+	 * Gets the reason a trade was rejected by the last validation
+	 * @param row the row of the trade
+	 * @return the reason, or null if the trade is valid
+	 */
+	public RejectionReason getRejection(int row) {
+		return mRejections[row];
+	}
+
+	public String getTicker(int row) {
+		return mTickers[row];
+	}
+
+	/**
+	 * Gets the stock of a trade, as resolved by the last validation
+	 * @param row the row of the trade
+	 * @return the stock, or null if the ticker is not known
+	 */
+	public Stock getStock(int row) {
+		return mStocks[row];
+	}
+
+	public long getTimestamp(int row) {
+		return mTimestamps[row];
+	}
+
+	public long getQuantity(int row) {
+		return mQuantities[row];
+	}
+
+	public OperationType getType(int row) {
+		return mTypes[row];
+	}
+
+	public double getPricePerShare(int row) {
+		return mPrices[row];
+	}
+}
@@ -1,8 +1,7 @@
 package com.joseprio.stocktest.model;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
-
 import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.common.RejectionReason;
 import com.joseprio.stocktest.service.TimeProviderFactory;;
 
 /**
@@ -123,14 +122,7 @@ public class TradeRecord {
 		 * @return the builder instance for chaining
 		 */
 		public Builder timestamp(long timestamp) {
-			if (timestamp <= 0) {
-				throw new IllegalArgumentException("The timestamp has to be positive");
-			}
-			
-			if (timestamp > TimeProviderFactory.getInstance().currentTimeMillis()) {
-				throw new IllegalArgumentException("The timestamp cannot be set in the future");
-			}
-			
+			require(checkTimestamp(timestamp, TimeProviderFactory.getInstance().currentTimeMillis()));
 			mTimestamp = timestamp;
 			
 			return this;
@@ -142,9 +134,7 @@ public class TradeRecord {
 		 * @return the builder instance for chaining
 		 */
 		public Builder stock(Stock stock) {
-			if (stock == null) {
-				throw new IllegalArgumentException("Stock cannot be null");
-			}
+			require(checkStock(stock));
 			mStock = stock;
 			
 			return this;
@@ -156,9 +146,7 @@ public class TradeRecord {
 		 * @return the builder instance for chaining
 		 */
 		public Builder type(OperationType type) {
-			if (type == null) {
-				throw new IllegalArgumentException("Type cannot be null");
-			}
+			require(checkType(type));
 			mType = type;
 			
 			return this;
@@ -170,9 +158,7 @@ public class TradeRecord {
 		 * @return the builder instance for chaining
 		 */
 		public Builder quantity(long quantity) {
-			if (quantity <= 0) {
-				throw new IllegalArgumentException("Quantity has to be positive");
-			}
+			require(checkQuantity(quantity));
 			mQuantity = quantity;
 			
 			return this;
@@ -184,9 +170,7 @@ public class TradeRecord {
 		 * @return the builder instance for chaining
 		 */
 		public Builder price(double pricePerShare) {
-			if (pricePerShare <= 0.0) {
-				throw new IllegalArgumentException("Price has to be positive");
-			}
+			require(checkPrice(pricePerShare));
 			mPricePerShare = pricePerShare;
 			
 			return this;
@@ -226,17 +210,119 @@ public class TradeRecord {
 		}
 	}
 	
+	/**
+	 * Checks the fields of a trade the same way the builder does, without
+	 * creating anything
+	 * @param stock the traded stock
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param type the operation type
+	 * @param pricePerShare the price per share
+	 * @param currentTime the current time, trades cannot be in the future
+	 * @return the reason the trade is not valid, or null if it is
+	 */
+	public static RejectionReason check(Stock stock,
+										long timestamp,
+										long quantity,
+										OperationType type,
+										double pricePerShare,
+										long currentTime) {
+		RejectionReason reason = checkTimestamp(timestamp, currentTime);
+		if (reason == null) {
+			reason = checkStock(stock);
+		}
+		if (reason == null) {
+			reason = checkQuantity(quantity);
+		}
+		if (reason == null) {
+			reason = checkPrice(pricePerShare);
+		}
+		if (reason == null) {
+			reason = checkType(type);
+		}
+		
+		return reason;
+	}
+	
+	/**
+	 * Validates the fields of a trade the same way the builder does, without
+	 * creating anything
+	 * @param stock the traded stock
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param type the operation type
+	 * @param pricePerShare the price per share
+	 * @param currentTime the current time, trades cannot be in the future
+	 * @throws IllegalArgumentException if any field is not valid
+	 */
+	public static void validate(Stock stock,
+								long timestamp,
+								long quantity,
+								OperationType type,
+								double pricePerShare,
+								long currentTime) {
+		require(check(stock, timestamp, quantity, type, pricePerShare, currentTime));
+	}
+	
+	private static void require(RejectionReason reason) {
+		if (reason != null) {
+			throw new IllegalArgumentException(reason.getMessage());
+		}
+	}
+	
+	private static RejectionReason checkTimestamp(long timestamp, long currentTime) {
+		if (timestamp <= 0) {
+			return RejectionReason.INVALID_TIMESTAMP;
+		}
+		
+		if (timestamp > currentTime) {
+			return RejectionReason.FUTURE_TIMESTAMP;
+		}
+		
+		return null;
+	}
+	
+	private static RejectionReason checkStock(Stock stock) {
+		return (stock == null) ? RejectionReason.UNKNOWN_STOCK : null;
+	}
+	
+	private static RejectionReason checkType(OperationType type) {
+		return (type == null) ? RejectionReason.MISSING_TYPE : null;
+	}
+	
+	private static RejectionReason checkQuantity(long quantity) {
+		return (quantity <= 0) ? RejectionReason.INVALID_QUANTITY : null;
+	}
+	
+	private static RejectionReason checkPrice(double pricePerShare) {
+		// Written this way so NaN is rejected too
+		return (pricePerShare > 0.0) ? null : RejectionReason.INVALID_PRICE;
+	}
+	
 	// Persistance layer simulation
 	// We are asked to record a trade, so it will be stored here
-	// Using a concurrent queue to allow multiple additions simultaneously
-	private static ConcurrentLinkedQueue<TradeRecord> records = new ConcurrentLinkedQueue<TradeRecord>();
+	// Using a columnar store to allow multiple additions simultaneously
+	private static TradeStore records = new TradeStore();
 	
 	/**
 	 * Store a record in the persistance layer
 	 * @param record the record to store
+	 * @return the row where the record was stored
+	 */
+	public static long store(TradeRecord record) {
+		return records.append(record.getStock(),
+				record.getTimestamp(),
+				record.getType(),
+				record.getQuantity(),
+				record.getPricePerShare());
+	}
+	
+	/**
+	 * Get the store holding all the stored records
+	 * @return the trade store
 	 */
-	public static void store(TradeRecord record) {
-		records.add(record);
+	public static TradeStore getStore() {
+		return records;
 	}
 	
 }
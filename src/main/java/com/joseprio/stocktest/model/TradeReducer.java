@@ -0,0 +1,38 @@
+package com.joseprio.stocktest.model;
+
+import com.joseprio.stocktest.common.OperationType;
+
+/**
+ * Aggregation over the stored trades, run in parallel by
+ * {@link TradeStore#reduce(TradeReducer)}. Each task accumulates its share of
+ * the rows into a result of its own, and the partial results are combined
+ * in row order along a split that only depends on the amount of rows, so
+ * the outcome is the same whichever threads did the work. Trades are handed
+ * over as primitives, so accumulating doesn't need to allocate.
+ * @param <R> the type of the mutable result
+ */
+public interface TradeReducer<R> {
+	/**
+	 * Creates an empty result
+	 * @return the new result
+	 */
+	R create();
+
+	/**
+	 * Adds a trade to a result
+	 * @param result the result to update
+	 * @param tickerCode the ticker of the trade, as in {@link Stock#encodeTicker(String)}
+	 * @param timestamp the timestamp of the trade
+	 * @param type the operation type
+	 * @param quantity the quantity of shares
+	 * @param pricePerShare the price per share
+	 */
+	void accumulate(R result, int tickerCode, long timestamp, OperationType type, long quantity, double pricePerShare);
+
+	/**
+	 * Adds a partial result to another
+	 * @param result the result to update, covering earlier rows
+	 * @param other the result to add, covering the rows right after those of result
+	 */
+	void combine(R result, R other);
+}
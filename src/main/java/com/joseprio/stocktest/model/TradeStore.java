@@ -0,0 +1,340 @@
+package com.joseprio.stocktest.model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.joseprio.stocktest.common.OperationType;
+
+/**
+ * Append-only columnar storage of trades. Trades are kept in chunks of
+ * parallel primitive arrays (one per field), so each trade takes a few
+ * dozen bytes and no objects. Writers claim rows with a single atomic
+ * increment; a row becomes visible to readers when its ticker is written,
+ * which is always the last field to be set.
+ */
+public class TradeStore {
+	final private static int CHUNK_BITS = 16;
+	final private static int CHUNK_SIZE = 1 << CHUNK_BITS;
+	final private static int CHUNK_MASK = CHUNK_SIZE - 1;
+	final private static int MAX_CHUNKS = 1 << 15;
+	// Ticker value of a row that has not been published yet
+	final private static int UNPUBLISHED = 0;
+	final private static OperationType[] TYPES = OperationType.values();
+
+	private final AtomicReferenceArray<Chunk> mChunks = new AtomicReferenceArray<Chunk>(MAX_CHUNKS);
+	private final AtomicLong mSize = new AtomicLong(0);
+
+	/**
+	 * Creates an empty store
+	 */
+	public TradeStore() {
+		mChunks.set(0, new Chunk());
+	}
+
+	/**
+	 * Appends a trade to the store
+	 * @param stock the traded stock
+	 * @param timestamp the timestamp of the trade
+	 * @param type the operation type
+	 * @param quantity the quantity of shares
+	 * @param pricePerShare the price per share
+	 * @return the row of the stored trade
+	 */
+	public long append(Stock stock, long timestamp, OperationType type, long quantity, double pricePerShare) {
+		long row = mSize.getAndIncrement();
+
+		write(row, stock, timestamp, type, quantity, pricePerShare);
+
+		return row;
+	}
+
+	/**
+	 * Appends the valid trades of a batch, in order, in consecutive rows
+	 * @param batch the validated batch
+	 * @return the row of the first stored trade
+	 */
+	public long append(TradeBatch batch) {
+		// Claim all the rows at once
+		long first = mSize.getAndAdd(batch.getAccepted());
+		long row = first;
+
+		for (int i = 0; i < batch.size(); i++) {
+			if (!batch.isRejected(i)) {
+				write(row++, batch.getStock(i), batch.getTimestamp(i), batch.getType(i), batch.getQuantity(i), batch.getPricePerShare(i));
+			}
+		}
+
+		return first;
+	}
+
+	/**
+	 * Gets the amount of rows claimed so far; the last ones might still be
+	 * in the process of being written
+	 * @return the amount of rows
+	 */
+	public long size() {
+		return mSize.get();
+	}
+
+	/**
+	 * Gets the chunk size, the amount of rows that are allocated together
+	 * @return the chunk size
+	 */
+	public static int getChunkSize() {
+		return CHUNK_SIZE;
+	}
+
+	/**
+	 * Opens a cursor positioned before the first row
+	 * @return the new cursor
+	 */
+	public Cursor cursor() {
+		return new Cursor(0);
+	}
+
+	/**
+	 * Opens a cursor positioned before the given row
+	 * @param fromRow the first row the cursor will return
+	 * @return the new cursor
+	 */
+	public Cursor cursor(long fromRow) {
+		return new Cursor(fromRow);
+	}
+
+	/**
+	 * Aggregates all the rows published so far on the common fork/join pool
+	 * @param reducer the aggregation to run
+	 * @return the result
+	 */
+	public <R> R reduce(TradeReducer<R> reducer) {
+		return reduce(reducer, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Aggregates all the rows published so far, one chunk per task; rows still
+	 * being written when the aggregation starts are left out
+	 * @param reducer the aggregation to run
+	 * @param pool the pool that runs the tasks
+	 * @return the result
+	 */
+	public <R> R reduce(TradeReducer<R> reducer, ForkJoinPool pool) {
+		long rows = mSize.get();
+		int chunks = (int)((rows + CHUNK_MASK) >>> CHUNK_BITS);
+
+		if (chunks == 0) {
+			return reducer.create();
+		}
+
+		return pool.invoke(new ReduceTask<R>(reducer, rows, 0, chunks));
+	}
+
+	private void write(long row, Stock stock, long timestamp, OperationType type, long quantity, double pricePerShare) {
+		Chunk chunk = chunkFor(row);
+		int index = (int)row & CHUNK_MASK;
+
+		chunk.mTimestamps[index] = timestamp;
+		chunk.mTypes[index] = (byte)type.ordinal();
+		chunk.mQuantities[index] = quantity;
+		chunk.mPrices[index] = pricePerShare;
+		// Publish the row
+		chunk.mTickers.lazySet(index, stock.getCode());
+	}
+
+	private Chunk chunkFor(long row) {
+		int chunkIndex = (int)(row >>> CHUNK_BITS);
+
+		if (chunkIndex >= MAX_CHUNKS) {
+			throw new IllegalStateException("The trade store is full");
+		}
+
+		Chunk chunk = mChunks.get(chunkIndex);
+		if (chunk == null) {
+			chunk = new Chunk();
+			if (!mChunks.compareAndSet(chunkIndex, null, chunk)) {
+				// Someone else created it in the meantime
+				chunk = mChunks.get(chunkIndex);
+			}
+		}
+
+		if (((int)row & CHUNK_MASK) == CHUNK_SIZE / 2
+				&& chunkIndex + 1 < MAX_CHUNKS
+				&& mChunks.get(chunkIndex + 1) == null) {
+			// Halfway through the chunk, allocate the next one ahead of time
+			mChunks.compareAndSet(chunkIndex + 1, null, new Chunk());
+		}
+
+		return chunk;
+	}
+
+	/**
+	 * A block of rows stored in columns
+	 */
+	static final class Chunk {
+		final long[] mTimestamps = new long[CHUNK_SIZE];
+		final AtomicIntegerArray mTickers = new AtomicIntegerArray(CHUNK_SIZE);
+		final byte[] mTypes = new byte[CHUNK_SIZE];
+		final long[] mQuantities = new long[CHUNK_SIZE];
+		final double[] mPrices = new double[CHUNK_SIZE];
+	}
+
+	/**
+	 * Aggregates a range of chunks, splitting it in halves down to single
+	 * chunks; the halves are always combined left to right
+	 */
+	private final class ReduceTask<R> extends RecursiveTask<R> {
+		private static final long serialVersionUID = 1L;
+
+		private final TradeReducer<R> mReducer;
+		private final long mRows;
+		private final int mFromChunk;
+		private final int mToChunk;
+
+		ReduceTask(TradeReducer<R> reducer, long rows, int fromChunk, int toChunk) {
+			mReducer = reducer;
+			mRows = rows;
+			mFromChunk = fromChunk;
+			mToChunk = toChunk;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected R compute() {
+			if (mToChunk - mFromChunk == 1) {
+				return reduceChunk();
+			}
+
+			int middle = (mFromChunk + mToChunk) >>> 1;
+			ReduceTask<R> left = new ReduceTask<R>(mReducer, mRows, mFromChunk, middle);
+			ReduceTask<R> right = new ReduceTask<R>(mReducer, mRows, middle, mToChunk);
+
+			left.fork();
+			R rightResult = right.compute();
+			R result = left.join();
+			mReducer.combine(result, rightResult);
+
+			return result;
+		}
+
+		private R reduceChunk() {
+			R result = mReducer.create();
+			Chunk chunk = mChunks.get(mFromChunk);
+
+			if (chunk == null) {
+				return result;
+			}
+
+			int end = (int)Math.min(CHUNK_SIZE, mRows - ((long)mFromChunk << CHUNK_BITS));
+			for (int index = 0; index < end; index++) {
+				// Reading the ticker first makes the other fields visible
+				int code = chunk.mTickers.get(index);
+				if (code != UNPUBLISHED) {
+					mReducer.accumulate(result, code, chunk.mTimestamps[index], TYPES[chunk.mTypes[index]],
+							chunk.mQuantities[index], chunk.mPrices[index]);
+				}
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * Forward-only cursor over the stored trades; it stops at the first row
+	 * that has not been published yet. It doesn't allocate while moving.
+	 */
+	public class Cursor {
+		private long mRow;
+		private Chunk mChunk;
+		private int mIndex;
+
+		private Cursor(long fromRow) {
+			mRow = fromRow - 1;
+		}
+
+		/**
+		 * Moves to the next row
+		 * @return false if there are no more published rows
+		 */
+		public boolean next() {
+			long row = mRow + 1;
+
+			if (row >= mSize.get()) {
+				return false;
+			}
+
+			int index = (int)row & CHUNK_MASK;
+			Chunk chunk = (index == 0 || mChunk == null) ? mChunks.get((int)(row >>> CHUNK_BITS)) : mChunk;
+
+			if (chunk == null || chunk.mTickers.get(index) == UNPUBLISHED) {
+				// Still being written
+				return false;
+			}
+
+			mRow = row;
+			mChunk = chunk;
+			mIndex = index;
+
+			return true;
+		}
+
+		/**
+		 * Gets the current row number
+		 * @return the row number
+		 */
+		public long getRow() {
+			return mRow;
+		}
+
+		/**
+		 * Gets the stock of the current row
+		 * @return the stock
+		 */
+		public Stock getStock() {
+			return Stock.byCode(mChunk.mTickers.get(mIndex));
+		}
+
+		/**
+		 * Gets the encoded ticker of the current row
+		 * @return the ticker code, as in {@link Stock#encodeTicker(String)}
+		 */
+		public int getTickerCode() {
+			return mChunk.mTickers.get(mIndex);
+		}
+
+		/**
+		 * Gets the timestamp of the current row
+		 * @return the timestamp
+		 */
+		public long getTimestamp() {
+			return mChunk.mTimestamps[mIndex];
+		}
+
+		/**
+		 * Gets the operation type of the current row
+		 * @return the operation type
+		 */
+		public OperationType getType() {
+			return TYPES[mChunk.mTypes[mIndex]];
+		}
+
+		/**
+		 * Gets the quantity of the current row
+		 * @return the quantity
+		 */
+		public long getQuantity() {
+			return mChunk.mQuantities[mIndex];
+		}
+
+		/**
+		 * Gets the price per share of the current row
+		 * @return the price per share
+		 */
+		public double getPricePerShare() {
+			return mChunk.mPrices[mIndex];
+		}
+	}
+}
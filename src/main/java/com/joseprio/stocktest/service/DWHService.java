@@ -1,9 +1,145 @@
 package com.joseprio.stocktest.service;
 
+import java.util.Map;
+
+import com.joseprio.stocktest.common.BarResolution;
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Bars;
+import com.joseprio.stocktest.model.LastTrade;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.model.TradeBatch;
 import com.joseprio.stocktest.model.TradeRecord;
 
 public interface DWHService {
 	public void notifyTrade(TradeRecord record);
+	/**
+	 * Notifies a trade given its fields, so no record has to be created
+	 * @param stock the traded stock
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param type the operation type (buy/sell)
+	 * @param pricePerShare the price per share
+	 */
+	public void notifyTrade(Stock stock, long timestamp, long quantity, OperationType type, double pricePerShare);
+	/**
+	 * Notifies a stored trade given its fields, so snapshots of the
+	 * aggregates can tell which stored trades they include
+	 * @param stock the traded stock
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param type the operation type (buy/sell)
+	 * @param pricePerShare the price per share
+	 * @param sequence the row of the trade in the trade store, -1 if it's not stored
+	 */
+	public void notifyTrade(Stock stock, long timestamp, long quantity, OperationType type, double pricePerShare, long sequence);
+	/**
+	 * Notifies the valid trades of a batch as a single unit
+	 * @param batch the validated batch
+	 */
+	public void notifyTrades(TradeBatch batch);
+	/**
+	 * Notifies the valid trades of a stored batch as a single unit
+	 * @param batch the validated batch
+	 * @param firstSequence the row of the first valid trade of the batch in
+	 * the trade store, the others follow it; -1 if they are not stored
+	 */
+	public void notifyTrades(TradeBatch batch, long firstSequence);
 	public double calculateVolumeWeighted(); 
+	/**
+	 * Calculates the volume weighted price of a stock for the trades of
+	 * the last 15 minutes
+	 * @param ticker the ticker of the stock
+	 * @return the volume weighted price, or NaN if there were no trades
+	 */
+	public double calculateVolumeWeighted(String ticker);
+	/**
+	 * Calculates the volume weighted price of a stock for the trades in a
+	 * time range, however old
+	 * @param ticker the ticker of the stock
+	 * @param from the first timestamp of the range
+	 * @param to the timestamp after the last one of the range
+	 * @return the volume weighted price, or NaN if there were no trades
+	 */
+	public double calculateVolumeWeighted(String ticker, long from, long to);
+	/**
+	 * Gets the quantity of shares of a stock traded in a time range
+	 * @param ticker the ticker of the stock
+	 * @param from the first timestamp of the range
+	 * @param to the timestamp after the last one of the range
+	 * @return the traded quantity
+	 */
+	public long getVolume(String ticker, long from, long to);
+	/**
+	 * Gets the amount of trades of a stock in a time range
+	 * @param ticker the ticker of the stock
+	 * @param from the first timestamp of the range
+	 * @param to the timestamp after the last one of the range
+	 * @return the amount of trades
+	 */
+	public long getTradeCount(String ticker, long from, long to);
 	public double calculateShareIndex(); 
+	/**
+	 * Copies the latest trade of a stock (the one with the newest timestamp)
+	 * applied by the DWH; trades merged under the COALESCE overload policy
+	 * count as a single one at their average price. It never waits for the
+	 * DWH worker.
+	 * @param ticker the ticker of the stock
+	 * @param lastTrade reusable holder the trade is copied to
+	 * @return false if there were no trades, and the holder was not changed
+	 */
+	public boolean getLastTrade(String ticker, LastTrade lastTrade);
+	/**
+	 * Calculates the dividend yield of a stock at its last traded price
+	 * @param ticker the ticker of the stock
+	 * @return the dividend yield, or NaN if there were no trades
+	 */
+	public double calculateLiveDividendYield(String ticker);
+	/**
+	 * Calculates the P/E ratio of a stock at its last traded price
+	 * @param ticker the ticker of the stock
+	 * @return the P/E ratio, or NaN if there were no trades
+	 */
+	public double calculateLivePERatio(String ticker);
+	/**
+	 * Gets the stocks with the most shares traded in the last 15 minutes (at
+	 * a 30 second resolution), estimated in bounded memory. At most 128 stocks
+	 * are tracked per 30 second period and DWH partition; any stock with more
+	 * than 1/128 of the volume of its partition in a period is tracked, and
+	 * the volume of a tracked stock can be overestimated but never below the
+	 * real one
+	 * @param count the maximum amount of stocks
+	 * @return the traded volume by ticker, from the most traded
+	 */
+	public Map<String, Long> getMostTraded(int count);
+	/**
+	 * Estimates a quantile of the prices a stock traded at today (UTC), each
+	 * trade counted once; the estimate is within 0.5% of the exact price of
+	 * the trade at rank floor(quantile * (trades - 1)) in price order
+	 * @param ticker the ticker of the stock
+	 * @param quantile from 0 for the lowest price to 1 for the highest, e.g. 0.5 for the median
+	 * @return the price, or NaN if there were no trades today
+	 * @throws IllegalArgumentException if the quantile is not between 0 and 1
+	 */
+	public double calculatePriceQuantile(String ticker, double quantile);
+	/**
+	 * Copies the most recent OHLCV bars of a stock, oldest first; periods
+	 * without trades have no bar
+	 * @param ticker the ticker of the stock
+	 * @param resolution the length of the bars
+	 * @param count the maximum amount of bars, up to the capacity of the holder
+	 * @param bars reusable holder the bars are copied to, replacing its content
+	 * @return the amount of bars copied
+	 */
+	public int getBars(String ticker, BarResolution resolution, int count, Bars bars);
+	/**
+	 * Gets the amount of trades notified since the service started
+	 * @return the amount of notified trades
+	 */
+	public long getNotifiedTrades();
+	/**
+	 * Gets the amount of notified trades that are already included in the
+	 * calculations; the difference with the notified ones is the backlog
+	 * @return the amount of applied trades
+	 */
+	public long getAppliedTrades();
 }
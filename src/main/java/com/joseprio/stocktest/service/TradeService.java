@@ -1,6 +1,7 @@
 package com.joseprio.stocktest.service;
 
 import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.TradeBatch;
 
 /**
  * This service handles trading operations
@@ -21,4 +22,12 @@ public interface TradeService {
 			OperationType type, 
 			double pricePerShare);
 	
+	/**
+	 * This method registers all the valid trades of a batch at once; the
+	 * trades that are not valid are marked in the batch and skipped
+	 * @param batch the trades to register
+	 * @return the amount of trades registered
+	 */
+	public int recordTrades(TradeBatch batch);
+	
 }
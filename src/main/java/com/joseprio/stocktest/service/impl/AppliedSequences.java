@@ -0,0 +1,170 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps track of which trades of the trade store, by sequence, are already
+ * part of the DWH aggregates, so a snapshot can be tagged with a consistent
+ * cut while trades keep coming in: every sequence below the cut, plus the
+ * few after it that the workers applied out of order. Marking a sequence is
+ * a single atomic bit operation on a window that starts at the cut; the
+ * sequences too far ahead of it go to an overflow set.
+ */
+class AppliedSequences {
+	final private static int WINDOW = 1 << 22;
+
+	private final AtomicLongArray mBits = new AtomicLongArray(WINDOW >>> 6);
+	private final Set<Long> mOverflow = ConcurrentHashMap.newKeySet();
+	// Every sequence below this one is marked
+	private volatile long mCut = 0;
+
+	/**
+	 * Marks a trade as applied; any thread can call it, but each sequence
+	 * only once
+	 * @param sequence the sequence of the trade, ignored if negative
+	 */
+	void mark(long sequence) {
+		if (sequence < 0) {
+			// Not in the trade store
+			return;
+		}
+
+		if (sequence - mCut >= WINDOW) {
+			mOverflow.add(sequence);
+			return;
+		}
+
+		int bit = (int)sequence & (WINDOW - 1);
+		mBits.getAndAccumulate(bit >>> 6, 1L << bit, (current, mask) -> current | mask);
+	}
+
+	/**
+	 * Moves the cut up to the first sequence that is not marked yet. Only
+	 * one thread can call it at a time.
+	 * @return the new cut
+	 */
+	long advance() {
+		long start = mCut;
+
+		// Sequences marked while the cut was further behind
+		for (Iterator<Long> it = mOverflow.iterator(); it.hasNext();) {
+			long sequence = it.next();
+			if (sequence - start < WINDOW) {
+				it.remove();
+				mark(sequence);
+			}
+		}
+
+		long cut = start;
+		while (true) {
+			if (cut - start < WINDOW) {
+				int bit = (int)cut & (WINDOW - 1);
+				int free = 64 - (bit & 63);
+				int marked = Long.numberOfTrailingZeros(~(mBits.get(bit >>> 6) >>> bit));
+				cut += Math.min(marked, free);
+				if (marked < free) {
+					break;
+				}
+			} else if (mOverflow.remove(cut)) {
+				cut++;
+			} else {
+				break;
+			}
+		}
+
+		// Clear the bits below the new cut before moving it, so they can be
+		// reused by the sequences at the end of the window
+		for (long sequence = start; sequence < cut && sequence - start < WINDOW;) {
+			int bit = (int)sequence & (WINDOW - 1);
+			int count = (int)Math.min(64 - (bit & 63), cut - sequence);
+			long mask = ((count == 64) ? -1L : (1L << count) - 1) << bit;
+			mBits.getAndAccumulate(bit >>> 6, ~mask, (current, keep) -> current & keep);
+			sequence += count;
+		}
+		mCut = cut;
+
+		return cut;
+	}
+
+	/**
+	 * Gets the cut, as of the last call to advance
+	 * @return the first sequence that might not be marked
+	 */
+	long getCut() {
+		return mCut;
+	}
+
+	/**
+	 * Gets the marked sequences after the cut
+	 * @return the sequences, sorted
+	 */
+	long[] getMarkedAfterCut() {
+		long cut = mCut;
+		long[] marked = new long[16];
+		int count = 0;
+
+		for (int word = 0; word < mBits.length(); word++) {
+			long bits = mBits.get(word);
+			while (bits != 0) {
+				int bit = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				if (count == marked.length) {
+					marked = Arrays.copyOf(marked, count * 2);
+				}
+				// The window wraps around at the cut
+				marked[count++] = cut + ((bit - cut) & (WINDOW - 1));
+			}
+		}
+		for (long sequence : mOverflow) {
+			if (sequence >= cut) {
+				if (count == marked.length) {
+					marked = Arrays.copyOf(marked, count * 2);
+				}
+				marked[count++] = sequence;
+			}
+		}
+
+		marked = Arrays.copyOf(marked, count);
+		Arrays.sort(marked);
+		return marked;
+	}
+
+	/**
+	 * Tells whether a trade is marked
+	 * @param sequence the sequence of the trade
+	 * @return true if it's marked
+	 */
+	boolean isMarked(long sequence) {
+		long cut = mCut;
+
+		if (sequence < cut) {
+			return true;
+		} else if (sequence - cut >= WINDOW) {
+			return mOverflow.contains(sequence);
+		}
+
+		int bit = (int)sequence & (WINDOW - 1);
+		return (mBits.get(bit >>> 6) & (1L << bit)) != 0 || mOverflow.contains(sequence);
+	}
+
+	/**
+	 * Starts over from a restored cut; no sequence can be marked meanwhile
+	 * @param cut every sequence below this one is marked
+	 * @param marked the sequences after the cut that are marked
+	 */
+	void reset(long cut, long[] marked) {
+		for (int word = 0; word < mBits.length(); word++) {
+			mBits.set(word, 0);
+		}
+		mOverflow.clear();
+		mCut = cut;
+
+		for (long sequence : marked) {
+			mark(sequence);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.joseprio.stocktest.model.Bars;
+
+/**
+ * OHLCV bars of a single length, in a ring of primitive arrays indexed by
+ * period; each trade updates the bar of its period in constant time, and
+ * periods older than the ring are dropped. Periods without trades have no
+ * bar. Not thread safe, see {@link StockBars}.
+ */
+class BarRing {
+	private final long mMillis;
+	// Period held by each slot, -1 if none
+	private final long[] mPeriods;
+	private final double[] mOpens;
+	private final double[] mHighs;
+	private final double[] mLows;
+	private final double[] mCloses;
+	private final long[] mVolumes;
+	private final int[] mTrades;
+	// Timestamps of the trades that set the open and close, so late trades
+	// don't replace them
+	private final long[] mOpenTimes;
+	private final long[] mCloseTimes;
+	private long mHeadPeriod = -1;
+
+	/**
+	 * Creates an empty ring
+	 * @param millis the length of each bar
+	 * @param periods how many periods are kept
+	 */
+	BarRing(long millis, int periods) {
+		mMillis = millis;
+		mPeriods = new long[periods];
+		mOpens = new double[periods];
+		mHighs = new double[periods];
+		mLows = new double[periods];
+		mCloses = new double[periods];
+		mVolumes = new long[periods];
+		mTrades = new int[periods];
+		mOpenTimes = new long[periods];
+		mCloseTimes = new long[periods];
+		Arrays.fill(mPeriods, -1);
+	}
+
+	/**
+	 * Adds a trade to the bar of its period
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param price the price per share
+	 */
+	void add(long timestamp, long quantity, double price) {
+		long period = timestamp / mMillis;
+
+		if (period <= mHeadPeriod - mPeriods.length) {
+			// Older than the ring
+			return;
+		}
+
+		int slot = slot(period);
+		if (mPeriods[slot] != period) {
+			mPeriods[slot] = period;
+			mOpens[slot] = price;
+			mHighs[slot] = price;
+			mLows[slot] = price;
+			mCloses[slot] = price;
+			mVolumes[slot] = quantity;
+			mTrades[slot] = 1;
+			mOpenTimes[slot] = timestamp;
+			mCloseTimes[slot] = timestamp;
+		} else {
+			if (price > mHighs[slot]) {
+				mHighs[slot] = price;
+			}
+			if (price < mLows[slot]) {
+				mLows[slot] = price;
+			}
+			if (timestamp < mOpenTimes[slot]) {
+				mOpens[slot] = price;
+				mOpenTimes[slot] = timestamp;
+			}
+			if (timestamp >= mCloseTimes[slot]) {
+				mCloses[slot] = price;
+				mCloseTimes[slot] = timestamp;
+			}
+			mVolumes[slot] += quantity;
+			mTrades[slot]++;
+		}
+
+		if (period > mHeadPeriod) {
+			mHeadPeriod = period;
+		}
+	}
+
+	/**
+	 * Copies the most recent bars, oldest first
+	 * @param count the maximum amount of bars
+	 * @param bars the holder to copy them to; it's cleared first
+	 * @return the amount of bars copied
+	 */
+	int copyLast(int count, Bars bars) {
+		long head = mHeadPeriod;
+		long first = head + 1;
+		int found = 0;
+
+		bars.clear();
+		count = Math.min(count, bars.getCapacity());
+
+		// Look for the oldest bar to copy, then copy forward
+		for (long period = head; period >= 0 && period > head - mPeriods.length && found < count; period--) {
+			if (mPeriods[slot(period)] == period) {
+				first = period;
+				found++;
+			}
+		}
+		for (long period = first; period <= head && !bars.isFull(); period++) {
+			int slot = slot(period);
+			if (mPeriods[slot] == period) {
+				bars.add(period * mMillis, mOpens[slot], mHighs[slot], mLows[slot], mCloses[slot],
+						mVolumes[slot], mTrades[slot]);
+			}
+		}
+
+		return bars.size();
+	}
+
+	/**
+	 * Writes the live bars
+	 * @param out the output
+	 * @throws IOException if the bars cannot be written
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		int live = 0;
+
+		for (long period : mPeriods) {
+			if (isLive(period)) {
+				live++;
+			}
+		}
+
+		out.writeLong(mHeadPeriod);
+		out.writeInt(live);
+		for (int slot = 0; slot < mPeriods.length; slot++) {
+			if (isLive(mPeriods[slot])) {
+				out.writeLong(mPeriods[slot]);
+				out.writeDouble(mOpens[slot]);
+				out.writeDouble(mHighs[slot]);
+				out.writeDouble(mLows[slot]);
+				out.writeDouble(mCloses[slot]);
+				out.writeLong(mVolumes[slot]);
+				out.writeInt(mTrades[slot]);
+				out.writeLong(mOpenTimes[slot]);
+				out.writeLong(mCloseTimes[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the bars with the ones written by {@link #writeTo(DataOutput)}
+	 * @param in the input
+	 * @throws IOException if the bars cannot be read
+	 */
+	void readFrom(DataInput in) throws IOException {
+		Arrays.fill(mPeriods, -1);
+		mHeadPeriod = in.readLong();
+
+		int live = in.readInt();
+		for (int i = 0; i < live; i++) {
+			long period = in.readLong();
+			if (!isLive(period)) {
+				throw new IOException("Bar out of the ring");
+			}
+
+			int slot = slot(period);
+			mPeriods[slot] = period;
+			mOpens[slot] = in.readDouble();
+			mHighs[slot] = in.readDouble();
+			mLows[slot] = in.readDouble();
+			mCloses[slot] = in.readDouble();
+			mVolumes[slot] = in.readLong();
+			mTrades[slot] = in.readInt();
+			mOpenTimes[slot] = in.readLong();
+			mCloseTimes[slot] = in.readLong();
+		}
+	}
+
+	private boolean isLive(long period) {
+		return period >= 0 && period <= mHeadPeriod && period > mHeadPeriod - mPeriods.length;
+	}
+
+	private int slot(long period) {
+		return (int)(period % mPeriods.length);
+	}
+}
@@ -0,0 +1,33 @@
+package com.joseprio.stocktest.service.impl;
+
+/**
+ * Result of a DWH query, together with the write epoch and the volume window
+ * bucket it was calculated for; it can be returned again as long as neither
+ * changed. Immutable, so it can be published through a volatile field.
+ */
+final class CachedResult {
+	private final long mEpoch;
+	private final long mBucket;
+	private final double mValue;
+
+	CachedResult(long epoch, long bucket, double value) {
+		mEpoch = epoch;
+		mBucket = bucket;
+		mValue = value;
+	}
+
+	/**
+	 * Tells whether the result is still current
+	 * @param cached the cached result, can be null
+	 * @param epoch the current write epoch
+	 * @param bucket the current bucket
+	 * @return true if the cached result can be used
+	 */
+	static boolean isValid(CachedResult cached, long epoch, long bucket) {
+		return cached != null && cached.mEpoch == epoch && cached.mBucket == bucket;
+	}
+
+	double getValue() {
+		return mValue;
+	}
+}
@@ -1,149 +1,1705 @@
 package com.joseprio.stocktest.service.impl;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
 
+import com.joseprio.stocktest.common.BarResolution;
+import com.joseprio.stocktest.common.Constants;
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.common.OverloadPolicy;
+import com.joseprio.stocktest.metrics.Counter;
+import com.joseprio.stocktest.metrics.Histogram;
+import com.joseprio.stocktest.metrics.MetricsRegistry;
+import com.joseprio.stocktest.model.Bars;
+import com.joseprio.stocktest.model.LastTrade;
 import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.model.TradeBatch;
 import com.joseprio.stocktest.model.TradeRecord;
+import com.joseprio.stocktest.model.TradeStore;
 import com.joseprio.stocktest.service.DWHService;
 import com.joseprio.stocktest.service.TimeProviderFactory;
 
 /**
- * Implementation of DWHService
+ * Implementation of DWHService. The stocks are split in partitions by id,
+ * each with its own queue and worker thread, so the trades of a stock are
+ * always applied in order by the same thread and the workers never contend
+ * on the same aggregates. Market wide results (volume weighted price, share
+ * index, watermark counters) are kept per partition and merged when queried;
+ * the watermark of each partition only advances with its own trades.
  */
 public class DWHServiceImpl implements DWHService {
-	final private static long VOLUME_CACHE_EXPIRY_MILLIS = 15 * 60 * 1000; // 15 minutes
+	final private static long VOLUME_WINDOW_MILLIS = 15 * 60 * 1000; // 15 minutes
+	final private static long VOLUME_BUCKET_MILLIS = 1000; // 1 second resolution
+	final private static long HEAVY_HITTERS_PERIOD_MILLIS = 30 * 1000;
+	final private static int HEAVY_HITTERS_CAPACITY = 128;
+	final private static int RING_CAPACITY = 1 << 16;
+	final private static int MAX_PARTITIONS = 64;
+	final private static long SNAPSHOT_INTERVAL = 1 << 20; // trades between snapshots
+	final private static String SNAPSHOT_FILE = "dwh.snapshot";
+	final private static int SNAPSHOT_MAGIC = 0x44574853; // DWHS
+	final private static int SNAPSHOT_VERSION = 7;
+	// Snapshots older than this version are read without bars
+	final private static int SNAPSHOT_BARS_VERSION = 2;
+	// Snapshots older than this version only include the trades up to their sequence
+	final private static int SNAPSHOT_CUT_VERSION = 3;
+	// Snapshots from this version up to the current one hold the time indexes, which are skipped
+	final private static int SNAPSHOT_INDEX_VERSION = 4;
+	// Snapshots older than this version have the price sketches rebuilt from the trade store
+	final private static int SNAPSHOT_SKETCH_VERSION = 5;
+	// Snapshots older than this version have the last trades rebuilt from the trade store
+	final private static int SNAPSHOT_LAST_TRADE_VERSION = 6;
 
-	private static ConcurrentLinkedQueue<VolumeRecord> volumeCache = new ConcurrentLinkedQueue<VolumeRecord>();
-	private static ConcurrentHashMap<String,StockPriceAverage> priceAverages = new ConcurrentHashMap<String,StockPriceAverage>();
+	// Per stock state, indexed by stock id; the arrays are replaced when
+	// they grow, always filled in, so readers never see a missing entry.
+	// Each stock is only written by the worker of its partition.
+	private volatile VolumeWindow[] volumeWindows = new VolumeWindow[0];
+	private volatile StockPriceAverage[] priceAverages = new StockPriceAverage[0];
+	// Created on the first trade of each stock, they take some room
+	private volatile StockBars[] stockBars = new StockBars[0];
+	private volatile TradeIndex[] tradeIndexes = new TradeIndex[0];
+	private volatile PriceSketch[] priceSketches = new PriceSketch[0];
+	private volatile LastTradeSlot[] lastTrades = new LastTradeSlot[0];
+	// The time indexes grow with the history, so they are not part of the
+	// snapshots; after a restore they are rebuilt from the trade store in the
+	// background, the workers hold their entries back and range queries wait
+	private volatile boolean indexesRebuilding = false;
+	private volatile CountDownLatch indexRebuild = new CountDownLatch(0);
+	// A stock belongs to the partition at its id modulo the partition count
+	private final Partition[] partitions;
+	private final ShareIndex[] shareIndexes;
 
-	static {
-		// Initialize stock price averages with existing tickers
-		for (Stock s : Stock.all()) {
-			priceAverages.put(s.getTicker(), new StockPriceAverage());
+	// Query results are cached until the workers apply new trades (or the
+	// volume windows move on); the global epoch advances with every change,
+	// each stock also has its own
+	private final AtomicLong epoch = new AtomicLong(0);
+	private volatile CachedResult shareIndexCache = null;
+	private volatile CachedResult volumeWeightedCache = null;
+
+	// Snapshots are captured while every worker waits at the barrier and
+	// written to disk by a thread of their own, one at a time; they record
+	// which stored trades they include, tracked from the first restore
+	private volatile File snapshotDirectory = null;
+	private final AppliedSequences appliedSequences = new AppliedSequences();
+	private volatile long lastSnapshot = 0;
+	private final AtomicBoolean snapshotRequested = new AtomicBoolean(false);
+	private final AtomicBoolean snapshotWriting = new AtomicBoolean(false);
+	private final CyclicBarrier snapshotBarrier;
+
+	// What to do with the trades that don't fit in the queues
+	private volatile OverloadPolicy overloadPolicy = initialOverloadPolicy();
+	private final LongAdder shedTrades = new LongAdder();
+	private final LongAdder coalescedTrades = new LongAdder();
+	// Trades that failed to apply; still marked as applied, so snapshots go on
+	private final LongAdder failedTrades = new LongAdder();
+
+	// Metrics, looked up once
+	private final Histogram batchSizes;
+	private final Histogram batchNanos;
+	private final Histogram shareIndexNanos;
+	private final Histogram snapshotNanos;
+	private final Histogram snapshotWriteNanos;
+	private final Counter volumeWeightedQueries;
+	private final Counter shareIndexQueries;
+	private final Counter recomputedQueries;
+
+	/**
+	 * Creates the service with the configured amount of partitions, starts
+	 * the DWH threads and registers the metrics
+	 */
+	public DWHServiceImpl() {
+		this(initialPartitionCount());
+	}
+
+	/**
+	 * Creates the service, starts the DWH threads and registers the metrics
+	 * @param partitionCount the amount of partitions, each with its own thread
+	 */
+	DWHServiceImpl(int partitionCount) {
+		if (partitionCount < 1 || partitionCount > MAX_PARTITIONS) {
+			throw new IllegalArgumentException("The amount of partitions has to be between 1 and " + MAX_PARTITIONS);
+		}
+
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+
+		batchSizes = metrics.histogram("dwh.batch.size");
+		batchNanos = metrics.histogram("dwh.batch.nanos");
+		shareIndexNanos = metrics.histogram("dwh.shareIndex.update.nanos");
+		snapshotNanos = metrics.histogram("dwh.snapshot.nanos");
+		snapshotWriteNanos = metrics.histogram("dwh.snapshot.write.nanos");
+		volumeWeightedQueries = metrics.counter("dwh.queries.volumeWeighted");
+		shareIndexQueries = metrics.counter("dwh.queries.shareIndex");
+		recomputedQueries = metrics.counter("dwh.queries.recomputed");
+
+		// Initialize stock price averages and volume windows with existing tickers
+		ensureCapacity(Stock.count());
+
+		snapshotBarrier = new CyclicBarrier(partitionCount, this::takeSnapshot);
+		partitions = new Partition[partitionCount];
+		shareIndexes = new ShareIndex[partitionCount];
+		for (int i = 0; i < partitionCount; i++) {
+			partitions[i] = new Partition(i);
+			shareIndexes[i] = partitions[i].mShareIndex;
+		}
+		// Started last, the workers use all the other fields
+		for (Partition partition : partitions) {
+			partition.start();
+		}
+
+		metrics.gauge("dwh.partitions", () -> partitions.length);
+		metrics.gauge("dwh.trades.notified", this::getNotifiedTrades);
+		metrics.gauge("dwh.trades.applied", this::getAppliedTrades);
+		metrics.gauge("dwh.ring.backlog", this::getQueueOccupancy);
+		metrics.gauge("dwh.ring.capacity", this::getQueueCapacity);
+		metrics.gauge("dwh.overload.shed", this::getShedTradeCount);
+		metrics.gauge("dwh.overload.coalesced", this::getCoalescedTradeCount);
+		metrics.gauge("dwh.trades.failed", this::getFailedTradeCount);
+		metrics.gauge("dwh.overload.pending", () -> {
+			long pending = 0;
+			for (Partition partition : partitions) {
+				pending += partition.mCoalescer.getPending();
+			}
+			return pending;
+		});
+		// How far the calculations are behind the trade store
+		metrics.gauge("dwh.store.lag", () -> TradeRecord.getStore().size() - getAggregatedTrades());
+		metrics.gauge("dwh.stocks", () -> priceAverages.length);
+		metrics.gauge("dwh.watermark.late", this::getLateTradeCount);
+		metrics.gauge("dwh.watermark.dropped", this::getDroppedTradeCount);
+		metrics.gauge("dwh.watermark.maxLateness", this::getMaxLateness);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#notifyTrade(com.joseprio.stocktest.model.TradeRecord)
+	 */
+	public void notifyTrade(TradeRecord record) {
+		notifyTrade(record.getStock(),
+				record.getTimestamp(),
+				record.getQuantity(),
+				record.getType(),
+				record.getPricePerShare());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#notifyTrade(com.joseprio.stocktest.model.Stock, long, long, com.joseprio.stocktest.common.OperationType, double)
+	 */
+	public void notifyTrade(Stock stock, long timestamp, long quantity, OperationType type, double pricePerShare) {
+		notifyTrade(stock, timestamp, quantity, type, pricePerShare, -1);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#notifyTrade(com.joseprio.stocktest.model.Stock, long, long, com.joseprio.stocktest.common.OperationType, double, long)
+	 */
+	public void notifyTrade(Stock stock, long timestamp, long quantity, OperationType type, double pricePerShare, long sequence) {
+		OverloadPolicy policy = overloadPolicy;
+		Partition partition = partitions[stock.getId() % partitions.length];
+		
+		// Hand it over to the DWH thread so we don't hold the trade
+		if (policy == OverloadPolicy.BLOCK) {
+			partition.mRing.publish(stock, timestamp, quantity, type, pricePerShare, sequence);
+		} else if (!partition.mRing.tryPublish(stock, timestamp, quantity, type, pricePerShare, sequence)) {
+			// Overloaded
+			if (policy == OverloadPolicy.SHED) {
+				// Will never be applied, so it's done as far as snapshots go
+				shedTrades.increment();
+				markApplied(sequence);
+			} else {
+				// A snapshot cannot be taken between merging the trade and marking it
+				long stamp = partition.mCoalescerLock.readLock();
+				try {
+					partition.mCoalescer.add(stock, timestamp, quantity, pricePerShare * quantity);
+					markApplied(sequence);
+				} finally {
+					partition.mCoalescerLock.unlockRead(stamp);
+				}
+				coalescedTrades.increment();
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#notifyTrades(com.joseprio.stocktest.model.TradeBatch)
+	 */
+	public void notifyTrades(TradeBatch batch) {
+		notifyTrades(batch, -1);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#notifyTrades(com.joseprio.stocktest.model.TradeBatch, long)
+	 */
+	public void notifyTrades(TradeBatch batch, long firstSequence) {
+		if (overloadPolicy == OverloadPolicy.BLOCK) {
+			for (int i = 0; i < partitions.length; i++) {
+				partitions[i].mRing.publish(batch, i, partitions.length, firstSequence);
+			}
+			return;
+		}
+		
+		// The overload policy is applied trade by trade
+		long sequence = firstSequence;
+		for (int row = 0; row < batch.size(); row++) {
+			if (!batch.isRejected(row)) {
+				notifyTrade(batch.getStock(row), batch.getTimestamp(row), batch.getQuantity(row),
+						batch.getType(row), batch.getPricePerShare(row), sequence);
+				if (sequence >= 0) {
+					sequence++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records that a stored trade is part of the aggregates, or will never be
+	 */
+	private void markApplied(long sequence) {
+		// Only needed for the snapshots
+		if (snapshotDirectory != null) {
+			appliedSequences.mark(sequence);
+		}
+	}
+
+	/**
+	 * Tells whether a stored trade is already part of the aggregates; after
+	 * restoring a snapshot, the trades after its sequence that are not have
+	 * to be notified again
+	 * @param sequence the row of the trade in the trade store
+	 * @return true if it's part of the aggregates
+	 */
+	boolean isApplied(long sequence) {
+		return appliedSequences.isMarked(sequence);
+	}
+	
+	/**
+	 * Sets what to do with the trades notified while the DWH queue is full
+	 * @param policy the overload policy
+	 */
+	public void setOverloadPolicy(OverloadPolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("The overload policy cannot be null");
+		}
+		
+		overloadPolicy = policy;
+	}
+	
+	public OverloadPolicy getOverloadPolicy() {
+		return overloadPolicy;
+	}
+	
+	/**
+	 * Gets the amount of trades left out of the calculations because the
+	 * DWH queue was full
+	 * @return the amount of shed trades
+	 */
+	public long getShedTradeCount() {
+		return shedTrades.sum();
+	}
+	
+	/**
+	 * Gets the amount of trades that were merged with others because the
+	 * DWH queue was full
+	 * @return the amount of coalesced trades
+	 */
+	public long getCoalescedTradeCount() {
+		return coalescedTrades.sum();
+	}
+	
+	/**
+	 * Gets the amount of trades left out of the calculations because
+	 * applying them failed
+	 * @return the amount of failed trades
+	 */
+	public long getFailedTradeCount() {
+		return failedTrades.sum();
+	}
+	
+	/**
+	 * Gets the amount of partitions the stocks are split in
+	 * @return the amount of partitions
+	 */
+	public int getPartitionCount() {
+		return partitions.length;
+	}
+	
+	/**
+	 * Gets the amount of trades waiting in the DWH queues
+	 * @return the amount of trades
+	 */
+	public long getQueueOccupancy() {
+		return getNotifiedTrades() - getAppliedTrades();
+	}
+	
+	/**
+	 * Gets the amount of trades the DWH queues can hold
+	 * @return the capacity
+	 */
+	public int getQueueCapacity() {
+		int capacity = 0;
+		for (Partition partition : partitions) {
+			capacity += partition.mRing.getCapacity();
+		}
+		return capacity;
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#getNotifiedTrades()
+	 */
+	public long getNotifiedTrades() {
+		long notified = 0;
+		for (Partition partition : partitions) {
+			notified += partition.mRing.getPublished();
+		}
+		return notified;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#getAppliedTrades()
+	 */
+	public long getAppliedTrades() {
+		long applied = 0;
+		for (Partition partition : partitions) {
+			applied += partition.mRing.getConsumed();
+		}
+		return applied;
+	}
+
+	/**
+	 * Waits until all the trades notified so far have been processed
+	 */
+	void flush() {
+		for (Partition partition : partitions) {
+			partition.mRing.flush();
+		}
+		
+		// Coalesced trades are applied when the DWH threads are idle
+		for (Partition partition : partitions) {
+			while (partition.mCoalescer.hasPending()) {
+				LockSupport.parkNanos(1000);
+			}
+		}
+	}
+
+	/**
+	 * Sets how far behind the newest trade timestamp a trade can arrive and
+	 * still be added to the volume windows; this resets the lateness counters
+	 * @param allowedLatenessMillis the allowed lateness, up to 15 minutes
+	 */
+	public void setAllowedLateness(long allowedLatenessMillis) {
+		if (allowedLatenessMillis < 0 || allowedLatenessMillis > VOLUME_WINDOW_MILLIS) {
+			throw new IllegalArgumentException("The allowed lateness has to be between 0 and the window length");
+		}
+
+		for (Partition partition : partitions) {
+			partition.mWatermark.setAllowedLateness(allowedLatenessMillis);
+		}
+	}
+
+	/**
+	 * Gets the allowed lateness
+	 * @return the allowed lateness in milliseconds
+	 */
+	public long getAllowedLateness() {
+		return partitions[0].mWatermark.getAllowedLateness();
+	}
+
+	/**
+	 * Gets the event time watermark; trades older than it are not added to
+	 * the volume windows. Each partition keeps its own, this is the most
+	 * advanced one.
+	 * @return the watermark timestamp
+	 */
+	public long getWatermark() {
+		long watermark = Long.MIN_VALUE;
+		for (Partition partition : partitions) {
+			watermark = Math.max(watermark, partition.mWatermark.get());
+		}
+		return watermark;
+	}
+
+	/**
+	 * Gets the amount of trades that arrived out of order but within the
+	 * allowed lateness
+	 * @return the accepted late trades
+	 */
+	public long getLateTradeCount() {
+		long late = 0;
+		for (Partition partition : partitions) {
+			late += partition.mWatermark.getLateTrades();
+		}
+		return late;
+	}
+
+	/**
+	 * Gets the amount of trades that arrived behind the watermark and were
+	 * left out of the volume windows
+	 * @return the dropped trades
+	 */
+	public long getDroppedTradeCount() {
+		long dropped = 0;
+		for (Partition partition : partitions) {
+			dropped += partition.mWatermark.getDroppedTrades();
+		}
+		return dropped;
+	}
+
+	/**
+	 * Gets the highest lateness seen, useful to tune the allowed lateness
+	 * @return the highest lateness in milliseconds
+	 */
+	public long getMaxLateness() {
+		long maxLateness = 0;
+		for (Partition partition : partitions) {
+			maxLateness = Math.max(maxLateness, partition.mWatermark.getMaxLateness());
+		}
+		return maxLateness;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#calculateVolumeWeighted()
+	 */
+	public double calculateVolumeWeighted() {
+		volumeWeightedQueries.increment();
+		// Read the epoch first, so a change made while calculating makes the result stale
+		long currentEpoch = epoch.get();
+		long now = TimeProviderFactory.getInstance().currentTimeMillis();
+		long bucket = now / VOLUME_BUCKET_MILLIS;
+		CachedResult cached = volumeWeightedCache;
+
+		if (CachedResult.isValid(cached, currentEpoch, bucket)) {
+			return cached.getValue();
+		}
+
+		recomputedQueries.increment();
+		VolumeWindow.Totals totals = new VolumeWindow.Totals();
+		for (Partition partition : partitions) {
+			partition.mMarketVolume.addTotalsTo(now, totals);
+		}
+
+		double volumeWeighted = totals.getVolumeWeighted();
+		volumeWeightedCache = new CachedResult(currentEpoch, bucket, volumeWeighted);
+		return volumeWeighted;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#calculateVolumeWeighted(java.lang.String)
+	 */
+	public double calculateVolumeWeighted(String ticker) {
+		volumeWeightedQueries.increment();
+		Stock stock = Stock.byTicker(ticker);
+		StockPriceAverage[] averages = priceAverages;
+		VolumeWindow[] windows = volumeWindows;
+
+		if (stock == null || stock.getId() >= windows.length || stock.getId() >= averages.length) {
+			// No trades for this ticker
+			return Double.NaN;
+		}
+
+		StockPriceAverage spa = averages[stock.getId()];
+		long stockEpoch = spa.getEpoch();
+		long now = TimeProviderFactory.getInstance().currentTimeMillis();
+		long bucket = now / VOLUME_BUCKET_MILLIS;
+		CachedResult cached = spa.getCachedVolumeWeighted();
+
+		if (CachedResult.isValid(cached, stockEpoch, bucket)) {
+			return cached.getValue();
+		}
+
+		recomputedQueries.increment();
+		double volumeWeighted = windows[stock.getId()].getVolumeWeighted(now);
+		spa.setCachedVolumeWeighted(new CachedResult(stockEpoch, bucket, volumeWeighted));
+		return volumeWeighted;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#calculateVolumeWeighted(java.lang.String, long, long)
+	 */
+	public double calculateVolumeWeighted(String ticker, long from, long to) {
+		volumeWeightedQueries.increment();
+		TradeIndex.Range range = sumRange(ticker, from, to);
+
+		return (range == null) ? Double.NaN : range.getVolumeWeighted();
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#getVolume(java.lang.String, long, long)
+	 */
+	public long getVolume(String ticker, long from, long to) {
+		TradeIndex.Range range = sumRange(ticker, from, to);
+
+		return (range == null) ? 0 : range.mQuantity;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#getTradeCount(java.lang.String, long, long)
+	 */
+	public long getTradeCount(String ticker, long from, long to) {
+		TradeIndex.Range range = sumRange(ticker, from, to);
+
+		return (range == null) ? 0 : range.mTrades;
+	}
+
+	/**
+	 * Adds up the trades of a stock in a time range through its index
+	 * @return the totals, or null if the stock has no trades
+	 */
+	private TradeIndex.Range sumRange(String ticker, long from, long to) {
+		Stock stock = Stock.byTicker(ticker);
+
+		try {
+			indexRebuild.await();
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+		}
+
+		TradeIndex[] indexes = tradeIndexes;
+
+		if (stock == null || stock.getId() >= indexes.length || indexes[stock.getId()] == null) {
+			return null;
+		}
+
+		TradeIndex.Range range = new TradeIndex.Range();
+		indexes[stock.getId()].sum(from, to, range);
+		return range;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#getLastTrade(java.lang.String, com.joseprio.stocktest.model.LastTrade)
+	 */
+	public boolean getLastTrade(String ticker, LastTrade lastTrade) {
+		LastTradeSlot slot = lastTradeSlot(Stock.byTicker(ticker));
+
+		return slot != null && slot.copyTo(lastTrade);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#calculateLiveDividendYield(java.lang.String)
+	 */
+	public double calculateLiveDividendYield(String ticker) {
+		Stock stock = Stock.byTicker(ticker);
+		LastTradeSlot slot = lastTradeSlot(stock);
+
+		return (slot == null) ? Double.NaN : stock.calculateDividendYield(slot.getPricePerShare());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#calculateLivePERatio(java.lang.String)
+	 */
+	public double calculateLivePERatio(String ticker) {
+		Stock stock = Stock.byTicker(ticker);
+		LastTradeSlot slot = lastTradeSlot(stock);
+
+		return (slot == null) ? Double.NaN : stock.calculatePERatio(slot.getPricePerShare());
+	}
+
+	/**
+	 * Gets the last trade slot of a stock
+	 * @return the slot, or null if the stock has no trades
+	 */
+	private LastTradeSlot lastTradeSlot(Stock stock) {
+		LastTradeSlot[] slots = lastTrades;
+
+		if (stock == null || stock.getId() >= slots.length) {
+			return null;
+		}
+
+		return slots[stock.getId()];
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#getMostTraded(int)
+	 */
+	public Map<String, Long> getMostTraded(int count) {
+		long now = TimeProviderFactory.getInstance().currentTimeMillis();
+		HashMap<Integer, Long> volumes = new HashMap<Integer, Long>();
+
+		// Each stock is tracked by a single partition
+		for (Partition partition : partitions) {
+			partition.mHeavyHitters.addVolumesTo(now, volumes);
+		}
+
+		ArrayList<Map.Entry<Integer, Long>> entries = new ArrayList<Map.Entry<Integer, Long>>(volumes.entrySet());
+		entries.sort((a, b) -> (a.getValue().equals(b.getValue()))
+				? a.getKey().compareTo(b.getKey())
+				: b.getValue().compareTo(a.getValue()));
+
+		LinkedHashMap<String, Long> mostTraded = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < count && i < entries.size(); i++) {
+			mostTraded.put(Stock.byId(entries.get(i).getKey()).getTicker(), entries.get(i).getValue());
+		}
+		return mostTraded;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#calculatePriceQuantile(java.lang.String, double)
+	 */
+	public double calculatePriceQuantile(String ticker, double quantile) {
+		if (!(quantile >= 0.0 && quantile <= 1.0)) {
+			throw new IllegalArgumentException("The quantile has to be between 0 and 1");
+		}
+
+		Stock stock = Stock.byTicker(ticker);
+		PriceSketch[] sketches = priceSketches;
+
+		if (stock == null || stock.getId() >= sketches.length || sketches[stock.getId()] == null) {
+			return Double.NaN;
+		}
+
+		return sketches[stock.getId()].getQuantile(quantile, TimeProviderFactory.getInstance().currentTimeMillis());
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#getBars(java.lang.String, com.joseprio.stocktest.common.BarResolution, int, com.joseprio.stocktest.model.Bars)
+	 */
+	public int getBars(String ticker, BarResolution resolution, int count, Bars bars) {
+		Stock stock = Stock.byTicker(ticker);
+		StockBars[] all = stockBars;
+
+		if (stock == null || stock.getId() >= all.length || all[stock.getId()] == null) {
+			// No trades for this ticker
+			bars.clear();
+			return 0;
+		}
+
+		return all[stock.getId()].copyLast(resolution, count, bars);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.DWHService#calculateShareIndex()
+	 */
+	public double calculateShareIndex() {
+		// Each partition keeps its share up to date
+		shareIndexQueries.increment();
+		long currentEpoch = epoch.get();
+		CachedResult cached = shareIndexCache;
+
+		if (CachedResult.isValid(cached, currentEpoch, 0)) {
+			return cached.getValue();
+		}
+
+		recomputedQueries.increment();
+		double shareIndex = ShareIndex.merge(shareIndexes);
+		shareIndexCache = new CachedResult(currentEpoch, 0, shareIndex);
+		return shareIndex;
+	}
+
+	/**
+	 * Makes the cached query results stale, so the next queries calculate
+	 * them again
+	 */
+	void invalidateCachedResults() {
+		epoch.incrementAndGet();
+	}
+
+	/**
+	 * Gets the amount of trades included in the aggregates, including the
+	 * coalesced ones
+	 * @return the amount of trades
+	 */
+	private long getAggregatedTrades() {
+		long applied = 0;
+		for (Partition partition : partitions) {
+			applied += partition.mAppliedTrades;
+		}
+		return applied;
+	}
+
+	/**
+	 * Called by every worker between batches; when a snapshot is due, waits
+	 * until all the workers got here and the last one to arrive captures it
+	 */
+	private void checkpoint() {
+		if (!snapshotRequested.get()) {
+			if (snapshotDirectory == null || snapshotWriting.get()
+					|| getAggregatedTrades() - lastSnapshot < SNAPSHOT_INTERVAL) {
+				return;
+			}
+			snapshotRequested.set(true);
+		}
+
+		try {
+			snapshotBarrier.await();
+		} catch (InterruptedException iex) {
+			Thread.currentThread().interrupt();
+		} catch (BrokenBarrierException bbex) {
+			// Another worker gave up, try again later
+			snapshotBarrier.reset();
+		}
+	}
+
+	/**
+	 * Captures a snapshot of the aggregates, tagged with the stored trades
+	 * they include: every one up to the first that is not applied yet, plus
+	 * the ones after it applied out of order. Runs while all the workers are
+	 * stopped, trades keep being stored meanwhile; the file is written once
+	 * they are running again.
+	 */
+	private void takeSnapshot() {
+		try {
+			File directory = snapshotDirectory;
+			if (directory == null) {
+				return;
+			}
+
+			long start = System.nanoTime();
+			long sequence;
+			long[] applied;
+			long[] stamps = new long[partitions.length];
+
+			// The producers only touch the aggregates through the coalescers;
+			// hold them off while applying what they merged and taking the cut
+			for (int i = 0; i < partitions.length; i++) {
+				stamps[i] = partitions[i].mCoalescerLock.writeLock();
+			}
+			try {
+				for (Partition partition : partitions) {
+					partition.applyCoalesced();
+				}
+				sequence = appliedSequences.advance();
+				applied = appliedSequences.getMarkedAfterCut();
+			} finally {
+				for (int i = 0; i < partitions.length; i++) {
+					partitions[i].mCoalescerLock.unlockWrite(stamps[i]);
+				}
+			}
+
+			byte[] snapshot;
+			lastSnapshot = getAggregatedTrades();
+			try {
+				snapshot = captureSnapshot(sequence, applied);
+			} catch (IOException ioex) {
+				// Not fatal, the journal still has everything
+				ioex.printStackTrace();
+				return;
+			}
+			snapshotNanos.record(System.nanoTime() - start);
+
+			snapshotWriting.set(true);
+			Thread writer = new Thread(() -> {
+				long writeStart = System.nanoTime();
+
+				try {
+					writeSnapshotFile(directory, snapshot);
+					snapshotWriteNanos.record(System.nanoTime() - writeStart);
+				} catch (IOException ioex) {
+					// Not fatal, the journal still has everything
+					ioex.printStackTrace();
+				} finally {
+					snapshotWriting.set(false);
+				}
+			}, "dwh-snapshot");
+			writer.setDaemon(true);
+			writer.start();
+		} finally {
+			snapshotRequested.set(false);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of aggregates that include exactly the first trades
+	 * of the trade store; see {@link #writeSnapshot(File, long, long[])}
+	 * @param directory the directory to write the snapshot to
+	 * @param sequence the amount of trades, from the first one, included in the aggregates
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	void writeSnapshot(File directory, long sequence) throws IOException {
+		writeSnapshot(directory, sequence, new long[0]);
+	}
+
+	/**
+	 * Writes a snapshot of the aggregates; see
+	 * {@link #captureSnapshot(long, long[])} and
+	 * {@link #writeSnapshotFile(File, byte[])}
+	 * @param directory the directory to write the snapshot to
+	 * @param sequence the amount of trades, from the first one, included in the aggregates
+	 * @param applied the trades after those also included, sorted
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	void writeSnapshot(File directory, long sequence, long[] applied) throws IOException {
+		writeSnapshotFile(directory, captureSnapshot(sequence, applied));
+	}
+
+	/**
+	 * Serializes the aggregates into a snapshot. The partitions are merged,
+	 * so a snapshot can be restored with any amount of them. The workers
+	 * have to be stopped or idle.
+	 * @param sequence the amount of trades, from the first one, included in the aggregates
+	 * @param applied the trades after those also included, sorted
+	 * @return the snapshot
+	 * @throws IOException if the snapshot cannot be serialized
+	 */
+	private byte[] captureSnapshot(long sequence, long[] applied) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+		long maxEventTime = 0;
+		long lateTrades = 0;
+		long droppedTrades = 0;
+		long maxLateness = 0;
+		VolumeWindow market = newVolumeWindow();
+
+		for (Partition partition : partitions) {
+			Watermark watermark = partition.mWatermark;
+			maxEventTime = Math.max(maxEventTime, watermark.getMaxEventTime());
+			lateTrades += watermark.getLateTrades();
+			droppedTrades += watermark.getDroppedTrades();
+			maxLateness = Math.max(maxLateness, watermark.getMaxLateness());
+			market.addAll(partition.mMarketVolume);
+		}
+
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(SNAPSHOT_VERSION);
+			out.writeLong(sequence);
+			out.writeInt(applied.length);
+			for (long trade : applied) {
+				out.writeLong(trade);
+			}
+
+			out.writeLong(maxEventTime);
+			out.writeLong(lateTrades);
+			out.writeLong(droppedTrades);
+			out.writeLong(maxLateness);
+			market.writeTo(out);
+
+			// Ids depend on the registration order, codes are stable
+			StockPriceAverage[] averages = priceAverages;
+			VolumeWindow[] windows = volumeWindows;
+			out.writeInt(averages.length);
+			for (int id = 0; id < averages.length; id++) {
+				out.writeInt(Stock.byId(id).getCode());
+				out.writeLong(averages[id].getAmount());
+				out.writeDouble(averages[id].getTotal());
+				windows[id].writeTo(out);
+			}
+
+			StockBars[] bars = stockBars;
+			int traded = 0;
+			for (StockBars stockBar : bars) {
+				if (stockBar != null) {
+					traded++;
+				}
+			}
+			out.writeInt(traded);
+			for (int id = 0; id < bars.length; id++) {
+				if (bars[id] != null) {
+					out.writeInt(Stock.byId(id).getCode());
+					bars[id].writeTo(out);
+				}
+			}
+
+			PriceSketch[] sketches = priceSketches;
+			int sketched = 0;
+			for (PriceSketch sketch : sketches) {
+				if (sketch != null) {
+					sketched++;
+				}
+			}
+			out.writeInt(sketched);
+			for (int id = 0; id < sketches.length; id++) {
+				if (sketches[id] != null) {
+					out.writeInt(Stock.byId(id).getCode());
+					sketches[id].writeTo(out);
+				}
+			}
+
+			LastTradeSlot[] slots = lastTrades;
+			LastTrade[] last = new LastTrade[slots.length];
+			int lastTraded = 0;
+			for (int id = 0; id < slots.length; id++) {
+				LastTrade trade = new LastTrade();
+				if (slots[id] != null && slots[id].copyTo(trade)) {
+					last[id] = trade;
+					lastTraded++;
+				}
+			}
+			out.writeInt(lastTraded);
+			for (int id = 0; id < last.length; id++) {
+				if (last[id] != null) {
+					out.writeInt(Stock.byId(id).getCode());
+					out.writeLong(last[id].getTimestamp());
+					out.writeLong(last[id].getQuantity());
+					out.writeDouble(last[id].getPricePerShare());
+				}
+			}
 		}
+
+		return bytes.toByteArray();
 	}
-	
-	private ExecutorService executor = Executors.newCachedThreadPool();
-	
 
-	/* (non-Javadoc)
-	 * @see com.joseprio.stocktest.service.DWHService#notifyTrade(com.joseprio.stocktest.model.TradeRecord)
+	/**
+	 * Writes a snapshot to disk; it replaces the previous one atomically, so
+	 * there is always a complete snapshot available
+	 * @param directory the directory to write the snapshot to
+	 * @param snapshot the snapshot, as captured
+	 * @throws IOException if the snapshot cannot be written
 	 */
-	public void notifyTrade(TradeRecord record) {
-		// Run DWH functionality asynchronously so we don't hold the trade
-		executor.submit(() -> {
-			keepVolumeCache(record);
-			trackStockPrice(record);
-		});
+	private static void writeSnapshotFile(File directory, byte[] snapshot) throws IOException {
+		File temporary = new File(directory, SNAPSHOT_FILE + ".tmp");
+
+		try (FileOutputStream out = new FileOutputStream(temporary)) {
+			out.write(snapshot);
+			out.getFD().sync();
+		}
+
+		Files.move(temporary.toPath(),
+				new File(directory, SNAPSHOT_FILE).toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
 	}
-	
+
 	/**
-	 * Get the executor service for this service implementation
-	 * @return the executor service
+	 * Restores the aggregates from the snapshot in the given directory, and
+	 * keeps taking snapshots there from then on. It has to be called before
+	 * any trade is notified.
+	 * @param directory the directory holding the snapshot
+	 * @param storedTrades the amount of trades in the trade store; a snapshot
+	 * that includes more trades than these is ignored
+	 * @return the amount of trades, from the first one, included in the
+	 * restored aggregates; the trades after them have to be notified again,
+	 * except those for which {@link #isApplied(long)} is true
 	 */
-	ExecutorService getExecutorService() {
-		return executor;
+	long restoreSnapshot(File directory, long storedTrades) {
+		File file = new File(directory, SNAPSHOT_FILE);
+
+		snapshotDirectory = directory;
+		if (!file.exists()) {
+			return 0;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int version = (in.readInt() == SNAPSHOT_MAGIC) ? in.readInt() : -1;
+			if (version < 1 || version > SNAPSHOT_VERSION) {
+				throw new IOException("Unknown snapshot format");
+			}
+
+			long sequence = in.readLong();
+			if (sequence > storedTrades) {
+				System.err.println("Ignoring a DWH snapshot with more trades than the journal");
+				return 0;
+			}
+
+			// Read everything before replacing the current state
+			long[] applied = new long[(version >= SNAPSHOT_CUT_VERSION) ? in.readInt() : 0];
+			for (int i = 0; i < applied.length; i++) {
+				applied[i] = in.readLong();
+			}
+			long maxEventTime = in.readLong();
+			long lateTrades = in.readLong();
+			long droppedTrades = in.readLong();
+			long maxLateness = in.readLong();
+			VolumeWindow market = newVolumeWindow();
+			market.readFrom(in);
+
+			StockPriceAverage[] averages = newAverages(new StockPriceAverage[0], Stock.count());
+			VolumeWindow[] windows = newVolumeWindows(new VolumeWindow[0], Stock.count());
+			int tickers = in.readInt();
+			for (int i = 0; i < tickers; i++) {
+				Stock stock = readStock(in, averages.length);
+				long amount = in.readLong();
+				double total = in.readDouble();
+				if (amount > 0) {
+					averages[stock.getId()].addTrade(amount, total);
+				}
+				windows[stock.getId()].readFrom(in);
+			}
+
+			StockBars[] bars = new StockBars[Stock.count()];
+			if (version >= SNAPSHOT_BARS_VERSION) {
+				int traded = in.readInt();
+				for (int i = 0; i < traded; i++) {
+					Stock stock = readStock(in, bars.length);
+					bars[stock.getId()] = new StockBars();
+					bars[stock.getId()].readFrom(in);
+				}
+			}
+
+			if (version >= SNAPSHOT_INDEX_VERSION && version < SNAPSHOT_VERSION) {
+				int indexed = in.readInt();
+				for (int i = 0; i < indexed; i++) {
+					readStock(in, Stock.count());
+					skipIndex(in);
+				}
+			}
+
+			PriceSketch[] sketches = null;
+			if (version >= SNAPSHOT_SKETCH_VERSION) {
+				sketches = new PriceSketch[Stock.count()];
+				int sketched = in.readInt();
+				for (int i = 0; i < sketched; i++) {
+					Stock stock = readStock(in, sketches.length);
+					sketches[stock.getId()] = new PriceSketch();
+					sketches[stock.getId()].readFrom(in);
+				}
+			}
+
+			LastTradeSlot[] slots = null;
+			if (version >= SNAPSHOT_LAST_TRADE_VERSION) {
+				slots = new LastTradeSlot[Stock.count()];
+				int lastTraded = in.readInt();
+				for (int i = 0; i < lastTraded; i++) {
+					Stock stock = readStock(in, slots.length);
+					slots[stock.getId()] = new LastTradeSlot();
+					slots[stock.getId()].update(in.readLong(), in.readLong(), in.readDouble());
+				}
+			}
+
+			priceAverages = averages;
+			volumeWindows = windows;
+			stockBars = bars;
+			tradeIndexes = new TradeIndex[Stock.count()];
+			rebuildFromStore(sequence, applied, sketches, slots);
+
+			// The merged market state goes to the first partition, every
+			// partition resumes from the same event time
+			for (Partition partition : partitions) {
+				boolean first = partition.mIndex == 0;
+
+				if (first) {
+					partition.mWatermark.restore(maxEventTime, lateTrades, droppedTrades, maxLateness);
+				} else {
+					partition.mWatermark.restore(maxEventTime, 0, 0, 0);
+				}
+				partition.mMarketVolume = first ? market : newVolumeWindow();
+				partition.mAppliedTrades = first ? sequence + applied.length : 0;
+				partition.restoreShareIndex(averages);
+				partition.mHeavyHitters = newHeavyHitters();
+			}
+			for (int id = 0; id < windows.length; id++) {
+				windows[id].addTo(partitions[id % partitions.length].mHeavyHitters, id);
+			}
+			appliedSequences.reset(sequence, applied);
+			rebuildIndexes(sequence, applied);
+			lastSnapshot = sequence + applied.length;
+			epoch.incrementAndGet();
+
+			return sequence;
+		} catch (IOException ioex) {
+			// Start from scratch, the journal has everything
+			ioex.printStackTrace();
+			return 0;
+		}
 	}
 
 	/**
-	 * Refresh the executor service if it has been shutdown
+	 * Builds the price sketches and last trades of the trades included in a
+	 * snapshot, which are not applied again, from the trade store, for the
+	 * snapshots that don't have them
+	 * @param sequence the amount of trades, from the first one, to include
+	 * @param applied the trades after those also included, sorted
+	 * @param restoredSketches the price sketches read from the snapshot, or null
+	 * @param restoredSlots the last trades read from the snapshot, or null
 	 */
-	void restartExecutorService() {
-		if (executor.isShutdown()) {
-			executor = Executors.newCachedThreadPool();
+	private void rebuildFromStore(long sequence, long[] applied, PriceSketch[] restoredSketches, LastTradeSlot[] restoredSlots) {
+		boolean rebuildSketches = restoredSketches == null;
+		boolean rebuildSlots = restoredSlots == null;
+		PriceSketch[] sketches = rebuildSketches ? new PriceSketch[Stock.count()] : restoredSketches;
+		LastTradeSlot[] slots = rebuildSlots ? new LastTradeSlot[Stock.count()] : restoredSlots;
+
+		if (rebuildSketches || rebuildSlots) {
+			TradeStore.Cursor cursor = TradeRecord.getStore().cursor();
+			long last = (applied.length > 0) ? applied[applied.length - 1] : sequence - 1;
+
+			while (cursor.next() && cursor.getRow() <= last) {
+				if (cursor.getRow() >= sequence && Arrays.binarySearch(applied, cursor.getRow()) < 0) {
+					continue;
+				}
+
+				int id = cursor.getStock().getId();
+				double price = cursor.getPricePerShare();
+
+				if (rebuildSketches) {
+					if (sketches[id] == null) {
+						sketches[id] = new PriceSketch();
+					}
+					sketches[id].add(cursor.getTimestamp(), price, 1);
+				}
+				if (rebuildSlots) {
+					if (slots[id] == null) {
+						slots[id] = new LastTradeSlot();
+					}
+					slots[id].update(cursor.getTimestamp(), cursor.getQuantity(), price);
+				}
+			}
 		}
+
+		priceSketches = sketches;
+		lastTrades = slots;
 	}
 
-	/* (non-Javadoc)
-	 * @see com.joseprio.stocktest.service.DWHService#calculateVolumeWeighted()
+	/**
+	 * Skips a time index written by an older snapshot, as it is rebuilt from
+	 * the trade store instead
+	 * @param in the input to read from
+	 * @throws IOException if the index cannot be read
 	 */
-	public double calculateVolumeWeighted() {
-		long expiredTimestamp = TimeProviderFactory.getInstance().currentTimeMillis()
-									- VOLUME_CACHE_EXPIRY_MILLIS;
-
-		// Use reduce to aggregate the information
-		VolumeRecord aggr = volumeCache
-			.stream()
-			.filter(r -> r.getInformedTimestamp() > expiredTimestamp)
-			.reduce(new VolumeRecord(0, 0.0), (v1, v2) -> {
-				v1.setQuantity(v1.getQuantity() + v2.getQuantity());
-				v1.setVolume(v1.getVolume() + v2.getVolume());
-				return v1;
-			});
-		
-		return aggr.getVolume() / aggr.getQuantity();
+	private static void skipIndex(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		if (size < 0) {
+			throw new IOException("Invalid trade index size " + size);
+		}
+		// Timestamp, quantity, notional, notional error and trades
+		skipFully(in, size * 40L);
+
+		int runs = in.readInt();
+		for (int r = 0; r < runs; r++) {
+			int level = in.readInt();
+			if (level < 0 || level >= Integer.SIZE) {
+				throw new IOException("Invalid trade index run " + level);
+			}
+			// Timestamp, quantity, notional and trades
+			skipFully(in, (1L << level) * 32L);
+		}
 	}
 
-	public double calculateShareIndex() {
-		// Calculate geometric mean using logarithms in order to
-		// avoid over/underflows
-		StockPriceAverage[] values = priceAverages
-								.values()
-								.stream()
-								.filter(a -> a.getAmount() > 0)
-								.toArray(size -> new StockPriceAverage[size]);
-
-		double logSum = Arrays.stream(values)
-							.mapToDouble(a -> Math.log(a.getAverage()))
-							.sum();
-		
-		return Math.exp(logSum / values.length);
+	private static void skipFully(DataInputStream in, long bytes) throws IOException {
+		while (bytes > 0) {
+			long skipped = in.skip(bytes);
+			if (skipped <= 0) {
+				// Either the end of the file or a stream that can't skip
+				in.readByte();
+				skipped = 1;
+			}
+			bytes -= skipped;
+		}
 	}
-	
-	private void keepVolumeCache(TradeRecord record) {
-		volumeCache.add(VolumeRecord.fromTradeRecord(record));
 
-		// Remove older than 15 minutes
-		// TODO: Do it randomly or at regular intervals, as it's locking
-		purgeVolumeCache();
+	/**
+	 * Indexes the stored trades included in a restored snapshot, which are
+	 * not applied again, on a thread of its own
+	 * @param sequence the amount of trades, from the first one, to index
+	 * @param applied the trades after those also included, sorted
+	 */
+	private void rebuildIndexes(long sequence, long[] applied) {
+		CountDownLatch rebuild = new CountDownLatch(1);
+
+		indexRebuild = rebuild;
+		indexesRebuilding = true;
+
+		Thread thread = new Thread(() -> {
+			TradeIndex[] indexes = new TradeIndex[Stock.count()];
+
+			try {
+				TradeStore.Cursor cursor = TradeRecord.getStore().cursor();
+				long last = (applied.length > 0) ? applied[applied.length - 1] : sequence - 1;
+
+				while (cursor.next() && cursor.getRow() <= last) {
+					if (cursor.getRow() >= sequence && Arrays.binarySearch(applied, cursor.getRow()) < 0) {
+						continue;
+					}
+
+					int id = cursor.getStock().getId();
+					long quantity = cursor.getQuantity();
+					if (indexes[id] == null) {
+						indexes[id] = new TradeIndex();
+					}
+					indexes[id].add(cursor.getTimestamp(), quantity, cursor.getPricePerShare() * quantity, 1);
+				}
+			} catch (RuntimeException rex) {
+				// The indexes miss part of the history, but the DWH goes on
+				rex.printStackTrace();
+			} finally {
+				installIndexes(indexes);
+				indexesRebuilding = false;
+				rebuild.countDown();
+			}
+		}, "dwh-index-rebuild");
+		thread.setDaemon(true);
+		thread.start();
 	}
-	
-	private synchronized void purgeVolumeCache() {
-		boolean foundExpired;
-		long expiredTimestamp = TimeProviderFactory.getInstance().currentTimeMillis()
-									- VOLUME_CACHE_EXPIRY_MILLIS;
-		
-		do {
-			foundExpired = false;
-			
-			VolumeRecord oldest = volumeCache.peek();
-			if (oldest.getProcessTimestamp() < expiredTimestamp) {
-				// Head has expired
-				volumeCache.poll();
-				foundExpired = true;
+
+	/**
+	 * Puts the rebuilt time indexes in place; synchronized with
+	 * ensureCapacity so growing the array doesn't lose them
+	 * @param indexes the rebuilt indexes, by stock id
+	 */
+	private synchronized void installIndexes(TradeIndex[] indexes) {
+		TradeIndex[] current = tradeIndexes;
+
+		for (int id = 0; id < indexes.length; id++) {
+			if (indexes[id] != null) {
+				current[id] = indexes[id];
 			}
-		} while (foundExpired);
+		}
 	}
-	
-	private void trackStockPrice(TradeRecord record) {
-		StockPriceAverage spa = priceAverages.get(record.getStock().getTicker());
-		
-		if (spa == null) {
-			// For some reason it's not initialized... do it now
-			spa = new StockPriceAverage();
-			priceAverages.put(record.getStock().getTicker(), spa);
+
+	/**
+	 * Reads the code of a stock from a snapshot
+	 * @param in the input to read from
+	 * @param count the amount of stocks the state being restored has room for
+	 * @return the stock
+	 * @throws IOException if the stock is unknown or doesn't fit
+	 */
+	private static Stock readStock(DataInputStream in, int count) throws IOException {
+		Stock stock = Stock.byCode(in.readInt());
+
+		if (stock == null || stock.getId() >= count) {
+			throw new IOException("The snapshot contains an unknown ticker");
+		}
+
+		return stock;
+	}
+
+	private static int initialPartitionCount() {
+		String partitions = System.getProperty(Constants.PARTITIONS_PROPERTY);
+
+		if (partitions != null) {
+			try {
+				int count = Integer.parseInt(partitions.trim());
+				if (count >= 1 && count <= MAX_PARTITIONS) {
+					return count;
+				}
+			} catch (NumberFormatException nfex) {
+				// Reported below
+			}
+			System.err.println("Invalid amount of DWH partitions " + partitions + ", using the default");
+		}
+
+		return Math.min(Runtime.getRuntime().availableProcessors(), MAX_PARTITIONS);
+	}
+
+	private static OverloadPolicy initialOverloadPolicy() {
+		String policy = System.getProperty(Constants.OVERLOAD_POLICY_PROPERTY);
+
+		if (policy != null) {
+			try {
+				return OverloadPolicy.valueOf(policy.trim().toUpperCase());
+			} catch (IllegalArgumentException iaex) {
+				System.err.println("Unknown DWH overload policy " + policy + ", blocking instead");
+			}
+		}
+
+		return OverloadPolicy.BLOCK;
+	}
+
+	private static HeavyHitters newHeavyHitters() {
+		return new HeavyHitters(VOLUME_WINDOW_MILLIS, HEAVY_HITTERS_PERIOD_MILLIS, HEAVY_HITTERS_CAPACITY);
+	}
+
+	private static VolumeWindow newVolumeWindow() {
+		return new VolumeWindow(VOLUME_WINDOW_MILLIS, VOLUME_BUCKET_MILLIS);
+	}
+
+	/**
+	 * Makes room in the per stock arrays for the given amount of stocks;
+	 * called from the DWH threads, or before they start
+	 * @param count the amount of stocks
+	 */
+	private synchronized void ensureCapacity(int count) {
+		if (count <= priceAverages.length) {
+			return;
+		}
+
+		// Leave room for some more, stocks tend to be registered in bulk
+		int length = Math.max(count, Stock.count());
+		volumeWindows = newVolumeWindows(volumeWindows, length);
+		priceAverages = newAverages(priceAverages, length);
+		stockBars = Arrays.copyOf(stockBars, length);
+		tradeIndexes = Arrays.copyOf(tradeIndexes, length);
+		priceSketches = Arrays.copyOf(priceSketches, length);
+		lastTrades = Arrays.copyOf(lastTrades, length);
+	}
+
+	/**
+	 * Gets the bars of a stock, creating them on its first trade; synchronized
+	 * with ensureCapacity so growing the array doesn't lose them
+	 * @param id the stock id, within the per stock arrays
+	 * @return the bars of the stock
+	 */
+	private synchronized StockBars createBars(int id) {
+		StockBars[] bars = stockBars;
+
+		if (bars[id] == null) {
+			bars[id] = new StockBars();
+		}
+
+		return bars[id];
+	}
+
+	/**
+	 * Gets the time index of a stock, creating it on its first trade
+	 * @param id the stock id, within the per stock arrays
+	 * @return the index of the stock
+	 */
+	private synchronized TradeIndex createIndex(int id) {
+		TradeIndex[] indexes = tradeIndexes;
+
+		if (indexes[id] == null) {
+			indexes[id] = new TradeIndex();
+		}
+
+		return indexes[id];
+	}
+
+	/**
+	 * Gets the last trade slot of a stock, creating it on its first trade
+	 * @param id the stock id, within the per stock arrays
+	 * @return the slot of the stock
+	 */
+	private synchronized LastTradeSlot createLastTrade(int id) {
+		LastTradeSlot[] slots = lastTrades;
+
+		if (slots[id] == null) {
+			slots[id] = new LastTradeSlot();
+		}
+
+		return slots[id];
+	}
+
+	/**
+	 * Gets the price sketch of a stock, creating it on its first trade
+	 * @param id the stock id, within the per stock arrays
+	 * @return the sketch of the stock
+	 */
+	private synchronized PriceSketch createSketch(int id) {
+		PriceSketch[] sketches = priceSketches;
+
+		if (sketches[id] == null) {
+			sketches[id] = new PriceSketch();
+		}
+
+		return sketches[id];
+	}
+
+	private static VolumeWindow[] newVolumeWindows(VolumeWindow[] current, int length) {
+		VolumeWindow[] windows = Arrays.copyOf(current, length);
+		for (int id = current.length; id < length; id++) {
+			windows[id] = newVolumeWindow();
+		}
+		return windows;
+	}
+
+	private static StockPriceAverage[] newAverages(StockPriceAverage[] current, int length) {
+		StockPriceAverage[] averages = Arrays.copyOf(current, length);
+		for (int id = current.length; id < length; id++) {
+			averages[id] = new StockPriceAverage();
+		}
+		return averages;
+	}
+
+	/**
+	 * A share of the stocks, with the worker thread that applies their
+	 * trades and the part of the market aggregates that comes from them;
+	 * everything but the published results is only used by that thread
+	 */
+	private class Partition {
+		private final int mIndex;
+		private final ShareIndex mShareIndex = new ShareIndex();
+		private final TradeCoalescer mCoalescer = new TradeCoalescer();
+		// Write locked while a snapshot is taken
+		private final StampedLock mCoalescerLock = new StampedLock();
+		private final TradeCoalescer.DeltaHandler mDeltaHandler = this::applyDelta;
+		// Averages changed by the batch being applied
+		private final ArrayList<StockPriceAverage> mChangedAverages = new ArrayList<StockPriceAverage>();
+		private final Watermark mWatermark = new Watermark(VOLUME_WINDOW_MILLIS);
+		private volatile VolumeWindow mMarketVolume = newVolumeWindow();
+		private volatile HeavyHitters mHeavyHitters = newHeavyHitters();
+		// Trades applied so far, volatile so the other threads can add them up
+		private volatile long mAppliedTrades = 0;
+		// Index entries held back while the indexes are rebuilt
+		private int mHeldEntries = 0;
+		private int[] mHeldStocks = new int[0];
+		private long[] mHeldTimestamps = new long[0];
+		private long[] mHeldQuantities = new long[0];
+		private double[] mHeldNotionals = new double[0];
+		private long[] mHeldTrades = new long[0];
+		private TradeRingBuffer mRing;
+
+		Partition(int index) {
+			mIndex = index;
+		}
+
+		/**
+		 * Starts the worker thread
+		 */
+		void start() {
+			mRing = new TradeRingBuffer(RING_CAPACITY, "dwh-writer-" + mIndex, this::applyBatch, this::applyIdle);
+		}
+
+		/**
+		 * Applies a batch of trades to the aggregates
+		 * @param ring the ring holding the trades
+		 * @param from the first sequence of the batch
+		 * @param to the sequence after the last one of the batch
+		 */
+		private void applyBatch(TradeRingBuffer ring, long from, long to) {
+			long start = System.nanoTime();
+
+			for (long s = from; s < to; s++) {
+				long quantity = ring.getQuantity(s);
+				double price = ring.getPrice(s);
+
+				try {
+					applyTrade(ring.getStock(s), ring.getTimestamp(s), quantity, price, price * quantity, 1);
+				} catch (RuntimeException rex) {
+					// Left out, but done as far as snapshots go
+					failedTrades.increment();
+					rex.printStackTrace();
+				}
+				markApplied(ring.getRow(s));
+			}
+			if (mCoalescer.hasPending()) {
+				mCoalescer.drain(mDeltaHandler);
+			}
+
+			long shareIndexStart = System.nanoTime();
+			updateShareIndex();
+			long end = System.nanoTime();
+			shareIndexNanos.record(end - shareIndexStart);
+			batchNanos.record(end - start);
+			batchSizes.record(to - from);
+
+			mAppliedTrades += to - from;
+			checkpoint();
+		}
+
+		/**
+		 * Applies the trades merged while the ring was full, and joins a
+		 * snapshot if one is due; called when the ring is empty
+		 */
+		private void applyIdle() {
+			applyCoalesced();
+			if (mHeldEntries > 0 && !indexesRebuilding) {
+				releaseIndexEntries();
+			}
+			checkpoint();
+		}
+
+		/**
+		 * Applies the trades merged while the ring was full; called by the
+		 * worker, or while it waits for a snapshot
+		 */
+		void applyCoalesced() {
+			if (mCoalescer.hasPending()) {
+				mCoalescer.drain(mDeltaHandler);
+				updateShareIndex();
+			}
+		}
+
+		private void applyDelta(Stock stock, long timestamp, long quantity, double notional, long trades) {
+			// Merged trades show up in the bars as a single one at their average price
+			applyTrade(stock, timestamp, quantity, notional / quantity, notional, trades);
+			mAppliedTrades += trades;
+		}
+
+		private void applyTrade(Stock stock, long timestamp, long quantity, double price, double notional, long trades) {
+			if (stock.getId() >= priceAverages.length) {
+				// Registered after we started
+				ensureCapacity(stock.getId() + 1);
+			}
+
+			trackVolume(stock, timestamp, quantity, notional);
+			trackStockPrice(stock, quantity, notional);
+			trackBars(stock, timestamp, quantity, price);
+			trackIndex(stock, timestamp, quantity, notional, trades);
+			trackPrices(stock, timestamp, price, trades);
+			trackLastTrade(stock, timestamp, quantity, price);
+		}
+
+		private void trackLastTrade(Stock stock, long timestamp, long quantity, double price) {
+			LastTradeSlot slot = lastTrades[stock.getId()];
+
+			if (slot == null) {
+				slot = createLastTrade(stock.getId());
+			}
+			slot.update(timestamp, quantity, price);
+		}
+
+		private void trackPrices(Stock stock, long timestamp, double price, long trades) {
+			PriceSketch sketch = priceSketches[stock.getId()];
+
+			if (sketch == null) {
+				sketch = createSketch(stock.getId());
+			}
+			sketch.add(timestamp, price, trades);
+		}
+
+		private void trackIndex(Stock stock, long timestamp, long quantity, double notional, long trades) {
+			if (indexesRebuilding) {
+				holdIndexEntry(stock.getId(), timestamp, quantity, notional, trades);
+				return;
+			}
+
+			if (mHeldEntries > 0) {
+				releaseIndexEntries();
+			}
+
+			TradeIndex index = tradeIndexes[stock.getId()];
+
+			if (index == null) {
+				index = createIndex(stock.getId());
+			}
+			index.add(timestamp, quantity, notional, trades);
+		}
+
+		private void holdIndexEntry(int id, long timestamp, long quantity, double notional, long trades) {
+			if (mHeldEntries == mHeldStocks.length) {
+				int capacity = Math.max(256, mHeldEntries * 2);
+				mHeldStocks = Arrays.copyOf(mHeldStocks, capacity);
+				mHeldTimestamps = Arrays.copyOf(mHeldTimestamps, capacity);
+				mHeldQuantities = Arrays.copyOf(mHeldQuantities, capacity);
+				mHeldNotionals = Arrays.copyOf(mHeldNotionals, capacity);
+				mHeldTrades = Arrays.copyOf(mHeldTrades, capacity);
+			}
+
+			mHeldStocks[mHeldEntries] = id;
+			mHeldTimestamps[mHeldEntries] = timestamp;
+			mHeldQuantities[mHeldEntries] = quantity;
+			mHeldNotionals[mHeldEntries] = notional;
+			mHeldTrades[mHeldEntries] = trades;
+			mHeldEntries++;
+		}
+
+		/**
+		 * Adds the entries held back during the rebuild to the rebuilt indexes
+		 */
+		private void releaseIndexEntries() {
+			for (int i = 0; i < mHeldEntries; i++) {
+				int id = mHeldStocks[i];
+				TradeIndex index = tradeIndexes[id];
+
+				if (index == null) {
+					index = createIndex(id);
+				}
+				index.add(mHeldTimestamps[i], mHeldQuantities[i], mHeldNotionals[i], mHeldTrades[i]);
+			}
+
+			mHeldEntries = 0;
+			mHeldStocks = new int[0];
+			mHeldTimestamps = new long[0];
+			mHeldQuantities = new long[0];
+			mHeldNotionals = new double[0];
+			mHeldTrades = new long[0];
+		}
+
+		private void trackBars(Stock stock, long timestamp, long quantity, double price) {
+			StockBars bars = stockBars[stock.getId()];
+
+			if (bars == null) {
+				bars = createBars(stock.getId());
+			}
+			bars.add(timestamp, quantity, price);
+		}
+
+		private void trackVolume(Stock stock, long timestamp, long quantity, double notional) {
+			if (!mWatermark.accept(timestamp)) {
+				// Too late to be part of the windows
+				return;
+			}
+
+			volumeWindows[stock.getId()].add(timestamp, quantity, notional);
+			mMarketVolume.add(timestamp, quantity, notional);
+			mHeavyHitters.add(stock.getId(), timestamp, quantity);
+		}
+
+		private void trackStockPrice(Stock stock, long quantity, double notional) {
+			StockPriceAverage spa = priceAverages[stock.getId()];
+			
+			// Add current trade
+			spa.addTrade(quantity, notional);
+
+			if (!spa.isChanged()) {
+				spa.setChanged(true);
+				mChangedAverages.add(spa);
+			}
+		}
+
+		/**
+		 * Adjusts the share index for the averages changed by the last batch,
+		 * and makes the cached query results stale
+		 */
+		private void updateShareIndex() {
+			boolean changed = !mChangedAverages.isEmpty();
+
+			for (int i = 0; i < mChangedAverages.size(); i++) {
+				StockPriceAverage spa = mChangedAverages.get(i);
+				// Calculate geometric mean using logarithms in order to
+				// avoid over/underflows
+				double newLog = Math.log(spa.getAverage());
+				mShareIndex.update(spa.getIndexLog(), newLog);
+				spa.setIndexLog(newLog);
+				spa.setChanged(false);
+				spa.advanceEpoch();
+			}
+			mChangedAverages.clear();
+
+			if (mShareIndex.needsRecompute()) {
+				recomputeShareIndex(priceAverages);
+			}
+
+			mShareIndex.publish();
+			if (changed) {
+				// After everything is published, so a reader that sees the new
+				// epoch also sees the new values
+				epoch.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Rebuilds the share index from restored averages
+		 * @param averages the restored averages
+		 */
+		void restoreShareIndex(StockPriceAverage[] averages) {
+			for (int id = mIndex; id < averages.length; id += partitions.length) {
+				StockPriceAverage spa = averages[id];
+				if (spa.getAmount() > 0) {
+					spa.setIndexLog(Math.log(spa.getAverage()));
+				}
+			}
+			recomputeShareIndex(averages);
+			mShareIndex.publish();
+		}
+
+		private void recomputeShareIndex(StockPriceAverage[] averages) {
+			double logSum = 0.0;
+			int count = 0;
+
+			// Only the stocks of this partition
+			for (int id = mIndex; id < averages.length; id += partitions.length) {
+				double indexLog = averages[id].getIndexLog();
+				if (!Double.isNaN(indexLog)) {
+					logSum += indexLog;
+					count++;
+				}
+			}
+			mShareIndex.recompute(logSum, count);
 		}
-		
-		// Add current record
-		spa.addRecord(record);
 	}
 }
 
 class StockPriceAverage {
-	private double mTotal = 0.0;
-	private long mAmount = 0;
+	// Notional and amount are kept together so readers never see them torn
+	private final PairAccumulator mTotals = new PairAccumulator();
+	// Share index bookkeeping, only used by the DWH thread
+	private double mIndexLog = Double.NaN;
+	private boolean mChanged = false;
+	// Advanced by the DWH thread after applying trades of the stock
+	private volatile long mEpoch = 0;
+	private volatile CachedResult mCachedVolumeWeighted = null;
 	
 	/**
-	 * Add trade record data to the average calculation
-	 * @param record the trade record to add
+	 * Add trade data to the average calculation
+	 * @param quantity the traded quantity
+	 * @param notional the traded notional (price * quantity)
 	 */
-	public synchronized void addRecord(TradeRecord record) {
-		mTotal += record.getPricePerShare() * record.getQuantity();
-		mAmount += record.getQuantity();
+	public void addTrade(long quantity, double notional) {
+		mTotals.add(quantity, notional);
 	}
 	
 	/**
@@ -151,7 +1707,15 @@ class StockPriceAverage {
 	 * @return the average
 	 */
 	public double getAverage() {
-		return mTotal / mAmount;
+		return mTotals.getRatio();
+	}
+	
+	/**
+	 * Get the total traded notional
+	 * @return the total notional
+	 */
+	public double getTotal() {
+		return mTotals.getNotional();
 	}
 	
 	/**
@@ -159,56 +1723,70 @@ class StockPriceAverage {
 	 * @return the total shares
 	 */
 	public long getAmount() {
-		return mAmount;
-	}
-}
-
-class VolumeRecord {
-	private long mQuantity;
-	private double mVolume;
-	private long mProcessTimestamp;
-	private long mInformedTimestamp;
-	
-	public VolumeRecord(long quantity, double volume) {
-		mQuantity = quantity;
-		mVolume = volume;
-		mProcessTimestamp = TimeProviderFactory.getInstance().currentTimeMillis();
+		return mTotals.getQuantity();
 	}
 	
-	public long getQuantity() {
-		return mQuantity;
+	/**
+	 * Get the logarithm of the average that is part of the share index
+	 * @return the logarithm, or NaN if it's not part of the index yet
+	 */
+	public double getIndexLog() {
+		return mIndexLog;
 	}
 	
-	public void setQuantity(long quantity) {
-		mQuantity = quantity;
+	/**
+	 * Set the logarithm of the average that is part of the share index
+	 * @param indexLog the logarithm
+	 */
+	public void setIndexLog(double indexLog) {
+		mIndexLog = indexLog;
 	}
 	
-	public double getVolume() {
-		return mVolume;
+	/**
+	 * Tells whether the average changed since the share index was updated
+	 * @return true if it changed
+	 */
+	public boolean isChanged() {
+		return mChanged;
 	}
 	
-	public void setVolume(double volume) {
-		mVolume = volume;
+	/**
+	 * Flags the average as changed since the share index was updated
+	 * @param changed the new flag value
+	 */
+	public void setChanged(boolean changed) {
+		mChanged = changed;
 	}
 	
-	public long getProcessTimestamp() {
-		return mProcessTimestamp;
+	/**
+	 * Gets the write epoch of the stock, which changes every time trades of
+	 * the stock are applied
+	 * @return the epoch
+	 */
+	public long getEpoch() {
+		return mEpoch;
 	}
 	
-	public long getInformedTimestamp() {
-		return mInformedTimestamp;
+	/**
+	 * Advances the write epoch; only called by the DWH thread
+	 */
+	public void advanceEpoch() {
+		mEpoch++;
 	}
 	
-	public void setInformedTimestamp(long informedTimestamp) {
-		mInformedTimestamp = informedTimestamp;
+	/**
+	 * Get the last calculated volume weighted price of the stock
+	 * @return the cached result, or null if there is none
+	 */
+	public CachedResult getCachedVolumeWeighted() {
+		return mCachedVolumeWeighted;
 	}
 	
-	public static VolumeRecord fromTradeRecord(TradeRecord tr) {
-		VolumeRecord record = new VolumeRecord(
-								tr.getQuantity(),
-								tr.getPricePerShare() * tr.getQuantity());
-		record.setInformedTimestamp(tr.getTimestamp());
-		
-		return record;
+	/**
+	 * Set the last calculated volume weighted price of the stock
+	 * @param cached the result
+	 */
+	public void setCachedVolumeWeighted(CachedResult cached) {
+		mCachedVolumeWeighted = cached;
 	}
 }
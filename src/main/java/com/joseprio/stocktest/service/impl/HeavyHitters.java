@@ -0,0 +1,182 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Most traded stocks of a sliding window, in bounded memory. The window is
+ * split in a ring of periods, each with a Space-Saving summary that tracks
+ * the volume of a fixed amount of stocks: when a stock that isn't tracked
+ * comes in and the summary is full, it takes the place of the least traded
+ * one and inherits its volume as a possible overcount. Any stock with more
+ * than 1/capacity of the volume of a period is sure to be tracked in it, and
+ * no tracked volume is underestimated. Memory and query cost depend on the
+ * capacity and the amount of periods, not on the amount of stocks.
+ * Periods are assigned by the trade timestamp, like in {@link VolumeWindow}.
+ */
+class HeavyHitters {
+	private final long mPeriodMillis;
+	private final long mWindowMillis;
+	private final Summary[] mSummaries;
+
+	/**
+	 * Creates an empty tracker
+	 * @param windowMillis the length of the window
+	 * @param periodMillis the length of each period (the window resolution)
+	 * @param capacity the amount of stocks tracked in each period
+	 */
+	HeavyHitters(long windowMillis, long periodMillis, int capacity) {
+		// One more period for the one in progress
+		int periods = (int)((windowMillis + periodMillis - 1) / periodMillis) + 1;
+
+		mPeriodMillis = periodMillis;
+		mWindowMillis = windowMillis;
+		mSummaries = new Summary[periods];
+		for (int i = 0; i < periods; i++) {
+			mSummaries[i] = new Summary(capacity);
+		}
+	}
+
+	/**
+	 * Adds a trade; trades older than the periods in the ring are ignored
+	 * @param id the id of the traded stock
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 */
+	synchronized void add(int id, long timestamp, long quantity) {
+		long period = timestamp / mPeriodMillis;
+		Summary summary = mSummaries[(int)(period % mSummaries.length)];
+
+		if (summary.mPeriod != period) {
+			if (summary.mPeriod > period) {
+				// Its place in the ring is already taken by a newer period
+				return;
+			}
+			summary.clear(period);
+		}
+		summary.add(id, quantity);
+	}
+
+	/**
+	 * Adds the estimated volume of the tracked stocks, in the periods that
+	 * overlap the window ending at the given time, to a map by stock id
+	 * @param now the current timestamp
+	 * @param volumes the map to add the volumes to
+	 */
+	synchronized void addVolumesTo(long now, Map<Integer, Long> volumes) {
+		long first = (now - mWindowMillis) / mPeriodMillis;
+		long last = now / mPeriodMillis;
+
+		for (Summary summary : mSummaries) {
+			if (summary.mPeriod >= first && summary.mPeriod <= last) {
+				for (int slot = 0; slot < summary.mSize; slot++) {
+					volumes.merge(summary.mIds[slot], summary.mCounts[slot], Long::sum);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Space-Saving summary of a single period. Tracked stocks are found
+	 * through a small open addressing table from stock id to slot.
+	 */
+	static final class Summary {
+		private final int[] mIds;
+		private final long[] mCounts;
+		// Slot + 1 of the stock that hashes there, 0 if empty
+		private final int[] mTable;
+		private final int mMask;
+		private int mSize = 0;
+		private long mPeriod = -1;
+
+		Summary(int capacity) {
+			mIds = new int[capacity];
+			mCounts = new long[capacity];
+			// At most half full
+			mTable = new int[Integer.highestOneBit(capacity) << 2];
+			mMask = mTable.length - 1;
+		}
+
+		void clear(long period) {
+			Arrays.fill(mTable, 0);
+			mSize = 0;
+			mPeriod = period;
+		}
+
+		void add(int id, long quantity) {
+			int position = find(id);
+
+			if (mTable[position] != 0) {
+				mCounts[mTable[position] - 1] += quantity;
+				return;
+			}
+
+			if (mSize < mIds.length) {
+				mIds[mSize] = id;
+				mCounts[mSize] = quantity;
+				mTable[position] = ++mSize;
+				return;
+			}
+
+			// Replace the least traded stock
+			int min = 0;
+			for (int slot = 1; slot < mSize; slot++) {
+				if (mCounts[slot] < mCounts[min]) {
+					min = slot;
+				}
+			}
+			remove(find(mIds[min]));
+			mIds[min] = id;
+			mCounts[min] += quantity;
+			mTable[find(id)] = min + 1;
+		}
+
+		/**
+		 * Gets the volume of a stock
+		 * @param id the stock id
+		 * @return the estimated volume, or 0 if it's not tracked
+		 */
+		long getCount(int id) {
+			int position = find(id);
+
+			return (mTable[position] == 0) ? 0 : mCounts[mTable[position] - 1];
+		}
+
+		/**
+		 * Gets the position of a stock in the table, or the empty one where
+		 * it would go
+		 */
+		private int find(int id) {
+			int position = hash(id);
+
+			while (mTable[position] != 0 && mIds[mTable[position] - 1] != id) {
+				position = (position + 1) & mMask;
+			}
+
+			return position;
+		}
+
+		/**
+		 * Empties a position of the table, moving back the entries after it
+		 * that would no longer be found
+		 */
+		private void remove(int position) {
+			int next = (position + 1) & mMask;
+
+			while (mTable[next] != 0) {
+				int home = hash(mIds[mTable[next] - 1]);
+				// Move it if its home is not between the hole and its position
+				if (((next - home) & mMask) >= ((next - position) & mMask)) {
+					mTable[position] = mTable[next];
+					position = next;
+				}
+				next = (next + 1) & mMask;
+			}
+			mTable[position] = 0;
+		}
+
+		private int hash(int id) {
+			return (id * 0x9E3779B9) >>> 16 & mMask;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.joseprio.stocktest.service.impl;
+
+import com.joseprio.stocktest.model.LastTrade;
+
+/**
+ * Price, quantity and timestamp of the latest trade of a stock, published
+ * with a sequence lock: the version is odd while the fields are written, so
+ * readers retry instead of getting a mix of two trades, and they never make
+ * the writer wait. The latest trade is the one with the newest timestamp;
+ * later trades with the same timestamp replace it.
+ * Only the DWH worker of the stock is expected to update it.
+ */
+class LastTradeSlot {
+	private volatile long mVersion = 0;
+	private volatile long mTimestamp = Long.MIN_VALUE;
+	private volatile long mQuantity = 0;
+	private volatile double mPricePerShare = Double.NaN;
+
+	/**
+	 * Replaces the last trade, unless it's newer than the given one
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param pricePerShare the price per share
+	 */
+	void update(long timestamp, long quantity, double pricePerShare) {
+		if (timestamp < mTimestamp) {
+			// Late trade
+			return;
+		}
+
+		long version = mVersion;
+
+		mVersion = version + 1;
+		mTimestamp = timestamp;
+		mQuantity = quantity;
+		mPricePerShare = pricePerShare;
+		mVersion = version + 2;
+	}
+
+	/**
+	 * Gets the price of the last trade, with a single read
+	 * @return the price, or NaN if there were no trades
+	 */
+	double getPricePerShare() {
+		return mPricePerShare;
+	}
+
+	/**
+	 * Copies the last trade
+	 * @param lastTrade the holder to copy it to
+	 * @return false if there were no trades, and the holder was not changed
+	 */
+	boolean copyTo(LastTrade lastTrade) {
+		long version;
+		long timestamp;
+		long quantity;
+		double pricePerShare;
+
+		do {
+			version = mVersion;
+			timestamp = mTimestamp;
+			quantity = mQuantity;
+			pricePerShare = mPricePerShare;
+		} while ((version & 1) != 0 || version != mVersion);
+
+		if (version == 0) {
+			return false;
+		}
+
+		lastTrade.set(timestamp, quantity, pricePerShare);
+		return true;
+	}
+}
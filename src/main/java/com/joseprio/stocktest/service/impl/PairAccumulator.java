@@ -0,0 +1,137 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Accumulates a quantity and a notional that always have to be read together,
+ * in the style of LongAdder. The sums are striped across cells to spread
+ * contention; each cell keeps its pair consistent with a sequence number, so
+ * writers never block (a busy cell is skipped for another one) and readers
+ * never see a pair that is half updated.
+ */
+class PairAccumulator {
+	final private static int MAX_CELLS = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+	private volatile Cell[] mCells = { new Cell() };
+
+	/**
+	 * Adds a quantity and a notional
+	 * @param quantity the quantity to add
+	 * @param notional the notional to add
+	 */
+	void add(long quantity, double notional) {
+		Cell[] cells = mCells;
+		int probe = (int)Thread.currentThread().getId() * 0x9E3779B9;
+
+		for (int attempts = 0; ; attempts++) {
+			if (cells[probe & (cells.length - 1)].tryAdd(quantity, notional)) {
+				return;
+			}
+
+			if (attempts >= cells.length && cells.length < MAX_CELLS) {
+				// Every cell we tried was busy, spread further
+				cells = expand(cells);
+			}
+			probe++;
+		}
+	}
+
+	/**
+	 * Gets the accumulated quantity
+	 * @return the quantity
+	 */
+	long getQuantity() {
+		long quantity = 0;
+
+		for (Cell cell : mCells) {
+			quantity += cell.mQuantity;
+		}
+
+		return quantity;
+	}
+
+	/**
+	 * Gets the accumulated notional
+	 * @return the notional
+	 */
+	double getNotional() {
+		double notional = 0.0;
+
+		for (Cell cell : mCells) {
+			notional += cell.mNotional;
+		}
+
+		return notional;
+	}
+
+	/**
+	 * Gets the accumulated notional divided by the accumulated quantity,
+	 * both taken from the same consistent snapshot
+	 * @return the ratio, or NaN if nothing was accumulated
+	 */
+	double getRatio() {
+		long quantity = 0;
+		double notional = 0.0;
+
+		for (Cell cell : mCells) {
+			long version;
+			long cellQuantity;
+			double cellNotional;
+
+			do {
+				version = cell.mVersion;
+				cellQuantity = cell.mQuantity;
+				cellNotional = cell.mNotional;
+			} while ((version & 1) != 0 || version != cell.mVersion);
+
+			quantity += cellQuantity;
+			notional += cellNotional;
+		}
+
+		return notional / quantity;
+	}
+
+	private synchronized Cell[] expand(Cell[] cells) {
+		if (mCells != cells) {
+			// Somebody else did it already
+			return mCells;
+		}
+
+		Cell[] expanded = new Cell[cells.length * 2];
+		System.arraycopy(cells, 0, expanded, 0, cells.length);
+		for (int i = cells.length; i < expanded.length; i++) {
+			expanded[i] = new Cell();
+		}
+		mCells = expanded;
+
+		return expanded;
+	}
+
+	/**
+	 * A stripe of the accumulator; the version is odd while it's being written
+	 */
+	static final class Cell {
+		private static final AtomicLongFieldUpdater<Cell> VERSION = AtomicLongFieldUpdater.newUpdater(Cell.class, "mVersion");
+
+		// Padding to keep cells in different cache lines
+		long p0, p1, p2, p3, p4, p5, p6;
+		volatile long mVersion = 0;
+		volatile long mQuantity = 0;
+		volatile double mNotional = 0.0;
+		long q0, q1, q2, q3, q4, q5, q6;
+
+		boolean tryAdd(long quantity, double notional) {
+			long version = mVersion;
+
+			if ((version & 1) != 0 || !VERSION.compareAndSet(this, version, version + 1)) {
+				return false;
+			}
+
+			mQuantity = mQuantity + quantity;
+			mNotional = mNotional + notional;
+			mVersion = version + 2;
+
+			return true;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Quantile sketch of the prices a stock traded at during a day, in the style
+ * of DDSketch: prices are counted in logarithmic buckets, each covering a
+ * range of prices within {@link #RELATIVE_ACCURACY} of its representative
+ * value, so any quantile is answered within that relative error of the
+ * exact price at the same rank. Memory is fixed, and two sketches merge by
+ * adding their counts. Prices outside [{@link #MIN_PRICE}, {@link #MAX_PRICE}]
+ * fall in the end buckets; the lowest and highest prices are kept exactly.
+ * Trades of a later day clear the sketch, those of an earlier day are left
+ * out. Only the DWH worker of the stock adds trades; readers use an
+ * optimistic read and only wait if a trade got in the middle.
+ */
+class PriceSketch {
+	final static double RELATIVE_ACCURACY = 0.005;
+	final static double MIN_PRICE = 1e-4;
+	final static double MAX_PRICE = 1e6;
+	final private static long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+	final private static double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+	final private static double LOG_GAMMA = Math.log(GAMMA);
+	final private static int MIN_INDEX = indexOf(MIN_PRICE);
+	final private static int BUCKETS = indexOf(MAX_PRICE) - MIN_INDEX + 1;
+
+	private final StampedLock mLock = new StampedLock();
+	private final long[] mCounts = new long[BUCKETS];
+	private long mCount = 0;
+	private long mDay = Long.MIN_VALUE;
+	// Range of buckets in use, so queries don't walk the empty ones
+	private int mLowest = BUCKETS;
+	private int mHighest = -1;
+	private double mMin = Double.NaN;
+	private double mMax = Double.NaN;
+
+	/**
+	 * Adds trades at a price
+	 * @param timestamp the timestamp of the trades
+	 * @param price the price per share
+	 * @param trades the amount of trades, more than one if they were merged
+	 */
+	void add(long timestamp, double price, long trades) {
+		long day = Math.floorDiv(timestamp, DAY_MILLIS);
+		long stamp = mLock.writeLock();
+
+		try {
+			if (day < mDay) {
+				// A trade of a day that's already gone
+				return;
+			}
+			if (day > mDay) {
+				reset(day);
+			}
+
+			int bucket = bucketOf(price);
+			mCounts[bucket] += trades;
+			mCount += trades;
+			mLowest = Math.min(mLowest, bucket);
+			mHighest = Math.max(mHighest, bucket);
+			mMin = (mCount == trades) ? price : Math.min(mMin, price);
+			mMax = (mCount == trades) ? price : Math.max(mMax, price);
+		} finally {
+			mLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Adds the counts of another sketch; if it's from a later day it
+	 * replaces this one, and it's ignored if it's from an earlier day
+	 * @param other the sketch to add, not updated meanwhile
+	 */
+	void merge(PriceSketch other) {
+		long stamp = mLock.writeLock();
+
+		try {
+			if (other.mCount == 0 || other.mDay < mDay) {
+				return;
+			}
+			if (other.mDay > mDay) {
+				reset(other.mDay);
+			}
+
+			for (int bucket = other.mLowest; bucket <= other.mHighest; bucket++) {
+				mCounts[bucket] += other.mCounts[bucket];
+			}
+			mMin = (mCount == 0) ? other.mMin : Math.min(mMin, other.mMin);
+			mMax = (mCount == 0) ? other.mMax : Math.max(mMax, other.mMax);
+			mCount += other.mCount;
+			mLowest = Math.min(mLowest, other.mLowest);
+			mHighest = Math.max(mHighest, other.mHighest);
+		} finally {
+			mLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Estimates the price at a quantile of the trades of a day
+	 * @param quantile from 0 for the lowest price to 1 for the highest
+	 * @param now a timestamp of the day to query
+	 * @return the price, or NaN if there were no trades that day
+	 */
+	double getQuantile(double quantile, long now) {
+		long day = Math.floorDiv(now, DAY_MILLIS);
+		long stamp = mLock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			double price = (mDay == day) ? calculateQuantile(quantile) : Double.NaN;
+			if (mLock.validate(stamp)) {
+				return price;
+			}
+		}
+
+		// A trade was added meanwhile
+		stamp = mLock.readLock();
+		try {
+			return (mDay == day) ? calculateQuantile(quantile) : Double.NaN;
+		} finally {
+			mLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Gets the amount of trades of the current day
+	 * @return the amount of trades
+	 */
+	long getCount() {
+		long stamp = mLock.readLock();
+
+		try {
+			return mCount;
+		} finally {
+			mLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Writes the sketch, with the counts of the buckets in use
+	 * @param out the output to write to
+	 * @throws IOException if the sketch cannot be written
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		long stamp = mLock.readLock();
+
+		try {
+			out.writeLong(mDay);
+			out.writeLong(mCount);
+			out.writeDouble(mMin);
+			out.writeDouble(mMax);
+			out.writeInt(mLowest);
+			out.writeInt(mHighest);
+			for (int bucket = mLowest; bucket <= mHighest; bucket++) {
+				out.writeLong(mCounts[bucket]);
+			}
+		} finally {
+			mLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Replaces the sketch with one written by {@link #writeTo(DataOutput)}
+	 * @param in the input to read from
+	 * @throws IOException if the sketch cannot be read
+	 */
+	void readFrom(DataInput in) throws IOException {
+		long day = in.readLong();
+		long count = in.readLong();
+		double min = in.readDouble();
+		double max = in.readDouble();
+		int lowest = in.readInt();
+		int highest = in.readInt();
+
+		if (highest >= BUCKETS || (highest >= 0 && lowest < 0) || (highest < 0 && count != 0)) {
+			throw new IOException("Invalid price sketch buckets " + lowest + "-" + highest);
+		}
+
+		long stamp = mLock.writeLock();
+		try {
+			reset(day);
+			for (int bucket = lowest; bucket <= highest; bucket++) {
+				mCounts[bucket] = in.readLong();
+			}
+			mCount = count;
+			mMin = min;
+			mMax = max;
+			mLowest = lowest;
+			mHighest = highest;
+		} finally {
+			mLock.unlockWrite(stamp);
+		}
+	}
+
+	private double calculateQuantile(double quantile) {
+		long count = mCount;
+
+		if (count == 0) {
+			return Double.NaN;
+		}
+
+		// Rank of the lower of the two prices around the quantile
+		long rank = (long)(quantile * (count - 1));
+		if (rank == 0) {
+			return mMin;
+		}
+		if (rank == count - 1) {
+			return mMax;
+		}
+
+		long seen = 0;
+		// Torn reads are checked by the caller, just stay within bounds
+		int highest = Math.min(mHighest, BUCKETS - 1);
+		for (int bucket = Math.max(mLowest, 0); bucket <= highest; bucket++) {
+			seen += mCounts[bucket];
+			if (seen > rank) {
+				return Math.max(mMin, Math.min(mMax, valueOf(bucket)));
+			}
+		}
+
+		return mMax;
+	}
+
+	private void reset(long day) {
+		if (mHighest >= 0) {
+			Arrays.fill(mCounts, mLowest, mHighest + 1, 0);
+		}
+		mCount = 0;
+		mDay = day;
+		mLowest = BUCKETS;
+		mHighest = -1;
+		mMin = Double.NaN;
+		mMax = Double.NaN;
+	}
+
+	private static int indexOf(double price) {
+		return (int)Math.ceil(Math.log(price) / LOG_GAMMA);
+	}
+
+	static int bucketOf(double price) {
+		if (!(price > MIN_PRICE)) {
+			return 0;
+		}
+		if (price >= MAX_PRICE) {
+			return BUCKETS - 1;
+		}
+
+		return indexOf(price) - MIN_INDEX;
+	}
+
+	/**
+	 * Gets the representative price of a bucket, within the relative
+	 * accuracy of every price in it
+	 * @param bucket the bucket
+	 * @return the price
+	 */
+	static double valueOf(int bucket) {
+		return 2 * Math.pow(GAMMA, bucket + MIN_INDEX) / (GAMMA + 1);
+	}
+}
@@ -0,0 +1,97 @@
+package com.joseprio.stocktest.service.impl;
+
+/**
+ * Incrementally maintained GBCE All Share Index. The geometric mean is kept as
+ * a running sum of the logarithms of the constituent prices, adjusted only for
+ * the constituents that change; the sum and the constituent count are
+ * published together so they can be read without locking. When the stocks
+ * are split between several writers, each keeps its own partial index and
+ * readers merge them.
+ * Only one thread is expected to update each instance.
+ */
+class ShareIndex {
+	// Recompute the sum from scratch every so often so rounding errors don't build up
+	final private static int RECOMPUTE_INTERVAL = 4096;
+
+	private double mLogSum = 0.0;
+	private int mCount = 0;
+	private int mUpdates = 0;
+	// Published state, the version is odd while it's being written
+	private volatile long mVersion = 0;
+	private volatile double mPublishedLogSum = 0.0;
+	private volatile int mPublishedCount = 0;
+
+	/**
+	 * Replaces the price of a constituent
+	 * @param oldLog the logarithm of the previous price, or NaN for a new constituent
+	 * @param newLog the logarithm of the new price
+	 */
+	void update(double oldLog, double newLog) {
+		if (Double.isNaN(oldLog)) {
+			mCount++;
+		} else {
+			mLogSum -= oldLog;
+		}
+		mLogSum += newLog;
+		mUpdates++;
+	}
+
+	/**
+	 * Tells whether the running sum is due to be recomputed
+	 * @return true if recompute should be called
+	 */
+	boolean needsRecompute() {
+		return mUpdates >= RECOMPUTE_INTERVAL;
+	}
+
+	/**
+	 * Replaces the running sum with one calculated from scratch
+	 * @param logSum the sum of the logarithms of all the constituent prices
+	 * @param count the amount of constituents
+	 */
+	void recompute(double logSum, int count) {
+		mLogSum = logSum;
+		mCount = count;
+		mUpdates = 0;
+	}
+
+	/**
+	 * Makes the current state visible to the readers
+	 */
+	void publish() {
+		long version = mVersion;
+
+		mVersion = version + 1;
+		mPublishedLogSum = mLogSum;
+		mPublishedCount = mCount;
+		mVersion = version + 2;
+	}
+
+	/**
+	 * Gets the index made of all the constituents of several partial indexes,
+	 * as last published by each of them
+	 * @param parts the partial indexes
+	 * @return the index value, or NaN if there are no constituents
+	 */
+	static double merge(ShareIndex[] parts) {
+		double logSum = 0.0;
+		int count = 0;
+
+		for (ShareIndex part : parts) {
+			long version;
+			double partLogSum;
+			int partCount;
+
+			do {
+				version = part.mVersion;
+				partLogSum = part.mPublishedLogSum;
+				partCount = part.mPublishedCount;
+			} while ((version & 1) != 0 || version != part.mVersion);
+
+			logSum += partLogSum;
+			count += partCount;
+		}
+
+		return Math.exp(logSum / count);
+	}
+}
@@ -0,0 +1,109 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.locks.StampedLock;
+
+import com.joseprio.stocktest.common.BarResolution;
+import com.joseprio.stocktest.model.Bars;
+
+/**
+ * OHLCV bars of a stock at every resolution. Only the DWH worker of the
+ * stock adds trades; readers copy the bars with an optimistic read, and only
+ * wait for the writer if it got in the middle of the copy.
+ */
+class StockBars {
+	final private static BarResolution[] RESOLUTIONS = BarResolution.values();
+
+	private final StampedLock mLock = new StampedLock();
+	private final BarRing[] mRings = new BarRing[RESOLUTIONS.length];
+
+	/**
+	 * Creates empty bars for every resolution
+	 */
+	StockBars() {
+		for (BarResolution resolution : RESOLUTIONS) {
+			mRings[resolution.ordinal()] = new BarRing(resolution.getMillis(), resolution.getRetainedBars());
+		}
+	}
+
+	/**
+	 * Adds a trade to the bars of every resolution
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param price the price per share
+	 */
+	void add(long timestamp, long quantity, double price) {
+		long stamp = mLock.writeLock();
+
+		try {
+			for (BarRing ring : mRings) {
+				ring.add(timestamp, quantity, price);
+			}
+		} finally {
+			mLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Copies the most recent bars of a resolution, oldest first
+	 * @param resolution the resolution
+	 * @param count the maximum amount of bars
+	 * @param bars the holder to copy them to; it's cleared first
+	 * @return the amount of bars copied
+	 */
+	int copyLast(BarResolution resolution, int count, Bars bars) {
+		BarRing ring = mRings[resolution.ordinal()];
+		long stamp = mLock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			int copied = ring.copyLast(count, bars);
+			if (mLock.validate(stamp)) {
+				return copied;
+			}
+		}
+
+		// A trade was added meanwhile
+		stamp = mLock.readLock();
+		try {
+			return ring.copyLast(count, bars);
+		} finally {
+			mLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Writes the bars of every resolution
+	 * @param out the output
+	 * @throws IOException if the bars cannot be written
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		long stamp = mLock.readLock();
+
+		try {
+			for (BarRing ring : mRings) {
+				ring.writeTo(out);
+			}
+		} finally {
+			mLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Replaces the bars with the ones written by {@link #writeTo(DataOutput)}
+	 * @param in the input
+	 * @throws IOException if the bars cannot be read
+	 */
+	void readFrom(DataInput in) throws IOException {
+		long stamp = mLock.writeLock();
+
+		try {
+			for (BarRing ring : mRings) {
+				ring.readFrom(in);
+			}
+		} finally {
+			mLock.unlockWrite(stamp);
+		}
+	}
+}
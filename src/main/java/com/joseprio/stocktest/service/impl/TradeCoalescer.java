@@ -0,0 +1,147 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.joseprio.stocktest.model.Stock;
+
+/**
+ * Merges trades per stock while the DWH cannot take them one by one. Each
+ * stock keeps a running delta (quantity, notional, trade count and newest
+ * timestamp) that the DWH thread drains and applies as a single trade.
+ */
+class TradeCoalescer {
+	/**
+	 * Receives the drained deltas
+	 */
+	static interface DeltaHandler {
+		/**
+		 * Applies the merged trades of a stock
+		 * @param stock the stock
+		 * @param timestamp the newest timestamp of the merged trades
+		 * @param quantity the total quantity
+		 * @param notional the total notional
+		 * @param trades the amount of merged trades
+		 */
+		void onDelta(Stock stock, long timestamp, long quantity, double notional, long trades);
+	}
+
+	// Indexed by stock id, replaced when it grows
+	private volatile Delta[] mDeltas = new Delta[0];
+	// Trades merged but not applied yet
+	private final AtomicLong mPending = new AtomicLong(0);
+
+	/**
+	 * Merges a trade into the delta of its stock
+	 * @param stock the traded stock
+	 * @param timestamp the trade timestamp
+	 * @param quantity the quantity of shares
+	 * @param notional the price times the quantity
+	 */
+	void add(Stock stock, long timestamp, long quantity, double notional) {
+		Delta delta = deltaFor(stock);
+
+		synchronized (delta) {
+			delta.mQuantity += quantity;
+			delta.mNotional += notional;
+			delta.mTrades++;
+			if (timestamp > delta.mTimestamp) {
+				delta.mTimestamp = timestamp;
+			}
+		}
+		mPending.incrementAndGet();
+	}
+
+	/**
+	 * Tells whether there are merged trades waiting to be applied
+	 * @return true if drain has something to do
+	 */
+	boolean hasPending() {
+		return mPending.get() != 0;
+	}
+
+	/**
+	 * Gets the amount of merged trades waiting to be applied
+	 * @return the amount of trades
+	 */
+	long getPending() {
+		return mPending.get();
+	}
+
+	/**
+	 * Hands every non empty delta over and resets it; the trades stop being
+	 * pending once the handler returns
+	 * @param handler the handler of the deltas
+	 * @return the amount of trades drained
+	 */
+	long drain(DeltaHandler handler) {
+		long drained = 0;
+
+		for (Delta delta : mDeltas) {
+			if (delta == null) {
+				continue;
+			}
+
+			long timestamp;
+			long quantity;
+			double notional;
+			long trades;
+			synchronized (delta) {
+				timestamp = delta.mTimestamp;
+				quantity = delta.mQuantity;
+				notional = delta.mNotional;
+				trades = delta.mTrades;
+				delta.mTimestamp = Long.MIN_VALUE;
+				delta.mQuantity = 0;
+				delta.mNotional = 0.0;
+				delta.mTrades = 0;
+			}
+
+			if (trades > 0) {
+				handler.onDelta(delta.mStock, timestamp, quantity, notional, trades);
+				mPending.addAndGet(-trades);
+				drained += trades;
+			}
+		}
+
+		return drained;
+	}
+
+	private Delta deltaFor(Stock stock) {
+		Delta[] deltas = mDeltas;
+		int id = stock.getId();
+
+		if (id < deltas.length && deltas[id] != null) {
+			return deltas[id];
+		}
+
+		synchronized (this) {
+			deltas = mDeltas;
+			if (id >= deltas.length) {
+				Delta[] grown = new Delta[Math.max(id + 1, Stock.count())];
+				System.arraycopy(deltas, 0, grown, 0, deltas.length);
+				deltas = grown;
+			}
+			if (deltas[id] == null) {
+				deltas[id] = new Delta(stock);
+			}
+			mDeltas = deltas;
+
+			return deltas[id];
+		}
+	}
+
+	/**
+	 * Pending trades of a stock, guarded by its own lock
+	 */
+	private static final class Delta {
+		final Stock mStock;
+		long mTimestamp = Long.MIN_VALUE;
+		long mQuantity = 0;
+		double mNotional = 0.0;
+		long mTrades = 0;
+
+		Delta(Stock stock) {
+			mStock = stock;
+		}
+	}
+}
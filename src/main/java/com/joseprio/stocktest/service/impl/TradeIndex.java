@@ -0,0 +1,282 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Timestamp ordered index of the trades of a stock, with running totals of
+ * the quantity, notional and amount of trades before each entry, so the
+ * totals of any time range are the difference of the two entries found by
+ * binary search. Notional totals are compensated sums, so the difference of
+ * two large totals keeps its precision. Trades are usually appended; late
+ * ones go to sorted runs of 1, 2, 4... entries, merged like the digits of a
+ * binary counter, so a late trade costs O(log n) amortized and a query does
+ * a binary search per run.
+ * Only one thread adds trades, the DWH worker of the stock or, after a
+ * restore, the rebuild from the trade store; readers use an optimistic
+ * read and only wait if a trade got in the middle.
+ */
+class TradeIndex {
+	final private static int INITIAL_CAPACITY = 256;
+	// Run i holds 2^i late trades, if any
+	final private static int MAX_RUNS = 32;
+
+	private final StampedLock mLock = new StampedLock();
+	// Entry i holds the timestamp of trade i; the totals hold what comes
+	// before trade i, so they have one more entry
+	private long[] mTimestamps = new long[INITIAL_CAPACITY];
+	private long[] mQuantities = new long[INITIAL_CAPACITY + 1];
+	private double[] mNotionals = new double[INITIAL_CAPACITY + 1];
+	private double[] mNotionalErrors = new double[INITIAL_CAPACITY + 1];
+	private long[] mTrades = new long[INITIAL_CAPACITY + 1];
+	private int mSize = 0;
+	private final Run[] mLateRuns = new Run[MAX_RUNS];
+	private int mLateSize = 0;
+
+	/**
+	 * Totals of a time range
+	 */
+	static final class Range {
+		long mQuantity;
+		double mNotional;
+		long mTrades;
+
+		/**
+		 * Gets the volume weighted price of the range
+		 * @return the volume weighted price, or NaN if there are no trades
+		 */
+		double getVolumeWeighted() {
+			return mNotional / mQuantity;
+		}
+	}
+
+	/**
+	 * Adds trades to the index
+	 * @param timestamp the timestamp of the trades
+	 * @param quantity the quantity of shares
+	 * @param notional the traded notional (price * quantity)
+	 * @param trades the amount of trades, more than one if they were merged
+	 */
+	void add(long timestamp, long quantity, double notional, long trades) {
+		long stamp = mLock.writeLock();
+
+		try {
+			if (mSize > 0 && timestamp < mTimestamps[mSize - 1]) {
+				addLate(timestamp, quantity, notional, trades);
+				return;
+			}
+
+			if (mSize == mTimestamps.length) {
+				grow();
+			}
+
+			mTimestamps[mSize] = timestamp;
+			mQuantities[mSize + 1] = mQuantities[mSize] + quantity;
+			mTrades[mSize + 1] = mTrades[mSize] + trades;
+			addNotional(mNotionals, mNotionalErrors, mSize + 1, mNotionals[mSize], mNotionalErrors[mSize], notional);
+			mSize++;
+		} finally {
+			mLock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Adds up the trades with a timestamp in the given range
+	 * @param from the first timestamp of the range
+	 * @param to the timestamp after the last one of the range
+	 * @param range where the totals are written
+	 */
+	void sum(long from, long to, Range range) {
+		long stamp = mLock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			sumUnlocked(from, to, range);
+			if (mLock.validate(stamp)) {
+				return;
+			}
+		}
+
+		// A trade was added meanwhile
+		stamp = mLock.readLock();
+		try {
+			sumUnlocked(from, to, range);
+		} finally {
+			mLock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Gets the amount of indexed entries
+	 * @return the amount of entries
+	 */
+	int size() {
+		return mSize + mLateSize;
+	}
+
+	/**
+	 * Adds a trade older than the last appended one as a new run, merging
+	 * the runs of the same size as it goes up
+	 */
+	private void addLate(long timestamp, long quantity, double notional, long trades) {
+		Run carry = new Run(new long[] { timestamp }, new long[] { quantity }, new double[] { notional }, new long[] { trades });
+		int level = 0;
+
+		while (mLateRuns[level] != null) {
+			carry = Run.merge(mLateRuns[level], carry);
+			mLateRuns[level] = null;
+			level++;
+		}
+		mLateRuns[level] = carry;
+		mLateSize++;
+	}
+
+	private void sumUnlocked(long from, long to, Range range) {
+		long[] timestamps = mTimestamps;
+		long[] quantities = mQuantities;
+		double[] notionals = mNotionals;
+		double[] errors = mNotionalErrors;
+		long[] trades = mTrades;
+		// Torn reads are thrown away, but they must not go out of bounds
+		int totals = Math.min(Math.min(quantities.length, trades.length), Math.min(notionals.length, errors.length));
+		int size = Math.min(mSize, Math.min(timestamps.length, totals - 1));
+
+		if (to <= from) {
+			range.mQuantity = 0;
+			range.mNotional = 0.0;
+			range.mTrades = 0;
+			return;
+		}
+
+		int first = search(timestamps, size, from);
+		int last = search(timestamps, size, to);
+		long quantity = quantities[last] - quantities[first];
+		double notional = notionals[last] - notionals[first];
+		double error = errors[last] - errors[first];
+		long count = trades[last] - trades[first];
+
+		for (Run run : mLateRuns) {
+			if (run != null) {
+				first = search(run.mTimestamps, run.mTimestamps.length, from);
+				last = search(run.mTimestamps, run.mTimestamps.length, to);
+				quantity += run.mQuantities[last] - run.mQuantities[first];
+				notional += run.mNotionals[last] - run.mNotionals[first];
+				error += run.mNotionalErrors[last] - run.mNotionalErrors[first];
+				count += run.mTrades[last] - run.mTrades[first];
+			}
+		}
+
+		range.mQuantity = quantity;
+		range.mNotional = notional + error;
+		range.mTrades = count;
+	}
+
+	/**
+	 * Finds the first entry with a timestamp not below the given one
+	 * @return the entry, or size if there is none
+	 */
+	private static int search(long[] timestamps, int size, long timestamp) {
+		int low = 0;
+		int high = size;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * Sets a notional total to a previous total plus a value, keeping the
+	 * rounding error apart (Neumaier summation)
+	 */
+	private static void addNotional(double[] notionals, double[] errors, int entry, double total, double error, double value) {
+		double sum = total + value;
+
+		if (Math.abs(total) >= Math.abs(value)) {
+			error += (total - sum) + value;
+		} else {
+			error += (value - sum) + total;
+		}
+		notionals[entry] = sum;
+		errors[entry] = error;
+	}
+
+	private void grow() {
+		int capacity = mTimestamps.length * 2;
+
+		// Readers holding the old arrays still see consistent data
+		mTimestamps = Arrays.copyOf(mTimestamps, capacity);
+		mQuantities = Arrays.copyOf(mQuantities, capacity + 1);
+		mNotionals = Arrays.copyOf(mNotionals, capacity + 1);
+		mNotionalErrors = Arrays.copyOf(mNotionalErrors, capacity + 1);
+		mTrades = Arrays.copyOf(mTrades, capacity + 1);
+	}
+
+	/**
+	 * Sorted run of late trades, with its own running totals; never changed
+	 * once built, so readers can use it without further checks
+	 */
+	private static final class Run {
+		final long[] mTimestamps;
+		// The trades themselves, to merge the run with another one
+		final long[] mEntryQuantities;
+		final double[] mEntryNotionals;
+		final long[] mEntryTrades;
+		// Totals before each entry, like the ones of the index
+		final long[] mQuantities;
+		final double[] mNotionals;
+		final double[] mNotionalErrors;
+		final long[] mTrades;
+
+		Run(long[] timestamps, long[] quantities, double[] notionals, long[] trades) {
+			int size = timestamps.length;
+
+			mTimestamps = timestamps;
+			mEntryQuantities = quantities;
+			mEntryNotionals = notionals;
+			mEntryTrades = trades;
+			mQuantities = new long[size + 1];
+			mNotionals = new double[size + 1];
+			mNotionalErrors = new double[size + 1];
+			mTrades = new long[size + 1];
+			for (int i = 0; i < size; i++) {
+				mQuantities[i + 1] = mQuantities[i] + quantities[i];
+				mTrades[i + 1] = mTrades[i] + trades[i];
+				addNotional(mNotionals, mNotionalErrors, i + 1, mNotionals[i], mNotionalErrors[i], notionals[i]);
+			}
+		}
+
+		/**
+		 * Merges two runs, keeping the trades of the older one first when
+		 * the timestamps are equal
+		 */
+		static Run merge(Run older, Run newer) {
+			int size = older.mTimestamps.length + newer.mTimestamps.length;
+			long[] timestamps = new long[size];
+			long[] quantities = new long[size];
+			double[] notionals = new double[size];
+			long[] trades = new long[size];
+			int i = 0;
+			int j = 0;
+
+			for (int k = 0; k < size; k++) {
+				boolean fromOlder = j == newer.mTimestamps.length
+						|| (i < older.mTimestamps.length && older.mTimestamps[i] <= newer.mTimestamps[j]);
+				Run run = fromOlder ? older : newer;
+				int entry = fromOlder ? i++ : j++;
+
+				timestamps[k] = run.mTimestamps[entry];
+				quantities[k] = run.mEntryQuantities[entry];
+				notionals[k] = run.mEntryNotionals[entry];
+				trades[k] = run.mEntryTrades[entry];
+			}
+
+			return new Run(timestamps, quantities, notionals, trades);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.joseprio.stocktest.common.OperationType;
+
+/**
+ * Append-only binary journal of trades, written through memory mapped
+ * segment files. Every trade takes a fixed size record at the position given
+ * by its sequence (its row in the trade store), so writers don't need to
+ * coordinate; the checksum is written last so a record that was cut short
+ * by a crash is detected on replay.
+ */
+class TradeJournal {
+	/**
+	 * Receives the records read back from the journal
+	 */
+	static interface ReplayHandler {
+		/**
+		 * Processes a replayed trade
+		 * @param sequence the sequence of the trade
+		 * @param tickerCode the encoded ticker
+		 * @param timestamp the trade timestamp
+		 * @param type the operation type
+		 * @param quantity the quantity of shares
+		 * @param pricePerShare the price per share
+		 */
+		void onTrade(long sequence, int tickerCode, long timestamp, OperationType type, long quantity, double pricePerShare);
+	}
+
+	final static int RECORD_SIZE = 48;
+	final static int SEGMENT_BITS = 20;
+	final static int RECORDS_PER_SEGMENT = 1 << SEGMENT_BITS;
+	final private static long SEGMENT_SIZE = (long)RECORDS_PER_SEGMENT * RECORD_SIZE;
+	final private static String SEGMENT_PREFIX = "trades-";
+	final private static String SEGMENT_SUFFIX = ".journal";
+	final private static OperationType[] TYPES = OperationType.values();
+
+	// Record layout
+	final private static int SEQUENCE_OFFSET = 0;
+	final private static int TIMESTAMP_OFFSET = 8;
+	final private static int QUANTITY_OFFSET = 16;
+	final private static int PRICE_OFFSET = 24;
+	final private static int TICKER_OFFSET = 32;
+	final private static int TYPE_OFFSET = 36;
+	final private static int CHECKSUM_OFFSET = 40;
+
+	private final File mDirectory;
+	private final HashMap<Long,MappedByteBuffer> mSegments = new HashMap<Long,MappedByteBuffer>();
+	// Most recent segment, to skip the lookup in most appends
+	private volatile Segment mCurrent = new Segment(-1, null);
+
+	/**
+	 * Opens a journal, creating the directory if needed
+	 * @param directory the directory holding the segment files
+	 */
+	TradeJournal(File directory) {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new UncheckedIOException(new IOException("Cannot create journal directory " + directory));
+		}
+		mDirectory = directory;
+	}
+
+	/**
+	 * Writes a trade in the journal
+	 * @param sequence the sequence of the trade
+	 * @param tickerCode the encoded ticker
+	 * @param timestamp the trade timestamp
+	 * @param type the operation type
+	 * @param quantity the quantity of shares
+	 * @param pricePerShare the price per share
+	 */
+	void append(long sequence, int tickerCode, long timestamp, OperationType type, long quantity, double pricePerShare) {
+		MappedByteBuffer segment = segmentFor(sequence >>> SEGMENT_BITS);
+		int offset = (int)(sequence & (RECORDS_PER_SEGMENT - 1)) * RECORD_SIZE;
+		long priceBits = Double.doubleToRawLongBits(pricePerShare);
+
+		// Absolute puts don't touch the buffer position, so concurrent
+		// writers of different records don't interfere
+		segment.putLong(offset + SEQUENCE_OFFSET, sequence);
+		segment.putLong(offset + TIMESTAMP_OFFSET, timestamp);
+		segment.putLong(offset + QUANTITY_OFFSET, quantity);
+		segment.putLong(offset + PRICE_OFFSET, priceBits);
+		segment.putInt(offset + TICKER_OFFSET, tickerCode);
+		segment.put(offset + TYPE_OFFSET, (byte)type.ordinal());
+		segment.putInt(offset + CHECKSUM_OFFSET,
+				checksum(sequence, timestamp, quantity, priceBits, tickerCode, type.ordinal()));
+	}
+
+	/**
+	 * Reads the journal back from the start, up to the first record that is
+	 * missing or damaged; whatever was written after it is discarded so new
+	 * records can take its place
+	 * @param handler the handler of the replayed trades
+	 * @return the amount of trades replayed, which is the next sequence
+	 */
+	long replay(ReplayHandler handler) {
+		long sequence = 0;
+
+		// Each segment is looked up and mapped once, the records in it are
+		// read at consecutive offsets
+		for (long index = 0; segmentFile(index).exists(); index++) {
+			MappedByteBuffer segment = segmentFor(index);
+			int offset = 0;
+
+			for (; offset < SEGMENT_SIZE; offset += RECORD_SIZE, sequence++) {
+				long timestamp = segment.getLong(offset + TIMESTAMP_OFFSET);
+				long quantity = segment.getLong(offset + QUANTITY_OFFSET);
+				long priceBits = segment.getLong(offset + PRICE_OFFSET);
+				int tickerCode = segment.getInt(offset + TICKER_OFFSET);
+				int type = segment.get(offset + TYPE_OFFSET);
+
+				if (segment.getLong(offset + SEQUENCE_OFFSET) != sequence
+						|| type < 0 || type >= TYPES.length
+						|| segment.getInt(offset + CHECKSUM_OFFSET) != checksum(sequence, timestamp, quantity, priceBits, tickerCode, type)) {
+					// End of the journal
+					break;
+				}
+
+				handler.onTrade(sequence, tickerCode, timestamp, TYPES[type], quantity, Double.longBitsToDouble(priceBits));
+			}
+
+			if (offset < SEGMENT_SIZE) {
+				break;
+			}
+		}
+
+		truncate(sequence);
+
+		return sequence;
+	}
+
+	/**
+	 * Flushes all the written records to the storage device
+	 */
+	synchronized void force() {
+		for (MappedByteBuffer segment : mSegments.values()) {
+			segment.force();
+		}
+	}
+
+	/**
+	 * Removes every record from the given sequence on
+	 * @param sequence the first sequence to remove
+	 */
+	private void truncate(long sequence) {
+		long index = sequence >>> SEGMENT_BITS;
+
+		if (segmentFile(index).exists()) {
+			MappedByteBuffer segment = segmentFor(index);
+			int from = (int)(sequence & (RECORDS_PER_SEGMENT - 1)) * RECORD_SIZE;
+			for (int offset = from; offset < SEGMENT_SIZE; offset += RECORD_SIZE) {
+				if (segment.getInt(offset + CHECKSUM_OFFSET) != 0) {
+					// Only touch the pages that were written
+					for (int field = 0; field < RECORD_SIZE; field += 8) {
+						segment.putLong(offset + field, 0);
+					}
+				}
+			}
+		}
+
+		File[] files = mDirectory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.getName().compareTo(segmentFile(index).getName()) > 0 && !file.delete()) {
+					throw new UncheckedIOException(new IOException("Cannot remove journal segment " + file));
+				}
+			}
+		}
+	}
+
+	private MappedByteBuffer segmentFor(long index) {
+		Segment current = mCurrent;
+
+		if (current.mIndex == index) {
+			return current.mBuffer;
+		}
+
+		return mapSegment(index);
+	}
+
+	private synchronized MappedByteBuffer mapSegment(long index) {
+		MappedByteBuffer segment = mSegments.get(index);
+
+		if (segment == null) {
+			try (RandomAccessFile file = new RandomAccessFile(segmentFile(index), "rw")) {
+				// The mapping stays valid after the file is closed
+				segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+			} catch (IOException ioex) {
+				throw new UncheckedIOException(ioex);
+			}
+			mSegments.put(index, segment);
+
+			// Keep only the previous segment mapped, for writers that are late
+			MappedByteBuffer old = mSegments.remove(index - 2);
+			if (old != null) {
+				old.force();
+			}
+		}
+
+		if (index > mCurrent.mIndex) {
+			// Rolled over to a new segment
+			mCurrent = new Segment(index, segment);
+		}
+
+		return segment;
+	}
+
+	private File segmentFile(long index) {
+		return new File(mDirectory, String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+	}
+
+	private static int checksum(long sequence, long timestamp, long quantity, long priceBits, int tickerCode, int type) {
+		long hash = 0x9E3779B97F4A7C15L;
+
+		hash = mix(hash ^ sequence);
+		hash = mix(hash ^ timestamp);
+		hash = mix(hash ^ quantity);
+		hash = mix(hash ^ priceBits);
+		hash = mix(hash ^ (((long)tickerCode << 8) | type));
+
+		int checksum = (int)(hash ^ (hash >>> 32));
+		// Zero is what an unwritten record holds
+		return (checksum == 0) ? 1 : checksum;
+	}
+
+	private static long mix(long value) {
+		value *= 0xBF58476D1CE4E5B9L;
+		return value ^ (value >>> 31);
+	}
+
+	/**
+	 * A mapped segment together with its index
+	 */
+	private static final class Segment {
+		final long mIndex;
+		final MappedByteBuffer mBuffer;
+
+		Segment(long index, MappedByteBuffer buffer) {
+			mIndex = index;
+			mBuffer = buffer;
+		}
+	}
+}
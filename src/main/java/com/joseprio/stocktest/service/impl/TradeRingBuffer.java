@@ -0,0 +1,383 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.model.TradeBatch;
+
+/**
+ * Preallocated ring of trade slots used to hand trades over to a single
+ * consumer thread. Producers claim slots with a single atomic increment and
+ * publish them by stamping the slot with its sequence; the consumer drains
+ * all the consecutive published slots in one batch.
+ */
+class TradeRingBuffer {
+	/**
+	 * Receives the batches drained by the consumer thread
+	 */
+	static interface BatchHandler {
+		/**
+		 * Processes the slots in the given sequence range; if it throws, the
+		 * whole range still counts as processed
+		 * @param ring the ring holding the slots
+		 * @param from the first sequence of the batch
+		 * @param to the sequence after the last one of the batch
+		 */
+		void onBatch(TradeRingBuffer ring, long from, long to);
+	}
+
+	final private static long MAX_IDLE_NANOS = 1000000; // 1 millisecond
+
+	private final int mMask;
+	private final Stock[] mStocks;
+	private final long[] mTimestamps;
+	private final OperationType[] mTypes;
+	private final long[] mQuantities;
+	private final double[] mPrices;
+	// Row of each trade in the trade store, -1 if it's not stored
+	private final long[] mRows;
+	// Sequence of the trade that was last published in each slot
+	private final AtomicLongArray mPublished;
+
+	private final AtomicLong mClaimed = new AtomicLong(0);
+	// All sequences below this one have been processed
+	private volatile long mConsumed = 0;
+	// Batches for which the handler threw
+	private volatile long mFailedBatches = 0;
+	private volatile boolean mConsumerIdle = false;
+	private volatile boolean mRunning = true;
+
+	private final BatchHandler mHandler;
+	private final Runnable mIdleHandler;
+	private final Thread mConsumer;
+
+	/**
+	 * Creates the ring and starts its consumer thread
+	 * @param capacity the amount of slots, has to be a power of two
+	 * @param name the name of the consumer thread
+	 * @param handler the handler of the drained batches
+	 */
+	TradeRingBuffer(int capacity, String name, BatchHandler handler) {
+		this(capacity, name, handler, null);
+	}
+
+	/**
+	 * Creates the ring and starts its consumer thread
+	 * @param capacity the amount of slots, has to be a power of two
+	 * @param name the name of the consumer thread
+	 * @param handler the handler of the drained batches
+	 * @param idleHandler called by the consumer thread whenever it finds nothing to do, can be null
+	 */
+	TradeRingBuffer(int capacity, String name, BatchHandler handler, Runnable idleHandler) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("The capacity has to be a power of two");
+		}
+
+		mMask = capacity - 1;
+		mStocks = new Stock[capacity];
+		mTimestamps = new long[capacity];
+		mTypes = new OperationType[capacity];
+		mQuantities = new long[capacity];
+		mPrices = new double[capacity];
+		mRows = new long[capacity];
+		mPublished = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			mPublished.set(i, -1);
+		}
+
+		mHandler = handler;
+		mIdleHandler = idleHandler;
+		mConsumer = new Thread(this::consume, name);
+		mConsumer.setDaemon(true);
+		mConsumer.start();
+	}
+
+	/**
+	 * Copies a trade into the next free slot and publishes it, waiting if
+	 * the ring is full
+	 * @param stock the traded stock
+	 * @param timestamp the trade timestamp
+	 * @param quantity the quantity of shares
+	 * @param type the operation type
+	 * @param pricePerShare the price per share
+	 */
+	void publish(Stock stock, long timestamp, long quantity, OperationType type, double pricePerShare) {
+		publish(stock, timestamp, quantity, type, pricePerShare, -1);
+	}
+
+	/**
+	 * Copies a trade into the next free slot and publishes it, waiting if
+	 * the ring is full
+	 * @param stock the traded stock
+	 * @param timestamp the trade timestamp
+	 * @param quantity the quantity of shares
+	 * @param type the operation type
+	 * @param pricePerShare the price per share
+	 * @param row the row of the trade in the trade store, -1 if it's not stored
+	 */
+	void publish(Stock stock, long timestamp, long quantity, OperationType type, double pricePerShare, long row) {
+		long sequence = mClaimed.getAndIncrement();
+
+		while (sequence - mConsumed >= mStocks.length) {
+			// Full, wait for the consumer to free the slot
+			LockSupport.parkNanos(1);
+		}
+
+		int slot = (int)sequence & mMask;
+		mStocks[slot] = stock;
+		mTimestamps[slot] = timestamp;
+		mQuantities[slot] = quantity;
+		mTypes[slot] = type;
+		mPrices[slot] = pricePerShare;
+		mRows[slot] = row;
+		mPublished.lazySet(slot, sequence);
+
+		if (mConsumerIdle) {
+			LockSupport.unpark(mConsumer);
+		}
+	}
+
+	/**
+	 * Copies a trade into the next free slot and publishes it, unless the
+	 * ring is full
+	 * @param stock the traded stock
+	 * @param timestamp the trade timestamp
+	 * @param quantity the quantity of shares
+	 * @param type the operation type
+	 * @param pricePerShare the price per share
+	 * @return false if the ring was full and nothing was published
+	 */
+	boolean tryPublish(Stock stock, long timestamp, long quantity, OperationType type, double pricePerShare) {
+		return tryPublish(stock, timestamp, quantity, type, pricePerShare, -1);
+	}
+
+	/**
+	 * Copies a trade into the next free slot and publishes it, unless the
+	 * ring is full
+	 * @param stock the traded stock
+	 * @param timestamp the trade timestamp
+	 * @param quantity the quantity of shares
+	 * @param type the operation type
+	 * @param pricePerShare the price per share
+	 * @param row the row of the trade in the trade store, -1 if it's not stored
+	 * @return false if the ring was full and nothing was published
+	 */
+	boolean tryPublish(Stock stock, long timestamp, long quantity, OperationType type, double pricePerShare, long row) {
+		long sequence;
+
+		do {
+			sequence = mClaimed.get();
+			if (sequence - mConsumed >= mStocks.length) {
+				return false;
+			}
+		} while (!mClaimed.compareAndSet(sequence, sequence + 1));
+
+		int slot = (int)sequence & mMask;
+		mStocks[slot] = stock;
+		mTimestamps[slot] = timestamp;
+		mQuantities[slot] = quantity;
+		mTypes[slot] = type;
+		mPrices[slot] = pricePerShare;
+		mRows[slot] = row;
+		mPublished.lazySet(slot, sequence);
+
+		if (mConsumerIdle) {
+			LockSupport.unpark(mConsumer);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Copies the valid trades of a batch into consecutive slots and publishes
+	 * them, so the consumer gets them together; batches larger than the ring
+	 * are handed over in parts
+	 * @param batch the validated batch
+	 */
+	void publish(TradeBatch batch) {
+		publish(batch, 0, 1);
+	}
+
+	/**
+	 * Same as {@link #publish(TradeBatch)}, but only for the trades of the
+	 * stocks whose id falls in the given partition
+	 * @param batch the validated batch
+	 * @param partition the partition of the stocks to publish
+	 * @param partitions the amount of partitions, stocks are assigned by id modulo this
+	 */
+	void publish(TradeBatch batch, int partition, int partitions) {
+		publish(batch, partition, partitions, -1);
+	}
+
+	/**
+	 * Same as {@link #publish(TradeBatch, int, int)}, keeping track of the
+	 * rows of the trades in the trade store
+	 * @param batch the validated batch
+	 * @param partition the partition of the stocks to publish
+	 * @param partitions the amount of partitions, stocks are assigned by id modulo this
+	 * @param firstRow the row of the first valid trade of the batch in the
+	 * trade store, the others follow it; -1 if they are not stored
+	 */
+	void publish(TradeBatch batch, int partition, int partitions, long firstRow) {
+		int row = 0;
+		long storeRow = firstRow;
+		int remaining = 0;
+
+		for (int i = 0; i < batch.size(); i++) {
+			if (isPublished(batch, i, partition, partitions)) {
+				remaining++;
+			}
+		}
+
+		while (remaining > 0) {
+			int count = Math.min(remaining, mStocks.length);
+			long first = mClaimed.getAndAdd(count);
+			long last = first + count - 1;
+
+			while (last - mConsumed >= mStocks.length) {
+				// Not enough room, wait for the consumer
+				LockSupport.parkNanos(1);
+			}
+
+			for (long sequence = first; sequence <= last; sequence++, row++, storeRow++) {
+				while (!isPublished(batch, row, partition, partitions)) {
+					// Other partitions' trades still take a row in the store
+					if (!batch.isRejected(row)) {
+						storeRow++;
+					}
+					row++;
+				}
+
+				int slot = (int)sequence & mMask;
+				mStocks[slot] = batch.getStock(row);
+				mTimestamps[slot] = batch.getTimestamp(row);
+				mQuantities[slot] = batch.getQuantity(row);
+				mTypes[slot] = batch.getType(row);
+				mPrices[slot] = batch.getPricePerShare(row);
+				mRows[slot] = (firstRow < 0) ? -1 : storeRow;
+				mPublished.lazySet(slot, sequence);
+			}
+			remaining -= count;
+
+			if (mConsumerIdle) {
+				LockSupport.unpark(mConsumer);
+			}
+		}
+	}
+
+	private static boolean isPublished(TradeBatch batch, int row, int partition, int partitions) {
+		return !batch.isRejected(row) && batch.getStock(row).getId() % partitions == partition;
+	}
+
+	Stock getStock(long sequence) {
+		return mStocks[(int)sequence & mMask];
+	}
+
+	long getTimestamp(long sequence) {
+		return mTimestamps[(int)sequence & mMask];
+	}
+
+	long getQuantity(long sequence) {
+		return mQuantities[(int)sequence & mMask];
+	}
+
+	OperationType getType(long sequence) {
+		return mTypes[(int)sequence & mMask];
+	}
+
+	double getPrice(long sequence) {
+		return mPrices[(int)sequence & mMask];
+	}
+
+	long getRow(long sequence) {
+		return mRows[(int)sequence & mMask];
+	}
+
+	/**
+	 * Gets the amount of trades that were published so far
+	 * @return the published trades
+	 */
+	long getPublished() {
+		return mClaimed.get();
+	}
+
+	/**
+	 * Gets the amount of slots
+	 * @return the capacity
+	 */
+	int getCapacity() {
+		return mStocks.length;
+	}
+
+	/**
+	 * Gets the amount of trades that were processed so far
+	 * @return the processed trades
+	 */
+	long getConsumed() {
+		return mConsumed;
+	}
+
+	/**
+	 * Gets the amount of batches the handler failed to process
+	 * @return the failed batches
+	 */
+	long getFailedBatches() {
+		return mFailedBatches;
+	}
+
+	/**
+	 * Waits until every trade published before the call has been processed
+	 */
+	void flush() {
+		long target = mClaimed.get();
+
+		while (mConsumed < target) {
+			LockSupport.parkNanos(1000);
+		}
+	}
+
+	private void consume() {
+		long next = mConsumed;
+		long idleNanos = 0;
+
+		while (mRunning) {
+			long end = next;
+			while (end - next <= mMask && mPublished.get((int)end & mMask) == end) {
+				end++;
+			}
+
+			if (end == next) {
+				// Nothing to do, back off progressively
+				if (mIdleHandler != null) {
+					try {
+						mIdleHandler.run();
+					} catch (RuntimeException rex) {
+						rex.printStackTrace();
+					}
+				}
+				mConsumerIdle = true;
+				if (mPublished.get((int)next & mMask) != next) {
+					idleNanos = Math.min(MAX_IDLE_NANOS, idleNanos * 2 + 1000);
+					LockSupport.parkNanos(idleNanos);
+				}
+				mConsumerIdle = false;
+				continue;
+			}
+			idleNanos = 0;
+
+			try {
+				mHandler.onBatch(this, next, end);
+			} catch (RuntimeException rex) {
+				// Don't let a bad batch stop the consumer
+				mFailedBatches++;
+				rex.printStackTrace();
+			}
+
+			next = end;
+			mConsumed = end;
+		}
+	}
+}
@@ -1,15 +1,54 @@
 package com.joseprio.stocktest.service.impl;
 
+import java.io.File;
+
+import com.joseprio.stocktest.common.Constants;
 import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.common.RejectionReason;
+import com.joseprio.stocktest.metrics.Counter;
+import com.joseprio.stocktest.metrics.Histogram;
+import com.joseprio.stocktest.metrics.MetricsRegistry;
 import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.model.TradeBatch;
 import com.joseprio.stocktest.model.TradeRecord;
+import com.joseprio.stocktest.model.TradeStore;
+import com.joseprio.stocktest.service.DWHService;
 import com.joseprio.stocktest.service.DWHServiceFactory;
+import com.joseprio.stocktest.service.TimeProviderFactory;
 import com.joseprio.stocktest.service.TradeService;
 
 /**
  * Implementation of the TradeService interface
  */
 public class TradeServiceImpl implements TradeService {
+	private TradeStore store = TradeRecord.getStore();
+	private DWHService dwhService = DWHServiceFactory.getInstance();
+	private TradeJournal journal = null;
+
+	// Only one trade out of this many is timed, to keep the cost down
+	final private static long TIMING_SAMPLE_MASK = 64 - 1;
+	private final Histogram recordNanos;
+	private final Counter rejectedTrades;
+	private final Histogram batchSizes;
+
+	/**
+	 * Creates the service; if a journal directory is configured, the trades
+	 * in it are replayed first
+	 */
+	public TradeServiceImpl() {
+		MetricsRegistry metrics = MetricsRegistry.getInstance();
+		
+		recordNanos = metrics.histogram("trade.record.nanos");
+		rejectedTrades = metrics.counter("trade.rejected");
+		batchSizes = metrics.histogram("trade.batch.size");
+		metrics.gauge("trade.stored", store::size);
+		
+		String journalDirectory = System.getProperty(Constants.JOURNAL_DIR_PROPERTY);
+		
+		if (journalDirectory != null) {
+			openJournal(new File(journalDirectory));
+		}
+	}
 
 	/* (non-Javadoc)
 	 * @see com.joseprio.stocktest.service.TradeService#recordTrade(java.lang.String, long, long, com.joseprio.stocktest.common.OperationType, double)
@@ -19,22 +58,115 @@ public class TradeServiceImpl implements TradeService {
 							long quantity,
 							OperationType type,
 							double pricePerShare) {
-		TradeRecord.Builder builder = new TradeRecord.Builder();
-		builder.timestamp(timestamp)
-			.stock(Stock.byTicker(ticker))
-			.quantity(quantity)
-			.price(pricePerShare)
-			.type(type);
-		TradeRecord record = builder.make();
+		boolean timed = (store.size() & TIMING_SAMPLE_MASK) == 0;
+		long start = timed ? System.nanoTime() : 0;
+		
+		// Validate inline and go straight to the column store and the DWH
+		// ring, so recording a trade doesn't create any object
+		Stock stock = Stock.byTicker(ticker);
+		RejectionReason reason = TradeRecord.check(stock, timestamp, quantity, type, pricePerShare,
+				TimeProviderFactory.getInstance().currentTimeMillis());
+		if (reason != null) {
+			rejectedTrades.increment();
+			throw new IllegalArgumentException(reason.getMessage());
+		}
 
-		// TODO: Do all necessary validations and notifications
+		// Store in persistance layer
+		long sequence = store.append(stock, timestamp, type, quantity, pricePerShare);
+		
+		// Make it durable
+		if (journal != null) {
+			journal.append(sequence, stock.getCode(), timestamp, type, quantity, pricePerShare);
+		}
+		
+		// Notify the DWH layer
+		dwhService.notifyTrade(stock, timestamp, quantity, type, pricePerShare, sequence);
+		
+		if (timed) {
+			recordNanos.record(System.nanoTime() - start);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.joseprio.stocktest.service.TradeService#recordTrades(com.joseprio.stocktest.model.TradeBatch)
+	 */
+	public int recordTrades(TradeBatch batch) {
+		int accepted = batch.validate(TimeProviderFactory.getInstance().currentTimeMillis());
+		
+		batchSizes.record(batch.size());
+		rejectedTrades.add(batch.size() - accepted);
+		
+		if (accepted == 0) {
+			return 0;
+		}
 		
 		// Store in persistance layer
-		TradeRecord.store(record);
+		long firstSequence = store.append(batch);
+		
+		// Make it durable
+		if (journal != null) {
+			long sequence = firstSequence;
+			for (int row = 0; row < batch.size(); row++) {
+				if (!batch.isRejected(row)) {
+					journal.append(sequence++, batch.getStock(row).getCode(), batch.getTimestamp(row),
+							batch.getType(row), batch.getQuantity(row), batch.getPricePerShare(row));
+				}
+			}
+		}
 		
 		// Notify the DWH layer
-		DWHServiceFactory.getInstance().notifyTrade(record);
+		dwhService.notifyTrades(batch, firstSequence);
+		
+		return accepted;
+	}
+	
+	/**
+	 * Opens the journal and replays it into the trade store and the DWH
+	 * @param directory the journal directory
+	 */
+	private void openJournal(File directory) {
+		if (store.size() != 0) {
+			// Sequences are store rows, so they have to start from scratch
+			throw new IllegalStateException("The journal can only be replayed into an empty trade store");
+		}
+		
+		TradeJournal newJournal = new TradeJournal(directory);
+		newJournal.replay((sequence, tickerCode, timestamp, type, quantity, pricePerShare) -> {
+			Stock stock = Stock.byCode(tickerCode);
+			
+			if (stock == null) {
+				// Stop before the journal gets truncated
+				throw new IllegalStateException("The journal contains an unknown ticker " + Stock.decodeTicker(tickerCode));
+			}
+			
+			store.append(stock, timestamp, type, quantity, pricePerShare);
+		});
+		
+		// The DWH only needs the trades that are not in its last snapshot
+		long recovered = 0;
+		DWHServiceImpl restored = null;
+		if (dwhService instanceof DWHServiceImpl) {
+			restored = (DWHServiceImpl)dwhService;
+			recovered = restored.restoreSnapshot(directory, store.size());
+		}
+		
+		TradeStore.Cursor cursor = store.cursor(recovered);
+		while (cursor.next()) {
+			if (restored != null && restored.isApplied(cursor.getRow())) {
+				// Applied out of order before the snapshot was taken
+				continue;
+			}
+			dwhService.notifyTrade(cursor.getStock(),
+					cursor.getTimestamp(),
+					cursor.getQuantity(),
+					cursor.getType(),
+					cursor.getPricePerShare(),
+					cursor.getRow());
+		}
 		
+		// Make sure everything reaches the disk on a clean exit
+		Runtime.getRuntime().addShutdownHook(new Thread(newJournal::force));
+		journal = newJournal;
 	}
 
 }
@@ -0,0 +1,220 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Sliding window with the traded quantity and notional of the last period.
+ * The window is split in a ring of fixed time buckets that keep running sums,
+ * and the window keeps the total of all its live buckets, so queries cost the
+ * same regardless of the amount of trades that were recorded.
+ * Buckets are assigned by the trade timestamp (event time), so late trades
+ * fold into the bucket they belong to as long as it's still in the ring.
+ */
+class VolumeWindow {
+	private final long mBucketMillis;
+	private final long[] mQuantities;
+	private final double[] mNotionals;
+
+	// Index of the most recent bucket in the ring
+	private long mHeadBucket = -1;
+	private long mQuantity = 0;
+	private double mNotional = 0.0;
+
+	/**
+	 * Creates a new window
+	 * @param windowMillis the length of the window
+	 * @param bucketMillis the length of each bucket (the window resolution)
+	 */
+	VolumeWindow(long windowMillis, long bucketMillis) {
+		int bucketCount = (int)((windowMillis + bucketMillis - 1) / bucketMillis);
+
+		mBucketMillis = bucketMillis;
+		mQuantities = new long[bucketCount];
+		mNotionals = new double[bucketCount];
+	}
+
+	/**
+	 * Adds a trade to the window; trades older than the window are ignored
+	 * @param timestamp the timestamp of the trade
+	 * @param quantity the quantity of shares
+	 * @param notional the traded notional (price * quantity)
+	 */
+	synchronized void add(long timestamp, long quantity, double notional) {
+		long bucket = timestamp / mBucketMillis;
+
+		rotate(bucket);
+
+		if (bucket <= mHeadBucket - mQuantities.length) {
+			// Already out of the window
+			return;
+		}
+
+		int slot = slot(bucket);
+		mQuantities[slot] += quantity;
+		mNotionals[slot] += notional;
+		mQuantity += quantity;
+		mNotional += notional;
+	}
+
+	/**
+	 * Gets the volume weighted price of the window ending at the given time
+	 * @param now the current timestamp
+	 * @return the volume weighted price, or NaN if there are no trades
+	 */
+	synchronized double getVolumeWeighted(long now) {
+		rotate(now / mBucketMillis);
+
+		return mNotional / mQuantity;
+	}
+
+	/**
+	 * Adds the totals of the window ending at the given time to an
+	 * accumulator, so several windows can be combined
+	 * @param now the current timestamp
+	 * @param totals the accumulator
+	 */
+	synchronized void addTotalsTo(long now, Totals totals) {
+		rotate(now / mBucketMillis);
+
+		totals.mQuantity += mQuantity;
+		totals.mNotional += mNotional;
+	}
+
+	/**
+	 * Adds every trade in another window to this one, bucket by bucket
+	 * @param other the window to add, with the same bucket length
+	 */
+	void addAll(VolumeWindow other) {
+		long headBucket;
+		long[] quantities;
+		double[] notionals;
+
+		synchronized (other) {
+			headBucket = other.mHeadBucket;
+			quantities = other.mQuantities.clone();
+			notionals = other.mNotionals.clone();
+		}
+
+		for (long bucket = headBucket - quantities.length + 1; bucket <= headBucket; bucket++) {
+			int slot = (int)(bucket % quantities.length);
+			if (bucket >= 0 && quantities[slot] != 0) {
+				add(bucket * other.mBucketMillis, quantities[slot], notionals[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Adds the quantity of every bucket to a heavy hitters tracker
+	 * @param hitters the tracker
+	 * @param id the id of the stock of this window
+	 */
+	synchronized void addTo(HeavyHitters hitters, int id) {
+		for (long bucket = mHeadBucket - mQuantities.length + 1; bucket <= mHeadBucket; bucket++) {
+			if (bucket >= 0 && mQuantities[slot(bucket)] != 0) {
+				hitters.add(id, bucket * mBucketMillis, mQuantities[slot(bucket)]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the window state, skipping the empty buckets
+	 * @param out the output to write to
+	 * @throws IOException if the state cannot be written
+	 */
+	synchronized void writeTo(DataOutput out) throws IOException {
+		int used = 0;
+		for (int slot = 0; slot < mQuantities.length; slot++) {
+			if (mQuantities[slot] != 0) {
+				used++;
+			}
+		}
+
+		out.writeLong(mHeadBucket);
+		out.writeInt(used);
+		for (int slot = 0; slot < mQuantities.length; slot++) {
+			if (mQuantities[slot] != 0) {
+				out.writeInt(slot);
+				out.writeLong(mQuantities[slot]);
+				out.writeDouble(mNotionals[slot]);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the window state with one written by {@link #writeTo(DataOutput)}
+	 * @param in the input to read from
+	 * @throws IOException if the state cannot be read
+	 */
+	synchronized void readFrom(DataInput in) throws IOException {
+		long headBucket = in.readLong();
+		int used = in.readInt();
+
+		mHeadBucket = headBucket;
+		mQuantity = 0;
+		mNotional = 0.0;
+		for (int slot = 0; slot < mQuantities.length; slot++) {
+			mQuantities[slot] = 0;
+			mNotionals[slot] = 0.0;
+		}
+
+		for (int i = 0; i < used; i++) {
+			int slot = in.readInt();
+			if (slot < 0 || slot >= mQuantities.length) {
+				throw new IOException("Bucket out of range");
+			}
+			mQuantities[slot] = in.readLong();
+			mNotionals[slot] = in.readDouble();
+			mQuantity += mQuantities[slot];
+			mNotional += mNotionals[slot];
+		}
+	}
+
+	/**
+	 * Moves the head of the ring to the given bucket, expiring the buckets
+	 * that fall out of the window
+	 * @param bucket the new head bucket
+	 */
+	private void rotate(long bucket) {
+		if (bucket <= mHeadBucket) {
+			return;
+		}
+
+		// No need to go through the ring more than once
+		long first = Math.max(mHeadBucket + 1, bucket - mQuantities.length + 1);
+		for (long b = first; b <= bucket; b++) {
+			int slot = slot(b);
+			mQuantity -= mQuantities[slot];
+			mNotional -= mNotionals[slot];
+			mQuantities[slot] = 0;
+			mNotionals[slot] = 0.0;
+		}
+		mHeadBucket = bucket;
+
+		if (mQuantity == 0) {
+			// Get rid of any accumulated rounding error
+			mNotional = 0.0;
+		}
+	}
+
+	private int slot(long bucket) {
+		return (int)(bucket % mQuantities.length);
+	}
+
+	/**
+	 * Quantity and notional added up from several windows
+	 */
+	static final class Totals {
+		long mQuantity = 0;
+		double mNotional = 0.0;
+
+		/**
+		 * Gets the volume weighted price of the added windows
+		 * @return the volume weighted price, or NaN if there are no trades
+		 */
+		double getVolumeWeighted() {
+			return mNotional / mQuantity;
+		}
+	}
+}
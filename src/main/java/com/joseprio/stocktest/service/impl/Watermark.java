@@ -0,0 +1,126 @@
+package com.joseprio.stocktest.service.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Event time watermark of the trade feed. The watermark trails the highest
+ * trade timestamp seen by the allowed lateness; trades behind the highest
+ * timestamp are late, and trades behind the watermark are too late to be
+ * added to the time windows.
+ */
+class Watermark {
+	private volatile long mAllowedLateness;
+	private final AtomicLong mMaxEventTime = new AtomicLong(0);
+	private final AtomicLong mLateTrades = new AtomicLong(0);
+	private final AtomicLong mDroppedTrades = new AtomicLong(0);
+	private final AtomicLong mMaxLateness = new AtomicLong(0);
+
+	/**
+	 * Creates a new watermark
+	 * @param allowedLateness the time a trade can lag behind the newest one
+	 * and still be accepted
+	 */
+	Watermark(long allowedLateness) {
+		mAllowedLateness = allowedLateness;
+	}
+
+	/**
+	 * Registers the timestamp of an incoming trade
+	 * @param timestamp the trade timestamp
+	 * @return false if the trade is behind the watermark and has to be dropped
+	 */
+	boolean accept(long timestamp) {
+		long maxEventTime = mMaxEventTime.accumulateAndGet(timestamp, Math::max);
+
+		if (timestamp == maxEventTime) {
+			// On time
+			return true;
+		}
+
+		long lateness = maxEventTime - timestamp;
+		mMaxLateness.accumulateAndGet(lateness, Math::max);
+
+		if (lateness > mAllowedLateness) {
+			mDroppedTrades.incrementAndGet();
+			return false;
+		}
+
+		mLateTrades.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Changes the allowed lateness, keeping the highest trade timestamp seen
+	 * and resetting the lateness counters
+	 * @param allowedLateness the time a trade can lag behind the newest one
+	 * and still be accepted
+	 */
+	void setAllowedLateness(long allowedLateness) {
+		mAllowedLateness = allowedLateness;
+		mLateTrades.set(0);
+		mDroppedTrades.set(0);
+		mMaxLateness.set(0);
+	}
+
+	/**
+	 * Restores the state of a previous watermark
+	 * @param maxEventTime the highest trade timestamp seen
+	 * @param lateTrades the amount of late trades accepted
+	 * @param droppedTrades the amount of trades dropped
+	 * @param maxLateness the highest lateness seen
+	 */
+	void restore(long maxEventTime, long lateTrades, long droppedTrades, long maxLateness) {
+		mMaxEventTime.set(maxEventTime);
+		mLateTrades.set(lateTrades);
+		mDroppedTrades.set(droppedTrades);
+		mMaxLateness.set(maxLateness);
+	}
+
+	/**
+	 * Gets the highest trade timestamp seen so far
+	 * @return the highest timestamp
+	 */
+	long getMaxEventTime() {
+		return mMaxEventTime.get();
+	}
+
+	/**
+	 * Gets the allowed lateness
+	 * @return the allowed lateness in milliseconds
+	 */
+	long getAllowedLateness() {
+		return mAllowedLateness;
+	}
+
+	/**
+	 * Gets the current watermark
+	 * @return the timestamp below which trades are dropped
+	 */
+	long get() {
+		return mMaxEventTime.get() - mAllowedLateness;
+	}
+
+	/**
+	 * Gets the amount of late trades that were accepted
+	 * @return the accepted late trades
+	 */
+	long getLateTrades() {
+		return mLateTrades.get();
+	}
+
+	/**
+	 * Gets the amount of trades dropped for being behind the watermark
+	 * @return the dropped trades
+	 */
+	long getDroppedTrades() {
+		return mDroppedTrades.get();
+	}
+
+	/**
+	 * Gets the highest lateness seen so far
+	 * @return the highest lateness in milliseconds
+	 */
+	long getMaxLateness() {
+		return mMaxLateness.get();
+	}
+}
@@ -0,0 +1,112 @@
+package com.joseprio.stocktest.analytics;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.model.TradeStore;
+
+public class TradeReducersTest {
+	private static TradeStore store;
+
+	@BeforeClass
+	public static void prepare() {
+		store = new TradeStore();
+		Random random = new Random(21);
+		// Several chunks and a partial one
+		int rows = TradeStore.getChunkSize() * 5 + 123;
+
+		for (int i = 0; i < rows; i++) {
+			Stock stock = Stock.byId(random.nextInt(Stock.count()));
+			OperationType type = random.nextBoolean() ? OperationType.BUY : OperationType.SELL;
+			long quantity = 1 + (long)Math.pow(10, random.nextInt(7) + random.nextDouble());
+			store.append(stock, i, type, quantity, random.nextDouble() * 1000);
+		}
+	}
+
+	@Test
+	public void testNotionalByTicker() {
+		NotionalByTicker.Result result = store.reduce(new NotionalByTicker());
+		long[] quantities = new long[Stock.count()];
+		double[] notionals = new double[Stock.count()];
+
+		TradeStore.Cursor cursor = store.cursor();
+		while (cursor.next()) {
+			int id = cursor.getStock().getId();
+			quantities[id] += cursor.getQuantity();
+			notionals[id] += cursor.getQuantity() * cursor.getPricePerShare();
+		}
+
+		for (Stock stock : Stock.all()) {
+			assertEquals(quantities[stock.getId()], result.getQuantity(stock));
+			assertEquals(notionals[stock.getId()], result.getNotional(stock), notionals[stock.getId()] * 1e-12);
+		}
+	}
+
+	@Test
+	public void testBuySellTotals() {
+		BuySellTotals.Result result = store.reduce(new BuySellTotals());
+		long buys = 0;
+		long sellQuantity = 0;
+
+		TradeStore.Cursor cursor = store.cursor();
+		while (cursor.next()) {
+			if (cursor.getType() == OperationType.BUY) {
+				buys++;
+			} else {
+				sellQuantity += cursor.getQuantity();
+			}
+		}
+
+		assertEquals(buys, result.getTrades(OperationType.BUY));
+		assertEquals(store.size() - buys, result.getTrades(OperationType.SELL));
+		assertEquals(sellQuantity, result.getQuantity(OperationType.SELL));
+	}
+
+	@Test
+	public void testSizeBuckets() {
+		SizeBuckets.Result result = store.reduce(new SizeBuckets());
+		long trades = 0;
+
+		for (int bucket = 0; bucket < result.getBucketCount(); bucket++) {
+			trades += result.getTrades(bucket);
+			if (result.getTrades(bucket) > 0) {
+				assertTrue(result.getQuantity(bucket) >= result.getTrades(bucket) * result.getLowerBound(bucket));
+			}
+		}
+		assertEquals(store.size(), trades);
+		assertEquals(0, SizeBuckets.bucketOf(9));
+		assertEquals(1, SizeBuckets.bucketOf(10));
+		assertEquals(18, SizeBuckets.bucketOf(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testDeterministic() {
+		ForkJoinPool sequential = new ForkJoinPool(1);
+		ForkJoinPool parallel = new ForkJoinPool(4);
+
+		try {
+			BuySellTotals.Result expected = store.reduce(new BuySellTotals(), sequential);
+			for (int run = 0; run < 5; run++) {
+				BuySellTotals.Result actual = store.reduce(new BuySellTotals(), parallel);
+				// Exactly the same rounding
+				assertEquals(expected.getNotional(OperationType.BUY), actual.getNotional(OperationType.BUY), 0.0);
+				assertEquals(expected.getNotional(OperationType.SELL), actual.getNotional(OperationType.SELL), 0.0);
+			}
+		} finally {
+			sequential.shutdown();
+			parallel.shutdown();
+		}
+	}
+
+	@Test
+	public void testEmptyStore() {
+		assertEquals(0, new TradeStore().reduce(new BuySellTotals()).getTrades(OperationType.BUY));
+	}
+}
@@ -0,0 +1,172 @@
+package com.joseprio.stocktest.importer;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.model.TradeBatch;
+import com.joseprio.stocktest.service.TradeService;
+
+public class TradeImporterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final long now = System.currentTimeMillis();
+	private final RecordingTradeService service = new RecordingTradeService();
+
+	@Test
+	public void testCsv() throws Exception {
+		File file = folder.newFile("trades.csv");
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			out.print("ticker,timestamp,quantity,type,price\r\n");
+			out.print("TEA," + (now - 10) + ",100,BUY,1.25\r\n");
+			out.print(" POP , " + (now - 5) + " , 7 , sell , 0.1\n");
+			out.print("\n");
+			out.print("ALE," + (now - 1) + ",3,SELL,123456.789\n");
+			out.print("ZZZ," + (now - 1) + ",3,SELL,1\n");
+			out.print("GIN," + (now + 100000) + ",3,BUY,1\n");
+			out.print("GIN,yesterday,3,BUY,1\n");
+			out.print("GIN," + now + ",3,HOLD,1\n");
+			out.print("GIN," + now + ",3,BUY,1,extra\n");
+			out.print("JOE," + now + ",1,BUY,2.5e1");
+		}
+
+		ImportResult result = new TradeImporter(service, 4).importFile(file);
+
+		assertEquals(4, result.getImported());
+		// Unknown ticker and future timestamp
+		assertEquals(2, result.getRejected());
+		// The header doesn't count
+		assertEquals(3, result.getMalformed());
+		assertEquals(file.length(), result.getBytes());
+
+		assertEquals(6, service.stocks.size());
+		assertEquals(Stock.byTicker("TEA"), service.stocks.get(0));
+		assertEquals(100, service.quantities.get(0).longValue());
+		assertEquals(1.25, service.prices.get(0), 0.0);
+		assertEquals(Stock.byTicker("POP"), service.stocks.get(1));
+		assertEquals(OperationType.SELL, service.types.get(1));
+		assertEquals(Double.parseDouble("0.1"), service.prices.get(1), 0.0);
+		assertEquals(Double.parseDouble("123456.789"), service.prices.get(2), 0.0);
+		assertNull(service.stocks.get(3));
+		assertEquals(25.0, service.prices.get(5), 0.0);
+	}
+
+	@Test
+	public void testCsvChunks() throws Exception {
+		File file = folder.newFile("large.csv");
+		int lines = 100000;
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			for (int i = 0; i < lines; i++) {
+				out.print("ALE," + (now - i) + "," + (i + 1) + ",BUY," + (i % 1000) + ".5\n");
+			}
+		}
+		// Several chunks, with lines across their bounds
+		assertTrue(file.length() > 3 << 20);
+
+		ImportResult result = new TradeImporter(service, 4).importFile(file);
+
+		assertEquals(lines, result.getImported());
+		assertEquals(0, result.getMalformed());
+		long quantities = 0;
+		for (long quantity : service.quantities) {
+			quantities += quantity;
+		}
+		assertEquals((long)lines * (lines + 1) / 2, quantities);
+	}
+
+	@Test
+	public void testBinary() throws Exception {
+		File file = folder.newFile("trades.bin");
+		int records = 50000;
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			BinaryTradeParser.writeHeader(out);
+			for (int i = 0; i < records; i++) {
+				BinaryTradeParser.writeRecord(out, Stock.encodeTicker("JOE"), now - i, 2, OperationType.SELL, 0.5 + i);
+			}
+			BinaryTradeParser.writeRecord(out, Stock.encodeTicker("ZZZ"), now, 2, OperationType.BUY, 1.0);
+			// Cut short
+			out.writeLong(now);
+		}
+
+		ImportResult result = new TradeImporter(service, 2).importFile(file);
+
+		assertEquals(records, result.getImported());
+		assertEquals(1, result.getRejected());
+		assertEquals(1, result.getMalformed());
+		assertEquals(Stock.byTicker("JOE"), service.stocks.get(0));
+		assertEquals(OperationType.SELL, service.types.get(0));
+		assertEquals(2, service.quantities.get(0).longValue());
+	}
+
+	@Test
+	public void testFailureStopsImport() throws Exception {
+		File file = folder.newFile("failing.csv");
+		int lines = 100000;
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			for (int i = 0; i < lines; i++) {
+				out.print("ALE," + (now - i) + ",1,BUY,1.5\n");
+			}
+		}
+		// The third batch fails
+		RecordingTradeService failing = new RecordingTradeService() {
+			private int mBatches = 0;
+
+			@Override
+			public synchronized int recordTrades(TradeBatch batch) {
+				if (++mBatches == 3) {
+					throw new IllegalStateException("Store full");
+				}
+				return super.recordTrades(batch);
+			}
+		};
+
+		try {
+			new TradeImporter(failing, 4).importFile(file);
+			fail("The import should have stopped");
+		} catch (ImportException iex) {
+			// The other threads stop too, and what got in is reported
+			assertEquals(failing.stocks.size(), iex.getPartialResult().getImported());
+			assertTrue(iex.getPartialResult().getImported() < lines);
+			assertTrue(iex.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	/**
+	 * Keeps every trade it's given, in order, and validates the batches as
+	 * the real service does
+	 */
+	private class RecordingTradeService implements TradeService {
+		final List<Stock> stocks = new ArrayList<Stock>();
+		final List<Long> quantities = new ArrayList<Long>();
+		final List<OperationType> types = new ArrayList<OperationType>();
+		final List<Double> prices = new ArrayList<Double>();
+
+		public void recordTrade(String ticker, long timestamp, long quantity, OperationType type, double pricePerShare) {
+			throw new UnsupportedOperationException();
+		}
+
+		public synchronized int recordTrades(TradeBatch batch) {
+			for (int row = 0; row < batch.size(); row++) {
+				stocks.add(batch.getStock(row));
+				quantities.add(batch.getQuantity(row));
+				types.add(batch.getType(row));
+				prices.add(batch.getPricePerShare(row));
+			}
+			return batch.validate(now);
+		}
+	}
+}
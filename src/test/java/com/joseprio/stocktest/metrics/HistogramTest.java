@@ -0,0 +1,69 @@
+package com.joseprio.stocktest.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HistogramTest {
+	final private static double MAX_ERROR = 1.0 / 64;
+
+	@Test
+	public void testBuckets() {
+		long[] values = { 0, 1, 127, 128, 129, 1000, 123456789, Long.MAX_VALUE };
+
+		for (long value : values) {
+			int bucket = Histogram.bucketOf(value);
+			assertTrue(Histogram.highestValueOf(bucket) >= value);
+			if (bucket > 0) {
+				assertTrue(Histogram.highestValueOf(bucket - 1) < value);
+			}
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		Random random = new Random(42);
+		long[] values = new long[100000];
+
+		for (int i = 0; i < values.length; i++) {
+			// Spread over several orders of magnitude
+			values[i] = (long)Math.exp(random.nextDouble() * 20);
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+
+		assertEquals(values.length, histogram.getCount());
+		assertEquals(values[values.length - 1], histogram.getMax());
+		for (double percentile : new double[] { 1, 50, 90, 99, 99.9, 100 }) {
+			long exact = values[(int)Math.ceil(percentile / 100 * values.length) - 1];
+			long reported = histogram.getValueAtPercentile(percentile);
+			assertTrue(percentile + ": " + reported + " vs " + exact,
+					reported >= exact && reported <= exact + exact * MAX_ERROR + 1);
+		}
+	}
+
+	@Test
+	public void testCorrectedAndAdd() {
+		Histogram histogram = new Histogram();
+
+		// A stall of 10 intervals hides 9 more samples
+		histogram.recordCorrected(1000, 100);
+		assertEquals(10, histogram.getCount());
+		assertEquals(100, histogram.getValueAtPercentile(10));
+
+		Histogram other = new Histogram();
+		other.record(5000);
+		histogram.add(other);
+		assertEquals(11, histogram.getCount());
+		assertEquals(5000, histogram.getMax());
+		assertEquals(5000, histogram.getValueAtPercentile(100));
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+	}
+}
@@ -0,0 +1,57 @@
+package com.joseprio.stocktest.metrics;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+	@Test
+	public void testMetrics() {
+		MetricsRegistry registry = new MetricsRegistry();
+
+		Counter counter = registry.counter("test.counter");
+		counter.increment();
+		counter.add(2);
+		assertSame(counter, registry.counter("test.counter"));
+		assertEquals(3, counter.get());
+
+		registry.gauge("test.gauge", () -> 42);
+		registry.histogram("test.histogram").record(100);
+
+		String dump = registry.dump();
+		assertTrue(dump, dump.contains("test.counter: 3"));
+		assertTrue(dump, dump.contains("test.gauge: 42"));
+		assertTrue(dump, dump.contains("test.histogram: count=1 mean=100.0 p50=100 p90=100 p99=100 p999=100 max=100"));
+		// Sorted by name
+		assertTrue(dump.indexOf("test.counter") < dump.indexOf("test.gauge"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testTypeConflict() {
+		MetricsRegistry registry = new MetricsRegistry();
+
+		registry.counter("test.metric");
+		registry.histogram("test.metric");
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		MetricsRegistry registry = MetricsRegistry.getInstance();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(MetricsRegistry.OBJECT_NAME);
+
+		registry.counter("mbean.counter").add(5);
+		registry.histogram("mbean.histogram").record(7);
+
+		assertEquals(5L, server.getAttribute(name, "mbean.counter"));
+		assertEquals(1L, server.getAttribute(name, "mbean.histogram.count"));
+		assertEquals(7L, server.getAttribute(name, "mbean.histogram.p999"));
+		assertTrue(server.getMBeanInfo(name).getAttributes().length >= 8);
+		assertTrue(((String)server.invoke(name, "dump", null, null)).contains("mbean.counter: 5"));
+	}
+}
@@ -28,4 +28,22 @@ public class CommonStockTest {
 		assertEquals(12.037037037037036, Stock.byTicker("TST").calculatePERatio(650.0), 0.0);
 	}
 
+	@Test
+	public void testRegistry() {
+		Stock stock = Stock.byTicker("TST");
+		assertSame(stock, Stock.byId(stock.getId()));
+		assertSame(stock, Stock.byCode(stock.getCode()));
+		assertEquals(Stock.encodeTicker("TST"), stock.getCode());
+		assertTrue(stock.getId() < Stock.count());
+		assertNull(Stock.byTicker("tst"));
+		assertNull(Stock.byTicker("TSTT"));
+		assertNull(Stock.byTicker(null));
+		assertNull(Stock.byId(Stock.count()));
+	}
+
+	@Test(expected = StockException.class)
+	public void testDuplicateTicker() throws StockException {
+		CommonStock.register("TST", 1.0, 1.0);
+	}
+
 }
@@ -0,0 +1,62 @@
+package com.joseprio.stocktest.model;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class StockColumnsTest {
+	@BeforeClass
+	public static void prepare() throws Exception {
+		Random random = new Random(24);
+
+		// A few hundred more of both kinds, with odd values
+		for (int i = 0; i < 600; i++) {
+			String ticker = "C" + (char)('A' + i / 26 % 26) + (char)('A' + i % 26);
+			double dividend = (i % 50 == 0) ? 0.0 : random.nextDouble() * 30;
+			if (i % 3 == 0) {
+				PreferredStock.register(ticker, dividend, random.nextDouble() * 0.1, random.nextDouble() * 1000);
+			} else {
+				CommonStock.register(ticker, dividend, random.nextDouble() * 1000);
+			}
+		}
+	}
+
+	@Test
+	public void testSameAsScalar() {
+		Random random = new Random(42);
+		StockColumns columns = StockColumns.capture();
+		Stock[] stocks = Stock.all();
+		double[][] scenarios = new double[4][stocks.length];
+		double[][] yields = new double[4][stocks.length];
+		double[][] ratios = new double[4][stocks.length];
+
+		for (double[] prices : scenarios) {
+			for (int id = 0; id < prices.length; id++) {
+				prices[id] = (id % 97 == 0) ? 0.0 : random.nextDouble() * 500;
+			}
+		}
+
+		assertEquals(stocks.length, columns.size());
+		columns.calculateDividendYields(scenarios, yields);
+		columns.calculatePERatios(scenarios, ratios);
+
+		for (int scenario = 0; scenario < scenarios.length; scenario++) {
+			for (Stock stock : stocks) {
+				double price = scenarios[scenario][stock.getId()];
+				// Bit for bit, including infinities and NaN
+				assertEquals(Double.doubleToLongBits(stock.calculateDividendYield(price)),
+						Double.doubleToLongBits(yields[scenario][stock.getId()]));
+				assertEquals(Double.doubleToLongBits(stock.calculatePERatio(price)),
+						Double.doubleToLongBits(ratios[scenario][stock.getId()]));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testShortArray() {
+		StockColumns.capture().calculatePERatios(new double[1], new double[Stock.count()]);
+	}
+}
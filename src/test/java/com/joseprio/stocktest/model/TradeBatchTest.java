@@ -0,0 +1,87 @@
+package com.joseprio.stocktest.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.common.RejectionReason;
+
+public class TradeBatchTest {
+	final private static long NOW = 1000000;
+
+	@Test
+	public void testValidate() {
+		TradeBatch batch = new TradeBatch(8);
+
+		batch.add("TEA", NOW, 10, OperationType.BUY, 1.5);
+		batch.add("XYZ", NOW, 10, OperationType.BUY, 1.5);
+		batch.add("POP", 0, 10, OperationType.BUY, 1.5);
+		batch.add("POP", NOW + 1, 10, OperationType.BUY, 1.5);
+		batch.add("ALE", NOW, 0, OperationType.SELL, 1.5);
+		batch.add("ALE", NOW, 10, OperationType.SELL, Double.NaN);
+		batch.add("GIN", NOW, 10, null, 1.5);
+		batch.add("JOE", NOW - 1, 20, OperationType.SELL, 2.5);
+
+		assertTrue(batch.isFull());
+		assertEquals(2, batch.validate(NOW));
+		assertEquals(2, batch.getAccepted());
+		assertNull(batch.getRejection(0));
+		assertSame(Stock.byTicker("TEA"), batch.getStock(0));
+		assertEquals(RejectionReason.UNKNOWN_STOCK, batch.getRejection(1));
+		assertEquals(RejectionReason.INVALID_TIMESTAMP, batch.getRejection(2));
+		assertEquals(RejectionReason.FUTURE_TIMESTAMP, batch.getRejection(3));
+		assertEquals(RejectionReason.INVALID_QUANTITY, batch.getRejection(4));
+		assertEquals(RejectionReason.INVALID_PRICE, batch.getRejection(5));
+		assertEquals(RejectionReason.MISSING_TYPE, batch.getRejection(6));
+		assertFalse(batch.isRejected(7));
+	}
+
+	@Test
+	public void testAddResolvedStock() {
+		TradeBatch batch = new TradeBatch(2);
+
+		batch.add(Stock.byTicker("GIN"), NOW, 10, OperationType.BUY, 1.5);
+		batch.add((Stock)null, NOW, 10, OperationType.BUY, 1.5);
+
+		assertEquals(1, batch.validate(NOW));
+		assertEquals("GIN", batch.getTicker(0));
+		assertSame(Stock.byTicker("GIN"), batch.getStock(0));
+		assertEquals(RejectionReason.UNKNOWN_STOCK, batch.getRejection(1));
+	}
+
+	@Test
+	public void testAppendToStore() {
+		TradeStore store = new TradeStore();
+		TradeBatch batch = new TradeBatch(16);
+
+		// Reusing the batch doesn't keep old rows
+		batch.add("TEA", NOW, 1, OperationType.BUY, 1.0);
+		batch.clear();
+		batch.add("POP", NOW, 2, OperationType.BUY, 2.0);
+		batch.add("POP", NOW, -2, OperationType.BUY, 2.0);
+		batch.add("ALE", NOW, 3, OperationType.SELL, 3.0);
+		batch.validate(NOW);
+
+		assertEquals(0, store.append(batch));
+		assertEquals(2, store.size());
+
+		TradeStore.Cursor cursor = store.cursor();
+		assertTrue(cursor.next());
+		assertSame(Stock.byTicker("POP"), cursor.getStock());
+		assertEquals(2, cursor.getQuantity());
+		assertTrue(cursor.next());
+		assertSame(Stock.byTicker("ALE"), cursor.getStock());
+		assertEquals(OperationType.SELL, cursor.getType());
+		assertEquals(3.0, cursor.getPricePerShare(), 0.0);
+		assertFalse(cursor.next());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testFull() {
+		TradeBatch batch = new TradeBatch(1);
+
+		batch.add("TEA", NOW, 1, OperationType.BUY, 1.0);
+		batch.add("TEA", NOW, 1, OperationType.BUY, 1.0);
+	}
+}
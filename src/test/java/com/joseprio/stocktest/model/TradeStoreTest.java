@@ -0,0 +1,80 @@
+package com.joseprio.stocktest.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.joseprio.stocktest.common.OperationType;
+
+public class TradeStoreTest {
+	final private static int WRITERS = 4;
+
+	@Test
+	public void testTickerCode() {
+		assertEquals("TEA", Stock.decodeTicker(Stock.encodeTicker("TEA")));
+		assertEquals("AAA", Stock.decodeTicker(Stock.encodeTicker("AAA")));
+		assertEquals("ZZZ", Stock.decodeTicker(Stock.encodeTicker("ZZZ")));
+		assertTrue(Stock.encodeTicker("AAA") > 0);
+		assertTrue(Stock.encodeTicker("ZZZ") < (1 << 15));
+	}
+
+	@Test
+	public void testConcurrentAppend() throws InterruptedException {
+		TradeStore store = new TradeStore();
+		// Enough rows to go through a few chunks
+		int rowsPerWriter = TradeStore.getChunkSize() + 1000;
+		Stock stock = Stock.byTicker("ALE");
+
+		Thread[] writers = new Thread[WRITERS];
+		for (int i = 0; i < WRITERS; i++) {
+			OperationType type = (i % 2 == 0) ? OperationType.BUY : OperationType.SELL;
+			writers[i] = new Thread(() -> {
+				for (int r = 1; r <= rowsPerWriter; r++) {
+					store.append(stock, r, type, r, 1.5);
+				}
+			});
+			writers[i].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		assertEquals(WRITERS * rowsPerWriter, store.size());
+
+		long quantity = 0;
+		long sells = 0;
+		long rows = 0;
+		TradeStore.Cursor cursor = store.cursor();
+		while (cursor.next()) {
+			assertEquals(rows, cursor.getRow());
+			assertEquals(Stock.encodeTicker("ALE"), cursor.getTickerCode());
+			assertEquals(cursor.getTimestamp(), cursor.getQuantity());
+			assertEquals(1.5, cursor.getPricePerShare(), 0.0);
+			quantity += cursor.getQuantity();
+			if (cursor.getType() == OperationType.SELL) {
+				sells++;
+			}
+			rows++;
+		}
+
+		assertEquals(WRITERS * rowsPerWriter, rows);
+		assertEquals(WRITERS * (long)rowsPerWriter * (rowsPerWriter + 1) / 2, quantity);
+		assertEquals(WRITERS / 2 * rowsPerWriter, sells);
+	}
+
+	@Test
+	public void testCursorFromRow() {
+		TradeStore store = new TradeStore();
+		Stock stock = Stock.byTicker("POP");
+		for (int r = 1; r <= 10; r++) {
+			store.append(stock, r, OperationType.BUY, r, 2.0);
+		}
+
+		TradeStore.Cursor cursor = store.cursor(7);
+		assertTrue(cursor.next());
+		assertEquals(8, cursor.getQuantity());
+		assertTrue(cursor.next());
+		assertTrue(cursor.next());
+		assertFalse(cursor.next());
+	}
+}
@@ -0,0 +1,63 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AppliedSequencesTest {
+	@Test
+	public void testOutOfOrder() {
+		AppliedSequences sequences = new AppliedSequences();
+
+		sequences.mark(0);
+		sequences.mark(1);
+		sequences.mark(3);
+		sequences.mark(70);
+		sequences.mark(-1);
+
+		assertEquals(2, sequences.advance());
+		assertArrayEquals(new long[] { 3, 70 }, sequences.getMarkedAfterCut());
+		assertTrue(sequences.isMarked(1));
+		assertFalse(sequences.isMarked(2));
+		assertTrue(sequences.isMarked(70));
+
+		sequences.mark(2);
+		for (long sequence = 4; sequence < 70; sequence++) {
+			sequences.mark(sequence);
+		}
+		assertEquals(71, sequences.advance());
+		assertEquals(0, sequences.getMarkedAfterCut().length);
+	}
+
+	@Test
+	public void testWrapAround() {
+		AppliedSequences sequences = new AppliedSequences();
+		long far = 10000000;
+
+		// Beyond the window, kept aside until the cut gets closer
+		sequences.mark(far);
+		for (long sequence = 0; sequence < far; sequence++) {
+			sequences.mark(sequence);
+			if (sequence % 1000000 == 999999 && sequence + 1 < far) {
+				assertEquals(sequence + 1, sequences.advance());
+			}
+		}
+		assertEquals(far + 1, sequences.advance());
+		assertFalse(sequences.isMarked(far + 1));
+		assertEquals(0, sequences.getMarkedAfterCut().length);
+	}
+
+	@Test
+	public void testReset() {
+		AppliedSequences sequences = new AppliedSequences();
+
+		sequences.mark(0);
+		sequences.reset(100, new long[] { 105, 110 });
+
+		assertTrue(sequences.isMarked(99));
+		assertFalse(sequences.isMarked(100));
+		assertTrue(sequences.isMarked(105));
+		assertEquals(100, sequences.advance());
+		assertArrayEquals(new long[] { 105, 110 }, sequences.getMarkedAfterCut());
+	}
+}
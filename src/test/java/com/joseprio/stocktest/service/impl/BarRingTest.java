@@ -0,0 +1,55 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.joseprio.stocktest.model.Bars;
+
+public class BarRingTest {
+	@Test
+	public void testOhlcv() {
+		BarRing ring = new BarRing(1000, 4);
+		Bars bars = new Bars(10);
+
+		ring.add(10500, 10, 2.0);
+		ring.add(10900, 5, 3.5);
+		ring.add(10100, 1, 1.0);
+		// Late, but not the first or last of its period
+		ring.add(10600, 2, 2.5);
+		ring.add(12000, 7, 4.0);
+
+		assertEquals(2, ring.copyLast(10, bars));
+		assertEquals(10000, bars.getStartTime(0));
+		assertEquals(1.0, bars.getOpen(0), 0.0);
+		assertEquals(3.5, bars.getHigh(0), 0.0);
+		assertEquals(1.0, bars.getLow(0), 0.0);
+		assertEquals(3.5, bars.getClose(0), 0.0);
+		assertEquals(18, bars.getVolume(0));
+		assertEquals(4, bars.getTrades(0));
+		// The period without trades has no bar
+		assertEquals(12000, bars.getStartTime(1));
+		assertEquals(7, bars.getVolume(1));
+	}
+
+	@Test
+	public void testRingBounds() {
+		BarRing ring = new BarRing(1000, 4);
+		Bars bars = new Bars(2);
+
+		for (int second = 0; second < 10; second++) {
+			ring.add(second * 1000, 1, second);
+		}
+		// Too old for the ring
+		ring.add(5000, 1, 100.0);
+
+		assertEquals(2, ring.copyLast(5, bars));
+		assertEquals(8000, bars.getStartTime(0));
+		assertEquals(9000, bars.getStartTime(1));
+
+		bars = new Bars(10);
+		assertEquals(4, ring.copyLast(10, bars));
+		assertEquals(6000, bars.getStartTime(0));
+		assertEquals(6.0, bars.getHigh(0), 0.0);
+	}
+}
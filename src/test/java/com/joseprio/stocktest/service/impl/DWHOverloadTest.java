@@ -0,0 +1,64 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.common.OverloadPolicy;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.service.DWHServiceFactory;
+
+public class DWHOverloadTest {
+	// Several times the ring, so some of them are likely to find it full
+	final private static int TRADES = 1 << 19;
+
+	private DWHServiceImpl instance = (DWHServiceImpl)DWHServiceFactory.getInstance();
+
+	@After
+	public void restore() {
+		instance.setOverloadPolicy(OverloadPolicy.BLOCK);
+	}
+
+	@Test
+	public void testCoalesce() {
+		instance.setOverloadPolicy(OverloadPolicy.COALESCE);
+		Stock stock = Stock.byTicker("POP");
+		long timestamp = System.currentTimeMillis();
+		long applied = instance.getAppliedTrades();
+		long coalesced = instance.getCoalescedTradeCount();
+
+		for (int i = 0; i < TRADES; i++) {
+			instance.notifyTrade(stock, timestamp, 1, OperationType.BUY, (i % 2 == 0) ? 1.0 : 3.0);
+		}
+		instance.flush();
+
+		// Nothing is lost, whichever way the trades went
+		assertEquals(TRADES, instance.getAppliedTrades() - applied + instance.getCoalescedTradeCount() - coalesced);
+		assertEquals(2.0, instance.calculateVolumeWeighted("POP"), 0.0);
+		assertEquals(0, instance.getQueueOccupancy());
+	}
+
+	@Test
+	public void testShed() {
+		instance.setOverloadPolicy(OverloadPolicy.SHED);
+		Stock stock = Stock.byTicker("ALE");
+		long timestamp = System.currentTimeMillis();
+		long applied = instance.getAppliedTrades();
+		long shed = instance.getShedTradeCount();
+
+		for (int i = 0; i < TRADES; i++) {
+			instance.notifyTrade(stock, timestamp, 1, OperationType.SELL, 2.0);
+		}
+		instance.flush();
+
+		assertEquals(TRADES, instance.getAppliedTrades() - applied + instance.getShedTradeCount() - shed);
+		assertEquals(2.0, instance.calculateVolumeWeighted("ALE"), 0.0);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNullPolicy() {
+		instance.setOverloadPolicy(null);
+	}
+}
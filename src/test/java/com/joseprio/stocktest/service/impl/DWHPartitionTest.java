@@ -0,0 +1,215 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.joseprio.stocktest.common.BarResolution;
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Bars;
+import com.joseprio.stocktest.model.CommonStock;
+import com.joseprio.stocktest.model.LastTrade;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.model.TradeBatch;
+
+public class DWHPartitionTest {
+	final private static int TRADES = 100000;
+	final private static int BATCH = 1000;
+	final private static String[] EXTRA_TICKERS = { "PAA", "PAB", "PAC", "PAD", "PAE", "PAF", "PAG" };
+
+	private static DWHServiceImpl single;
+	private static DWHServiceImpl partitioned;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void prepare() throws Exception {
+		single = new DWHServiceImpl(1);
+		partitioned = new DWHServiceImpl(4);
+
+		// Registered after the services started, so the workers have to grow their arrays
+		for (String ticker : EXTRA_TICKERS) {
+			CommonStock.register(ticker, 1.0, 100.0);
+		}
+
+		Random random = new Random(42);
+		long now = System.currentTimeMillis();
+		TradeBatch batch = new TradeBatch(BATCH);
+
+		for (int i = 0; i < TRADES; i++) {
+			Stock stock = Stock.byId(random.nextInt(Stock.count()));
+			long timestamp = now - random.nextInt(60000);
+			long quantity = 1 + random.nextInt(1000);
+			// Whole cents, so the sums don't depend on the order
+			double price = (1 + random.nextInt(10000)) / 100.0;
+
+			if (i % 2 == 0) {
+				single.notifyTrade(stock, timestamp, quantity, OperationType.BUY, price);
+				partitioned.notifyTrade(stock, timestamp, quantity, OperationType.BUY, price);
+			} else {
+				batch.add(stock.getTicker(), timestamp, quantity, OperationType.SELL, price);
+				if (batch.isFull()) {
+					batch.validate(now);
+					single.notifyTrades(batch);
+					partitioned.notifyTrades(batch);
+					batch.clear();
+				}
+			}
+		}
+		single.flush();
+		partitioned.flush();
+	}
+
+	@Test
+	public void testCounts() {
+		assertEquals(4, partitioned.getPartitionCount());
+		assertEquals(TRADES, partitioned.getNotifiedTrades());
+		assertEquals(TRADES, partitioned.getAppliedTrades());
+		assertEquals(0, partitioned.getQueueOccupancy());
+	}
+
+	@Test
+	public void testSameResults() {
+		for (int id = 0; id < Stock.count(); id++) {
+			String ticker = Stock.byId(id).getTicker();
+			assertEquals(ticker, single.calculateVolumeWeighted(ticker), partitioned.calculateVolumeWeighted(ticker), 1e-9);
+		}
+		assertEquals(single.calculateVolumeWeighted(), partitioned.calculateVolumeWeighted(), 1e-9);
+		assertEquals(single.calculateShareIndex(), partitioned.calculateShareIndex(), 1e-9);
+	}
+
+	@Test
+	public void testRanges() {
+		long now = System.currentTimeMillis();
+		long trades = 0;
+
+		for (int id = 0; id < Stock.count(); id++) {
+			String ticker = Stock.byId(id).getTicker();
+			trades += partitioned.getTradeCount(ticker, 0, Long.MAX_VALUE);
+			assertEquals(single.getVolume(ticker, now - 30000, now), partitioned.getVolume(ticker, now - 30000, now));
+			assertEquals(single.calculateVolumeWeighted(ticker, now - 30000, now),
+					partitioned.calculateVolumeWeighted(ticker, now - 30000, now), 1e-9);
+		}
+		assertEquals(TRADES, trades);
+	}
+
+	@Test
+	public void testPriceQuantiles() {
+		for (int id = 0; id < Stock.count(); id++) {
+			String ticker = Stock.byId(id).getTicker();
+			for (double quantile : new double[] { 0.01, 0.5, 0.99 }) {
+				assertEquals(single.calculatePriceQuantile(ticker, quantile), partitioned.calculatePriceQuantile(ticker, quantile), 0.0);
+			}
+		}
+		assertTrue(Double.isNaN(single.calculatePriceQuantile("XYZ", 0.5)));
+	}
+
+	@Test
+	public void testMostTraded() {
+		Map<String, Long> expected = single.getMostTraded(5);
+
+		assertEquals(5, expected.size());
+		assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(partitioned.getMostTraded(5).keySet()));
+		assertEquals(expected, partitioned.getMostTraded(5));
+		long previous = Long.MAX_VALUE;
+		for (long volume : expected.values()) {
+			assertTrue(volume <= previous);
+			previous = volume;
+		}
+	}
+
+	@Test
+	public void testLastTrade() {
+		LastTrade expected = new LastTrade();
+		LastTrade actual = new LastTrade();
+
+		for (int id = 0; id < Stock.count(); id++) {
+			Stock stock = Stock.byId(id);
+			assertTrue(single.getLastTrade(stock.getTicker(), expected));
+			assertTrue(partitioned.getLastTrade(stock.getTicker(), actual));
+			assertEquals(expected.getTimestamp(), actual.getTimestamp());
+			assertEquals(expected.getQuantity(), actual.getQuantity());
+			assertEquals(expected.getPricePerShare(), actual.getPricePerShare(), 0.0);
+			assertEquals(stock.calculateDividendYield(actual.getPricePerShare()),
+					partitioned.calculateLiveDividendYield(stock.getTicker()), 0.0);
+			assertEquals(stock.calculatePERatio(actual.getPricePerShare()),
+					partitioned.calculateLivePERatio(stock.getTicker()), 0.0);
+		}
+		assertFalse(single.getLastTrade("XYZ", expected));
+		assertTrue(Double.isNaN(single.calculateLivePERatio("XYZ")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidQuantile() {
+		single.calculatePriceQuantile("TEA", 1.5);
+	}
+
+	@Test
+	public void testBars() {
+		Bars expected = new Bars(BarResolution.SECOND.getRetainedBars());
+		Bars actual = new Bars(BarResolution.SECOND.getRetainedBars());
+
+		for (BarResolution resolution : BarResolution.values()) {
+			assertTrue(single.getBars("PAB", resolution, 100, expected) > 0);
+			assertEquals(expected.size(), partitioned.getBars("PAB", resolution, 100, actual));
+			assertBarsEqual(expected, actual);
+		}
+
+		// A minute of trades, spread over 60 or 61 one second bars
+		assertTrue(single.getBars("POP", BarResolution.SECOND, expected.getCapacity(), expected) >= 60);
+		assertTrue(expected.getStartTime(0) < expected.getStartTime(expected.size() - 1));
+		assertEquals(0, single.getBars("XYZ", BarResolution.SECOND, 10, expected));
+	}
+
+	@Test
+	public void testSnapshotAcrossPartitionCounts() throws Exception {
+		File directory = folder.newFolder();
+		DWHServiceImpl restored = new DWHServiceImpl(3);
+
+		partitioned.writeSnapshot(directory, TRADES);
+
+		assertEquals(TRADES, restored.restoreSnapshot(directory, TRADES));
+		assertEquals(partitioned.calculateShareIndex(), restored.calculateShareIndex(), 1e-9);
+		assertEquals(partitioned.calculateVolumeWeighted(), restored.calculateVolumeWeighted(), 1e-9);
+		assertEquals(partitioned.calculateVolumeWeighted("PAC"), restored.calculateVolumeWeighted("PAC"), 1e-9);
+		assertEquals(partitioned.getMostTraded(3), restored.getMostTraded(3));
+		assertEquals(partitioned.calculatePriceQuantile("PAE", 0.5), restored.calculatePriceQuantile("PAE", 0.5), 0.0);
+		assertEquals(partitioned.calculateLivePERatio("GIN"), restored.calculateLivePERatio("GIN"), 0.0);
+
+		LastTrade expectedTrade = new LastTrade();
+		LastTrade actualTrade = new LastTrade();
+		assertTrue(partitioned.getLastTrade("PAF", expectedTrade));
+		assertTrue(restored.getLastTrade("PAF", actualTrade));
+		assertEquals(expectedTrade.getTimestamp(), actualTrade.getTimestamp());
+		assertEquals(expectedTrade.getQuantity(), actualTrade.getQuantity());
+		assertEquals(expectedTrade.getPricePerShare(), actualTrade.getPricePerShare(), 0.0);
+
+		Bars expected = new Bars(100);
+		Bars actual = new Bars(100);
+		partitioned.getBars("TEA", BarResolution.MINUTE, 100, expected);
+		restored.getBars("TEA", BarResolution.MINUTE, 100, actual);
+		assertBarsEqual(expected, actual);
+	}
+
+	private static void assertBarsEqual(Bars expected, Bars actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getStartTime(i), actual.getStartTime(i));
+			assertEquals(expected.getOpen(i), actual.getOpen(i), 0.0);
+			assertEquals(expected.getHigh(i), actual.getHigh(i), 0.0);
+			assertEquals(expected.getLow(i), actual.getLow(i), 0.0);
+			assertEquals(expected.getClose(i), actual.getClose(i), 0.0);
+			assertEquals(expected.getVolume(i), actual.getVolume(i));
+			assertEquals(expected.getTrades(i), actual.getTrades(i));
+		}
+	}
+}
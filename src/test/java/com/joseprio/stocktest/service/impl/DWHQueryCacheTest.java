@@ -0,0 +1,92 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.metrics.Counter;
+import com.joseprio.stocktest.metrics.MetricsRegistry;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.service.TimeProvider;
+import com.joseprio.stocktest.service.TimeProviderFactory;
+
+public class DWHQueryCacheTest {
+	private static TimeProvider oldTimeService;
+	private static volatile long currentTime = System.currentTimeMillis();
+	private static DWHServiceImpl instance;
+	private static Counter recomputed;
+
+	@BeforeClass
+	public static void prepare() {
+		oldTimeService = TimeProviderFactory.getInstance();
+		TimeProviderFactory.setInstance(new TimeProvider() {
+			@Override
+			public long currentTimeMillis() {
+				return currentTime;
+			}
+		});
+
+		instance = new DWHServiceImpl(2);
+		recomputed = MetricsRegistry.getInstance().counter("dwh.queries.recomputed");
+	}
+
+	@AfterClass
+	public static void restore() {
+		TimeProviderFactory.setInstance(oldTimeService);
+	}
+
+	@Test
+	public void testCachedUntilWritten() {
+		instance.notifyTrade(Stock.byTicker("JOE"), currentTime, 2, OperationType.BUY, 5.0);
+		instance.flush();
+
+		assertEquals(5.0, instance.calculateVolumeWeighted("JOE"), 0.0);
+		double shareIndex = instance.calculateShareIndex();
+		long calculated = recomputed.get();
+
+		// Nothing changed, nothing is calculated again
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(5.0, instance.calculateVolumeWeighted("JOE"), 0.0);
+			assertEquals(shareIndex, instance.calculateShareIndex(), 0.0);
+		}
+		assertEquals(calculated, recomputed.get());
+
+		// A trade of another stock leaves the result of this one alone
+		instance.notifyTrade(Stock.byTicker("GIN"), currentTime, 2, OperationType.BUY, 20.0);
+		instance.flush();
+		assertEquals(5.0, instance.calculateVolumeWeighted("JOE"), 0.0);
+		assertEquals(calculated, recomputed.get());
+		assertNotEquals(shareIndex, instance.calculateShareIndex(), 0.0);
+
+		instance.notifyTrade(Stock.byTicker("JOE"), currentTime, 2, OperationType.BUY, 7.0);
+		instance.flush();
+		assertEquals(6.0, instance.calculateVolumeWeighted("JOE"), 0.0);
+	}
+
+	@Test
+	public void testInvalidate() {
+		double shareIndex = instance.calculateShareIndex();
+		long calculated = recomputed.get();
+
+		instance.invalidateCachedResults();
+		assertEquals(shareIndex, instance.calculateShareIndex(), 0.0);
+		assertEquals(calculated + 1, recomputed.get());
+	}
+
+	@Test
+	public void testExpiresWithTheWindow() {
+		instance.notifyTrade(Stock.byTicker("TEA"), currentTime, 1, OperationType.SELL, 3.0);
+		instance.flush();
+		assertEquals(3.0, instance.calculateVolumeWeighted("TEA"), 0.0);
+		double market = instance.calculateVolumeWeighted();
+
+		// The window moves on without new trades
+		currentTime += 16 * 60 * 1000;
+		assertTrue(Double.isNaN(instance.calculateVolumeWeighted("TEA")));
+		assertTrue(Double.isNaN(instance.calculateVolumeWeighted()));
+		assertFalse(Double.isNaN(market));
+	}
+}
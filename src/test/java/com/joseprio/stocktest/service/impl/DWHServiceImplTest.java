@@ -2,25 +2,33 @@ package com.joseprio.stocktest.service.impl;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.LastTrade;
 import com.joseprio.stocktest.model.Stock;
 import com.joseprio.stocktest.model.TradeRecord;
+import com.joseprio.stocktest.model.TradeStore;
 import com.joseprio.stocktest.service.DWHServiceFactory;
 import com.joseprio.stocktest.service.TimeProvider;
 import com.joseprio.stocktest.service.TimeProviderFactory;
 
 import static org.junit.Assert.*;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 
 public class DWHServiceImplTest {
 	private static TimeProvider oldTimeService;
 	private static long currentTime = System.currentTimeMillis();
 	private static DWHServiceImpl instance;
 	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
 	final static public long getTime() {
 		return currentTime;
 	}
@@ -63,21 +71,12 @@ public class DWHServiceImplTest {
 		instance.notifyTrade(builder.make());
 		
 		// Wait for the execution to end
-		ExecutorService executorService = instance.getExecutorService();
-		
-		executorService.shutdown();
-
-		try {
-			instance.getExecutorService().awaitTermination(100, TimeUnit.SECONDS);
-		} catch (InterruptedException iex) {
-			iex.printStackTrace();
-		}
+		instance.flush();
 	}
 
 	@AfterClass
 	public static void restore() throws Exception {
 		TimeProviderFactory.setInstance(oldTimeService);
-		instance.restartExecutorService();
 	}
 	
 	@Test
@@ -93,5 +92,95 @@ public class DWHServiceImplTest {
 		
 	}
 	
-
+	@Test
+	public void testCalculateVolumeWeightedByTicker() {
+		assertEquals(4.5, instance.calculateVolumeWeighted("POP"), 0.0);
+		assertEquals(3.0, instance.calculateVolumeWeighted("ALE"), 0.0);
+		assertTrue(Double.isNaN(instance.calculateVolumeWeighted("GIN")));
+	}
+	
+	@Test
+	public void testSnapshotRoundTrip() throws Exception {
+		File directory = folder.newFolder();
+		double shareIndex = instance.calculateShareIndex();
+		double aleVolumeWeighted = instance.calculateVolumeWeighted("ALE");
+		
+		instance.writeSnapshot(directory, 3);
+		
+		// A snapshot with more trades than the store is not used
+		assertEquals(0, instance.restoreSnapshot(directory, 2));
+		
+		assertEquals(3, instance.restoreSnapshot(directory, 3));
+		assertEquals(shareIndex, instance.calculateShareIndex(), 0.0);
+		assertEquals(aleVolumeWeighted, instance.calculateVolumeWeighted("ALE"), 0.0);
+	}
+	
+	@Test
+	public void testIndexRebuiltFromStore() throws Exception {
+		File directory = folder.newFolder();
+		TradeStore store = TradeRecord.getStore();
+		
+		// Long before any other trade in the store
+		store.append(Stock.byTicker("GIN"), 1000, OperationType.BUY, 5, 2.0);
+		store.append(Stock.byTicker("GIN"), 1001, OperationType.SELL, 7, 3.0);
+		store.append(Stock.byTicker("GIN"), 1002, OperationType.BUY, 1, 4.0);
+		new DWHServiceImpl(2).writeSnapshot(directory, store.size());
+		
+		DWHServiceImpl restored = new DWHServiceImpl(2);
+		assertEquals(store.size(), restored.restoreSnapshot(directory, store.size()));
+		assertEquals(3, restored.getTradeCount("GIN", 1000, 1003));
+		assertEquals(12, restored.getVolume("GIN", 1000, 1002));
+	}
+	
+	@Test
+	public void testOlderSnapshotRestored() throws Exception {
+		File directory = folder.newFolder();
+		TradeStore store = TradeRecord.getStore();
+		
+		store.append(Stock.byTicker("GIN"), 2000, OperationType.SELL, 9, 5.0);
+		
+		// Version 5: the time indexes are skipped, the last trades rebuilt
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(directory, "dwh.snapshot")))) {
+			out.writeInt(0x44574853);
+			out.writeInt(5);
+			out.writeLong(store.size());
+			out.writeInt(0);
+			for (int i = 0; i < 4; i++) {
+				out.writeLong(0);
+			}
+			out.writeLong(0);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeInt(1);
+			out.writeInt(Stock.byTicker("GIN").getCode());
+			out.writeInt(2);
+			out.write(new byte[2 * 40]);
+			out.writeInt(1);
+			out.writeInt(0);
+			out.write(new byte[32]);
+			out.writeInt(0);
+		}
+		
+		DWHServiceImpl restored = new DWHServiceImpl(2);
+		LastTrade trade = new LastTrade();
+		assertEquals(store.size(), restored.restoreSnapshot(directory, store.size()));
+		assertTrue(restored.getLastTrade("GIN", trade));
+		assertEquals(2000, trade.getTimestamp());
+		assertEquals(9, trade.getQuantity());
+		assertEquals(1, restored.getTradeCount("GIN", 2000, 2001));
+	}
+	
+	@Test
+	public void testNewerSnapshotIgnored() throws Exception {
+		File directory = folder.newFolder();
+		
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(directory, "dwh.snapshot")))) {
+			out.writeInt(0x44574853);
+			out.writeInt(Integer.MAX_VALUE);
+			out.writeLong(3);
+		}
+		
+		assertEquals(0, new DWHServiceImpl(1).restoreSnapshot(directory, 3));
+	}
 }
@@ -0,0 +1,78 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.common.OverloadPolicy;
+import com.joseprio.stocktest.model.Stock;
+
+public class DWHSnapshotTest {
+	// Enough for a few snapshots
+	final private static int TRADES = 3 << 20;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSnapshotWhileTrading() throws Exception {
+		File directory = folder.newFolder();
+		File snapshot = new File(directory, "dwh.snapshot");
+		DWHServiceImpl instance = new DWHServiceImpl(4);
+		Random random = new Random(7);
+		long now = System.currentTimeMillis();
+		Stock[] stocks = new Stock[TRADES];
+		long[] timestamps = new long[TRADES];
+		long[] quantities = new long[TRADES];
+		double[] prices = new double[TRADES];
+		int snapshotSeenAt = -1;
+
+		for (int i = 0; i < TRADES; i++) {
+			stocks[i] = Stock.byId(random.nextInt(Stock.count()));
+			timestamps[i] = now - 60000 + i / 64;
+			quantities[i] = 1 + random.nextInt(1000);
+			// Whole cents, so the sums don't depend on the order
+			prices[i] = (1 + random.nextInt(10000)) / 100.0;
+		}
+
+		assertEquals(0, instance.restoreSnapshot(directory, 0));
+		for (int i = 0; i < TRADES; i++) {
+			// Merged trades take the lock the snapshots have to wait for
+			if (i % (1 << 18) == 0) {
+				instance.setOverloadPolicy((i % (1 << 19) == 0) ? OverloadPolicy.BLOCK : OverloadPolicy.COALESCE);
+			}
+			instance.notifyTrade(stocks[i], timestamps[i], quantities[i], OperationType.BUY, prices[i], i);
+			if (snapshotSeenAt < 0 && i % 1000 == 0 && snapshot.exists()) {
+				snapshotSeenAt = i;
+			}
+		}
+		instance.flush();
+
+		// Written without waiting for the DWH to catch up with the store
+		assertTrue(snapshotSeenAt > 0 && snapshotSeenAt < TRADES);
+
+		DWHServiceImpl restored = new DWHServiceImpl(3);
+		long sequence = restored.restoreSnapshot(directory, TRADES);
+		assertTrue(sequence > 0);
+		for (int i = (int)sequence; i < TRADES; i++) {
+			if (!restored.isApplied(i)) {
+				restored.notifyTrade(stocks[i], timestamps[i], quantities[i], OperationType.BUY, prices[i], i);
+			}
+		}
+		restored.flush();
+
+		// Every trade is included exactly once
+		assertEquals(instance.calculateShareIndex(), restored.calculateShareIndex(), 1e-9);
+		assertEquals(instance.calculateVolumeWeighted(), restored.calculateVolumeWeighted(), 1e-9);
+		for (int id = 0; id < Stock.count(); id++) {
+			String ticker = Stock.byId(id).getTicker();
+			assertEquals(instance.calculateVolumeWeighted(ticker), restored.calculateVolumeWeighted(ticker), 1e-9);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HeavyHittersTest {
+	final private static long WINDOW = 15 * 60 * 1000;
+	final private static long PERIOD = 30 * 1000;
+	final private static long NOW = 1000 * WINDOW;
+
+	@Test
+	public void testTopStocks() {
+		Random random = new Random(23);
+		HeavyHitters hitters = new HeavyHitters(WINDOW, PERIOD, 128);
+		int stocks = 5000;
+		long[] exact = new long[stocks];
+		long total = 0;
+
+		for (int i = 0; i < 500000; i++) {
+			// Skewed, the first stocks are traded far more often
+			int id = (int)(stocks * Math.pow(random.nextDouble(), 4));
+			long quantity = 1 + random.nextInt(100);
+			long timestamp = NOW - random.nextInt((int)WINDOW);
+			exact[id] += quantity;
+			total += quantity;
+			hitters.add(id, timestamp, quantity);
+		}
+
+		Map<Integer, Long> volumes = new HashMap<Integer, Long>();
+		hitters.addVolumesTo(NOW, volumes);
+		assertTrue(volumes.size() <= (WINDOW / PERIOD + 1) * 128);
+
+		List<Integer> top = new ArrayList<Integer>(volumes.keySet());
+		top.sort((a, b) -> volumes.get(b).compareTo(volumes.get(a)));
+		// Only these have more than 1/capacity of the volume in every period
+		for (int rank = 0; rank < 5; rank++) {
+			int id = top.get(rank);
+			assertEquals(rank, id);
+			// Overcounted by at most 1/capacity of the volume of each period
+			assertTrue(volumes.get(id) >= exact[id]);
+			assertTrue(volumes.get(id) - exact[id] <= total / 128);
+		}
+	}
+
+	@Test
+	public void testWindow() {
+		HeavyHitters hitters = new HeavyHitters(WINDOW, PERIOD, 4);
+		Map<Integer, Long> volumes = new HashMap<Integer, Long>();
+
+		hitters.add(1, NOW - WINDOW - PERIOD, 10);
+		hitters.add(2, NOW - WINDOW + PERIOD, 20);
+		hitters.add(3, NOW, 30);
+		hitters.addVolumesTo(NOW, volumes);
+		assertEquals(2, volumes.size());
+		assertEquals(20L, volumes.get(2).longValue());
+
+		// Too old for the ring once newer periods took its place
+		hitters.add(4, NOW - 2 * WINDOW, 40);
+		volumes.clear();
+		hitters.addVolumesTo(NOW + WINDOW, volumes);
+		assertNull(volumes.get(4));
+	}
+
+	@Test
+	public void testSummary() {
+		Random random = new Random(8);
+		HeavyHitters.Summary summary = new HeavyHitters.Summary(16);
+		long total = 0;
+
+		summary.clear(0);
+		for (int i = 0; i < 10000; i++) {
+			// Colliding ids, so the table has to shift entries on removal
+			int id = random.nextInt(64) * 1024;
+			summary.add(id, 1);
+			total++;
+			// The id just added is always tracked
+			assertTrue(summary.getCount(id) > 0);
+		}
+
+		long tracked = 0;
+		for (int id = 0; id < 64 * 1024; id += 1024) {
+			tracked += summary.getCount(id);
+		}
+		// Replaced stocks hand their volume over
+		assertEquals(total, tracked);
+	}
+}
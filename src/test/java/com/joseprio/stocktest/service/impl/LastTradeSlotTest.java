@@ -0,0 +1,74 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.joseprio.stocktest.model.LastTrade;
+
+public class LastTradeSlotTest {
+	final private static int READERS = 3;
+	final private static long UPDATES = 2000000;
+
+	@Test
+	public void testLatestTimestamp() {
+		LastTradeSlot slot = new LastTradeSlot();
+		LastTrade lastTrade = new LastTrade();
+
+		assertFalse(slot.copyTo(lastTrade));
+		assertTrue(Double.isNaN(slot.getPricePerShare()));
+
+		slot.update(100, 5, 1.5);
+		slot.update(90, 7, 2.5);
+		assertTrue(slot.copyTo(lastTrade));
+		assertEquals(100, lastTrade.getTimestamp());
+		assertEquals(5, lastTrade.getQuantity());
+		assertEquals(1.5, lastTrade.getPricePerShare(), 0.0);
+
+		// Same timestamp, applied later
+		slot.update(100, 9, 3.5);
+		assertEquals(3.5, slot.getPricePerShare(), 0.0);
+	}
+
+	@Test
+	public void testNoTornReads() throws InterruptedException {
+		LastTradeSlot slot = new LastTradeSlot();
+		AtomicBoolean done = new AtomicBoolean(false);
+		AtomicLong torn = new AtomicLong(0);
+		AtomicLong reads = new AtomicLong(0);
+
+		Thread[] readers = new Thread[READERS];
+		for (int i = 0; i < READERS; i++) {
+			readers[i] = new Thread(() -> {
+				LastTrade lastTrade = new LastTrade();
+				while (!done.get()) {
+					if (slot.copyTo(lastTrade)) {
+						// Every update writes the same value to all the fields
+						if (lastTrade.getQuantity() != lastTrade.getTimestamp()
+								|| lastTrade.getPricePerShare() != lastTrade.getTimestamp()) {
+							torn.incrementAndGet();
+						}
+						reads.incrementAndGet();
+					}
+				}
+			});
+			readers[i].start();
+		}
+
+		for (long update = 1; update <= UPDATES; update++) {
+			slot.update(update, update, update);
+		}
+		done.set(true);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+
+		assertEquals(0, torn.get());
+		LastTrade lastTrade = new LastTrade();
+		slot.copyTo(lastTrade);
+		assertEquals(UPDATES, lastTrade.getTimestamp());
+	}
+}
@@ -0,0 +1,55 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PairAccumulatorTest {
+	final private static int WRITERS = 4;
+	final private static int ADDS_PER_WRITER = 200000;
+
+	private volatile boolean mTornRead = false;
+
+	@Test
+	public void testEmpty() {
+		PairAccumulator accumulator = new PairAccumulator();
+		assertEquals(0, accumulator.getQuantity());
+		assertTrue(Double.isNaN(accumulator.getRatio()));
+	}
+
+	@Test
+	public void testConcurrentWriters() throws InterruptedException {
+		PairAccumulator accumulator = new PairAccumulator();
+		// Seed it so the ratio is always defined
+		accumulator.add(1, 2.0);
+
+		Thread[] writers = new Thread[WRITERS];
+		for (int i = 0; i < WRITERS; i++) {
+			writers[i] = new Thread(() -> {
+				for (int a = 0; a < ADDS_PER_WRITER; a++) {
+					accumulator.add(1, 2.0);
+				}
+			});
+			writers[i].start();
+		}
+
+		// Every pair added has a ratio of 2, so any other ratio is a torn read
+		Thread reader = new Thread(() -> {
+			for (int r = 0; r < ADDS_PER_WRITER; r++) {
+				if (accumulator.getRatio() != 2.0) {
+					mTornRead = true;
+				}
+			}
+		});
+		reader.start();
+
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		reader.join();
+
+		assertFalse(mTornRead);
+		assertEquals(WRITERS * ADDS_PER_WRITER + 1, accumulator.getQuantity());
+		assertEquals(2.0, accumulator.getRatio(), 0.0);
+	}
+}
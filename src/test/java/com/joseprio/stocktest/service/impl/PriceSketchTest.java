@@ -0,0 +1,125 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PriceSketchTest {
+	final private static long DAY = 24 * 60 * 60 * 1000L;
+	final private static long NOW = 1000 * DAY + 12345;
+	final private static double[] QUANTILES = { 0.0, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 1.0 };
+	// Leeway for the rounding of the logarithms at the bucket bounds
+	final private static double BOUND = PriceSketch.RELATIVE_ACCURACY + 1e-9;
+
+	@Test
+	public void testErrorBound() {
+		Random random = new Random(22);
+		PriceSketch sketch = new PriceSketch();
+		int trades = 200000;
+		double[] prices = new double[trades];
+
+		for (int i = 0; i < trades; i++) {
+			// Log-normal around 50, plus a few outliers
+			prices[i] = (i % 1000 == 0) ? 0.01 + random.nextDouble() * 50000 : 50 * Math.exp(random.nextGaussian() * 0.5);
+			sketch.add(NOW + i, prices[i], 1);
+		}
+		Arrays.sort(prices);
+
+		assertEquals(trades, sketch.getCount());
+		for (double quantile : QUANTILES) {
+			double exact = prices[(int)(quantile * (trades - 1))];
+			double estimate = sketch.getQuantile(quantile, NOW);
+			assertEquals("q" + quantile, exact, estimate, exact * BOUND);
+		}
+		// The extremes are kept exactly
+		assertEquals(prices[0], sketch.getQuantile(0.0, NOW), 0.0);
+		assertEquals(prices[trades - 1], sketch.getQuantile(1.0, NOW), 0.0);
+	}
+
+	@Test
+	public void testMerge() {
+		Random random = new Random(5);
+		PriceSketch all = new PriceSketch();
+		PriceSketch[] parts = new PriceSketch[4];
+
+		for (int part = 0; part < parts.length; part++) {
+			parts[part] = new PriceSketch();
+		}
+		for (int i = 0; i < 10000; i++) {
+			double price = 1 + random.nextInt(100000) / 100.0;
+			all.add(NOW, price, 1);
+			parts[i % parts.length].add(NOW, price, 1);
+		}
+
+		PriceSketch merged = new PriceSketch();
+		for (PriceSketch part : parts) {
+			merged.merge(part);
+		}
+
+		assertEquals(all.getCount(), merged.getCount());
+		for (double quantile : QUANTILES) {
+			assertEquals(all.getQuantile(quantile, NOW), merged.getQuantile(quantile, NOW), 0.0);
+		}
+	}
+
+	@Test
+	public void testDays() {
+		PriceSketch sketch = new PriceSketch();
+
+		sketch.add(NOW - DAY, 10.0, 1);
+		assertTrue(Double.isNaN(sketch.getQuantile(0.5, NOW)));
+
+		// A new day starts from scratch, and the old one is no longer counted
+		sketch.add(NOW, 20.0, 3);
+		sketch.add(NOW - DAY, 10.0, 1);
+		assertEquals(3, sketch.getCount());
+		assertEquals(20.0, sketch.getQuantile(0.5, NOW), 0.0);
+		assertTrue(Double.isNaN(sketch.getQuantile(0.5, NOW + DAY)));
+	}
+
+	@Test
+	public void testWriteRead() throws Exception {
+		PriceSketch sketch = new PriceSketch();
+		PriceSketch restored = new PriceSketch();
+
+		for (int i = 0; i < 1000; i++) {
+			sketch.add(NOW + i, 1.0 + i % 97, 1);
+		}
+		// Whatever was there before is replaced
+		restored.add(NOW + DAY, 5.0, 1);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		sketch.writeTo(new DataOutputStream(bytes));
+		restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(sketch.getCount(), restored.getCount());
+		for (double quantile : QUANTILES) {
+			assertEquals(sketch.getQuantile(quantile, NOW), restored.getQuantile(quantile, NOW), 0.0);
+		}
+
+		// An empty one too
+		bytes.reset();
+		new PriceSketch().writeTo(new DataOutputStream(bytes));
+		restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(0, restored.getCount());
+		assertTrue(Double.isNaN(restored.getQuantile(0.5, NOW)));
+	}
+
+	@Test
+	public void testOutOfRange() {
+		PriceSketch sketch = new PriceSketch();
+
+		sketch.add(NOW, PriceSketch.MIN_PRICE / 10, 1);
+		sketch.add(NOW, PriceSketch.MAX_PRICE * 10, 1);
+		assertEquals(PriceSketch.MIN_PRICE / 10, sketch.getQuantile(0.0, NOW), 0.0);
+		assertEquals(PriceSketch.MAX_PRICE * 10, sketch.getQuantile(1.0, NOW), 0.0);
+		assertEquals(0, PriceSketch.bucketOf(Double.NaN));
+	}
+}
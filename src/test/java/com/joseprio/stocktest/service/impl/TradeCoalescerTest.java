@@ -0,0 +1,44 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.joseprio.stocktest.model.Stock;
+
+public class TradeCoalescerTest {
+	private long mDeltas = 0;
+
+	@Test
+	public void testDrain() {
+		TradeCoalescer coalescer = new TradeCoalescer();
+		Stock tea = Stock.byTicker("TEA");
+		Stock gin = Stock.byTicker("GIN");
+
+		assertFalse(coalescer.hasPending());
+		coalescer.add(tea, 2000, 10, 15.0);
+		coalescer.add(tea, 1000, 5, 10.0);
+		coalescer.add(gin, 3000, 1, 4.0);
+		assertEquals(3, coalescer.getPending());
+
+		assertEquals(3, coalescer.drain((stock, timestamp, quantity, notional, trades) -> {
+			mDeltas++;
+			if (stock == tea) {
+				// The newest timestamp is kept
+				assertEquals(2000, timestamp);
+				assertEquals(15, quantity);
+				assertEquals(25.0, notional, 0.0);
+				assertEquals(2, trades);
+			} else {
+				assertSame(gin, stock);
+				assertEquals(3000, timestamp);
+				assertEquals(1, trades);
+			}
+		}));
+		assertEquals(2, mDeltas);
+		assertFalse(coalescer.hasPending());
+
+		// Nothing left after draining
+		assertEquals(0, coalescer.drain((stock, timestamp, quantity, notional, trades) -> fail()));
+	}
+}
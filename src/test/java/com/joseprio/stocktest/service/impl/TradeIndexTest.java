@@ -0,0 +1,115 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TradeIndexTest {
+	@Test
+	public void testRanges() {
+		Random random = new Random(7);
+		TradeIndex index = new TradeIndex();
+		int trades = 5000;
+		long[] timestamps = new long[trades];
+		long[] quantities = new long[trades];
+		double[] notionals = new double[trades];
+
+		for (int i = 0; i < trades; i++) {
+			// Mostly in order, some late
+			timestamps[i] = i * 10 - ((random.nextInt(10) == 0) ? random.nextInt(500) : 0);
+			quantities[i] = 1 + random.nextInt(100);
+			notionals[i] = quantities[i] * (1 + random.nextInt(100000) / 100.0);
+			index.add(timestamps[i], quantities[i], notionals[i], 1);
+		}
+		assertEquals(trades, index.size());
+
+		TradeIndex.Range range = new TradeIndex.Range();
+		for (int query = 0; query < 200; query++) {
+			long from = random.nextInt(trades * 10);
+			long to = from + random.nextInt(trades * 10);
+			long quantity = 0;
+			double notional = 0.0;
+			long count = 0;
+
+			for (int i = 0; i < trades; i++) {
+				if (timestamps[i] >= from && timestamps[i] < to) {
+					quantity += quantities[i];
+					notional += notionals[i];
+					count++;
+				}
+			}
+
+			index.sum(from, to, range);
+			assertEquals(count, range.mTrades);
+			assertEquals(quantity, range.mQuantity);
+			assertEquals(notional, range.mNotional, Math.abs(notional) * 1e-12);
+		}
+	}
+
+	@Test
+	public void testMostlyLate() {
+		Random random = new Random(11);
+		TradeIndex index = new TradeIndex();
+		int trades = 1000000;
+		long[] quantities = new long[trades];
+
+		// Newest first, so each one is late; inserted in place, every trade
+		// would shift all the ones before it
+		for (int i = 0; i < trades; i++) {
+			quantities[i] = 1 + random.nextInt(100);
+			index.add(trades - i, quantities[i], quantities[i] * 2.5, 1);
+		}
+		index.add(trades + 1, 1, 2.5, 1);
+		assertEquals(trades + 1, index.size());
+
+		TradeIndex.Range range = new TradeIndex.Range();
+		for (int query = 0; query < 100; query++) {
+			int from = 1 + random.nextInt(trades);
+			int to = from + random.nextInt(trades + 2 - from);
+			long quantity = 0;
+
+			// Timestamp t is trade trades - t, plus the one appended last
+			for (long timestamp = from; timestamp < to; timestamp++) {
+				quantity += (timestamp > trades) ? 1 : quantities[(int)(trades - timestamp)];
+			}
+
+			index.sum(from, to, range);
+			assertEquals(to - from, range.mTrades);
+			assertEquals(quantity, range.mQuantity);
+			assertEquals(quantity * 2.5, range.mNotional, quantity * 1e-12);
+		}
+	}
+
+	@Test
+	public void testPrecision() {
+		TradeIndex index = new TradeIndex();
+		TradeIndex.Range range = new TradeIndex.Range();
+
+		// A large day before a small trade
+		for (int i = 0; i < 100000; i++) {
+			index.add(i, 1000000, 1000000 * 1234.56, 1);
+		}
+		index.add(100000, 1, 0.01, 1);
+
+		index.sum(100000, 100001, range);
+		assertEquals(0.01, range.mNotional, 1e-12);
+		assertEquals(0.01, range.getVolumeWeighted(), 1e-12);
+	}
+
+	@Test
+	public void testEmptyRange() {
+		TradeIndex index = new TradeIndex();
+		TradeIndex.Range range = new TradeIndex.Range();
+
+		index.add(10, 5, 50.0, 2);
+		index.sum(20, 10, range);
+		assertEquals(0, range.mTrades);
+		assertTrue(Double.isNaN(range.getVolumeWeighted()));
+
+		index.sum(0, 11, range);
+		assertEquals(2, range.mTrades);
+		assertEquals(10.0, range.getVolumeWeighted(), 0.0);
+	}
+}
@@ -0,0 +1,81 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Stock;
+
+public class TradeJournalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long mQuantity;
+
+	@Test
+	public void testReplay() throws Exception {
+		File directory = folder.newFolder();
+		TradeJournal journal = new TradeJournal(directory);
+		int code = Stock.encodeTicker("GIN");
+		for (int s = 0; s < 100; s++) {
+			journal.append(s, code, 1000 + s, OperationType.SELL, s, 2.5);
+		}
+		journal.force();
+
+		mQuantity = 0;
+		long replayed = new TradeJournal(directory).replay((sequence, tickerCode, timestamp, type, quantity, pricePerShare) -> {
+			assertEquals(code, tickerCode);
+			assertEquals(1000 + sequence, timestamp);
+			assertEquals(OperationType.SELL, type);
+			assertEquals(2.5, pricePerShare, 0.0);
+			mQuantity += quantity;
+		});
+
+		assertEquals(100, replayed);
+		assertEquals(99 * 100 / 2, mQuantity);
+	}
+
+	@Test
+	public void testDamagedRecord() throws Exception {
+		File directory = folder.newFolder();
+		TradeJournal journal = new TradeJournal(directory);
+		for (int s = 0; s < 10; s++) {
+			journal.append(s, Stock.encodeTicker("TEA"), 1000, OperationType.BUY, 1, 1.0);
+		}
+		journal.force();
+
+		// Damage the sixth record, as if the process died while writing it
+		File segment = directory.listFiles()[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.seek(5 * TradeJournal.RECORD_SIZE + 16);
+			file.writeLong(12345);
+		}
+
+		journal = new TradeJournal(directory);
+		assertEquals(5, journal.replay((sequence, tickerCode, timestamp, type, quantity, pricePerShare) -> { }));
+
+		// The records after the damaged one are gone, and new ones take their place
+		journal.append(5, Stock.encodeTicker("TEA"), 1000, OperationType.BUY, 1, 1.0);
+		journal.force();
+		assertEquals(6, new TradeJournal(directory).replay((sequence, tickerCode, timestamp, type, quantity, pricePerShare) -> { }));
+	}
+
+	@Test
+	public void testSegmentRoll() throws Exception {
+		File directory = folder.newFolder();
+		TradeJournal journal = new TradeJournal(directory);
+		for (long s = 0; s < TradeJournal.RECORDS_PER_SEGMENT + 3; s++) {
+			journal.append(s, Stock.encodeTicker("TEA"), 1000, OperationType.BUY, 1, 1.0);
+		}
+		journal.force();
+		assertEquals(2, directory.listFiles().length);
+		assertEquals(TradeJournal.RECORDS_PER_SEGMENT + 3,
+				new TradeJournal(directory).replay((sequence, tickerCode, timestamp, type, quantity, pricePerShare) -> { }));
+	}
+}
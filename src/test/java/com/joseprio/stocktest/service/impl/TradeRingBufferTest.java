@@ -0,0 +1,120 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.model.Stock;
+import com.joseprio.stocktest.model.TradeBatch;
+
+public class TradeRingBufferTest {
+	final private static int PRODUCERS = 4;
+	final private static int TRADES_PER_PRODUCER = 100000;
+
+	private long mQuantity = 0;
+	private long mTrades = 0;
+
+	@Test
+	public void testConcurrentProducers() throws InterruptedException {
+		// Small ring, so producers have to wait for the consumer
+		TradeRingBuffer ring = new TradeRingBuffer(1024, "test-consumer", (r, from, to) -> {
+			for (long s = from; s < to; s++) {
+				mQuantity += r.getQuantity(s);
+				mTrades++;
+			}
+		});
+		Stock stock = Stock.byTicker("TEA");
+
+		Thread[] producers = new Thread[PRODUCERS];
+		for (int i = 0; i < PRODUCERS; i++) {
+			producers[i] = new Thread(() -> {
+				for (int t = 0; t < TRADES_PER_PRODUCER; t++) {
+					ring.publish(stock, 1, 2, OperationType.BUY, 1.0);
+				}
+			});
+			producers[i].start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		ring.flush();
+
+		assertEquals(PRODUCERS * TRADES_PER_PRODUCER, ring.getConsumed());
+		assertEquals(PRODUCERS * TRADES_PER_PRODUCER, mTrades);
+		assertEquals(2L * PRODUCERS * TRADES_PER_PRODUCER, mQuantity);
+	}
+
+	@Test
+	public void testPublishBatch() {
+		mQuantity = 0;
+		mTrades = 0;
+		// The batch is larger than the ring, so it goes in parts
+		TradeRingBuffer ring = new TradeRingBuffer(64, "test-consumer", (r, from, to) -> {
+			for (long s = from; s < to; s++) {
+				mQuantity += r.getQuantity(s);
+				mTrades++;
+			}
+		});
+		TradeBatch batch = new TradeBatch(1000);
+		long timestamp = System.currentTimeMillis();
+
+		for (int i = 0; i < batch.getCapacity(); i++) {
+			// Every tenth trade is rejected
+			batch.add("TEA", timestamp, (i % 10 == 0) ? 0 : 1, OperationType.BUY, 1.0);
+		}
+		batch.validate(timestamp);
+		ring.publish(batch);
+		ring.flush();
+
+		assertEquals(900, ring.getConsumed());
+		assertEquals(900, mTrades);
+		assertEquals(900, mQuantity);
+	}
+
+	@Test
+	public void testTryPublish() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		// The consumer gets stuck in the first batch, so the ring fills up
+		TradeRingBuffer ring = new TradeRingBuffer(8, "test-consumer", (r, from, to) -> {
+			try {
+				release.await();
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		Stock stock = Stock.byTicker("TEA");
+
+		for (int i = 0; i < 8; i++) {
+			assertTrue(ring.tryPublish(stock, 1, 1, OperationType.BUY, 1.0));
+		}
+		assertFalse(ring.tryPublish(stock, 1, 1, OperationType.BUY, 1.0));
+		assertEquals(8, ring.getPublished());
+
+		release.countDown();
+		ring.flush();
+		assertTrue(ring.tryPublish(stock, 1, 1, OperationType.BUY, 1.0));
+		ring.flush();
+		assertEquals(9, ring.getConsumed());
+	}
+
+	@Test
+	public void testFailedBatch() {
+		TradeRingBuffer ring = new TradeRingBuffer(64, "test-consumer", (r, from, to) -> {
+			throw new IllegalStateException("Test failure");
+		});
+		Stock stock = Stock.byTicker("TEA");
+
+		ring.publish(stock, 1, 1, OperationType.BUY, 1.0);
+		ring.flush();
+
+		// Counted, and the consumer goes on
+		assertEquals(1, ring.getConsumed());
+		assertEquals(1, ring.getFailedBatches());
+		ring.publish(stock, 1, 1, OperationType.BUY, 1.0);
+		ring.flush();
+		assertEquals(2, ring.getConsumed());
+	}
+}
@@ -0,0 +1,108 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import com.joseprio.stocktest.common.OperationType;
+import com.joseprio.stocktest.common.RejectionReason;
+import com.joseprio.stocktest.model.TradeBatch;
+import com.joseprio.stocktest.model.TradeRecord;
+import com.joseprio.stocktest.model.TradeStore;
+import com.joseprio.stocktest.service.DWHServiceFactory;
+
+public class TradeServiceImplTest {
+	final private static int WARMUP_TRADES = 200000;
+	final private static int MEASURED_TRADES = 10000;
+	final private static long MAX_ALLOCATED_BYTES = 1024;
+	// GIN and JOE are left for the other tests
+	final private static String[] TICKERS = { "TEA", "POP", "ALE" };
+
+	@Test
+	public void testRecordTrade() {
+		TradeServiceImpl instance = new TradeServiceImpl();
+		long timestamp = System.currentTimeMillis() - 1000;
+		long stored = TradeRecord.getStore().size();
+
+		instance.recordTrade("GIN", timestamp, 10, OperationType.BUY, 2.0);
+		instance.recordTrade("GIN", timestamp, 30, OperationType.SELL, 4.0);
+		((DWHServiceImpl)DWHServiceFactory.getInstance()).flush();
+
+		assertEquals(stored + 2, TradeRecord.getStore().size());
+		assertEquals(3.5, DWHServiceFactory.getInstance().calculateVolumeWeighted("GIN"), 0.0);
+	}
+
+	@Test
+	public void testRecordTrades() {
+		TradeServiceImpl instance = new TradeServiceImpl();
+		TradeBatch batch = new TradeBatch(10001);
+		long timestamp = System.currentTimeMillis() - 1000;
+		long stored = TradeRecord.getStore().size();
+
+		for (int i = 0; i < 10000; i++) {
+			batch.add("JOE", timestamp, 1 + i % 2, OperationType.BUY, (i % 2 == 0) ? 1.0 : 4.0);
+		}
+		batch.add("JOE", timestamp, 1, OperationType.BUY, -1.0);
+
+		assertEquals(10000, instance.recordTrades(batch));
+		assertEquals(RejectionReason.INVALID_PRICE, batch.getRejection(10000));
+		((DWHServiceImpl)DWHServiceFactory.getInstance()).flush();
+
+		assertEquals(stored + 10000, TradeRecord.getStore().size());
+		assertEquals(3.0, DWHServiceFactory.getInstance().calculateVolumeWeighted("JOE"), 0.0);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnknownTicker() {
+		new TradeServiceImpl().recordTrade("XYZ", System.currentTimeMillis(), 1, OperationType.BUY, 1.0);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testFutureTimestamp() {
+		new TradeServiceImpl().recordTrade("TEA", System.currentTimeMillis() + 60000, 1, OperationType.BUY, 1.0);
+	}
+
+	@Test
+	public void testRecordTradeDoesNotAllocate() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		TradeServiceImpl instance = new TradeServiceImpl();
+		TradeStore store = TradeRecord.getStore();
+		long timestamp = System.currentTimeMillis() - 1000;
+
+		// Let the JIT compile the path
+		for (int i = 0; i < WARMUP_TRADES; i++) {
+			instance.recordTrade(TICKERS[i % TICKERS.length], timestamp, 1 + i % 100, OperationType.BUY, 1.0 + i % 7);
+		}
+
+		// The store allocates its chunks as it goes; keep the measured trades
+		// away from the rows where that happens
+		int chunkSize = TradeStore.getChunkSize();
+		while (!fitsInChunk(store.size() % chunkSize, chunkSize)) {
+			instance.recordTrade("TEA", timestamp, 1, OperationType.SELL, 1.0);
+		}
+
+		// Cost of reading the counter itself
+		long overhead = threads.getThreadAllocatedBytes(threadId);
+		overhead = threads.getThreadAllocatedBytes(threadId) - overhead;
+
+		long before = threads.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < MEASURED_TRADES; i++) {
+			instance.recordTrade(TICKERS[i % TICKERS.length], timestamp, 1 + i % 100, OperationType.SELL, 1.0 + i % 7);
+		}
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+		// A single object per trade would take at least 16 bytes each, the
+		// whole run has to stay within a few of them
+		assertTrue("Allocated " + allocated + " bytes", allocated < MAX_ALLOCATED_BYTES);
+	}
+
+	private static boolean fitsInChunk(long index, int chunkSize) {
+		int half = chunkSize / 2;
+
+		return (index > 0 && index + MEASURED_TRADES < half)
+				|| (index > half && index + MEASURED_TRADES < chunkSize);
+	}
+}
@@ -0,0 +1,49 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class VolumeWindowTest {
+	final private static long WINDOW = 15 * 60 * 1000;
+	final private static long NOW = 1000000000000L;
+
+	@Test
+	public void testEmptyWindow() {
+		VolumeWindow window = new VolumeWindow(WINDOW, 1000);
+		assertTrue(Double.isNaN(window.getVolumeWeighted(NOW)));
+	}
+
+	@Test
+	public void testExpiry() {
+		VolumeWindow window = new VolumeWindow(WINDOW, 1000);
+		window.add(NOW - 60000, 2, 20.0);
+		window.add(NOW - 1000, 2, 40.0);
+		assertEquals(15.0, window.getVolumeWeighted(NOW), 0.0);
+
+		// The first trade falls out of the window
+		assertEquals(20.0, window.getVolumeWeighted(NOW + WINDOW - 30000), 0.0);
+
+		// And then everything
+		assertTrue(Double.isNaN(window.getVolumeWeighted(NOW + 2 * WINDOW)));
+	}
+
+	@Test
+	public void testOldTradeIgnored() {
+		VolumeWindow window = new VolumeWindow(WINDOW, 1000);
+		window.add(NOW, 1, 5.0);
+		window.add(NOW - 2 * WINDOW, 1, 100.0);
+		assertEquals(5.0, window.getVolumeWeighted(NOW), 0.0);
+	}
+
+	@Test
+	public void testLateTrade() {
+		VolumeWindow window = new VolumeWindow(WINDOW, 1000);
+		window.add(NOW, 1, 10.0);
+		window.add(NOW - 120000, 1, 20.0);
+		assertEquals(15.0, window.getVolumeWeighted(NOW), 0.0);
+
+		// The late trade expires according to its own timestamp
+		assertEquals(10.0, window.getVolumeWeighted(NOW + WINDOW - 60000), 0.0);
+	}
+}
@@ -0,0 +1,49 @@
+package com.joseprio.stocktest.service.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class WatermarkTest {
+	final private static long NOW = 1000000000000L;
+
+	@Test
+	public void testLateTrades() {
+		Watermark watermark = new Watermark(5000);
+
+		assertTrue(watermark.accept(NOW));
+		assertTrue(watermark.accept(NOW + 1000));
+		assertEquals(NOW - 4000, watermark.get());
+
+		// Within the allowed lateness
+		assertTrue(watermark.accept(NOW - 3000));
+		assertEquals(1, watermark.getLateTrades());
+		assertEquals(0, watermark.getDroppedTrades());
+
+		// Behind the watermark
+		assertFalse(watermark.accept(NOW - 10000));
+		assertEquals(1, watermark.getLateTrades());
+		assertEquals(1, watermark.getDroppedTrades());
+		assertEquals(11000, watermark.getMaxLateness());
+	}
+
+	@Test
+	public void testSetAllowedLateness() {
+		Watermark watermark = new Watermark(5000);
+
+		assertTrue(watermark.accept(NOW));
+		assertTrue(watermark.accept(NOW - 4000));
+		assertFalse(watermark.accept(NOW - 6000));
+
+		// The newest timestamp is kept, so old trades are still behind it
+		watermark.setAllowedLateness(1000);
+		assertEquals(NOW - 1000, watermark.get());
+		assertEquals(0, watermark.getLateTrades());
+		assertEquals(0, watermark.getDroppedTrades());
+		assertEquals(0, watermark.getMaxLateness());
+		assertFalse(watermark.accept(NOW - 4000));
+		assertTrue(watermark.accept(NOW - 500));
+		assertEquals(1, watermark.getLateTrades());
+		assertEquals(1, watermark.getDroppedTrades());
+	}
+}